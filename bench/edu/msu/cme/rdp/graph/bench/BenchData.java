@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.bench;
+
+import edu.msu.cme.rdp.alignment.hmm.HMMER3bParser;
+import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks. Random reads are generated from a fixed
+ * seed. The search benchmarks use a small protein model (for.hmm, rev.hmm)
+ * and six variants of a gene it describes (genes.fa, each gene between 150
+ * bases of random flank) bundled next to this class, the bloom filter is
+ * built from the genes and some random reads when the benchmark starts.
+ */
+public class BenchData {
+
+    public static final int KMER_SIZE = 45;
+    /**
+     * Bases of random flank before each gene in genes.fa
+     */
+    public static final int GENE_OFFSET = 150;
+    private static final char[] BASES = {'a', 'c', 'g', 't'};
+
+    public static char[] randomBases(Random rand, int length) {
+        char[] ret = new char[length];
+        for (int index = 0; index < length; index++) {
+            ret[index] = BASES[rand.nextInt(4)];
+        }
+        return ret;
+    }
+
+    public static List<char[]> randomReads(long seed, int count, int length) {
+        Random rand = new Random(seed);
+        List<char[]> ret = new ArrayList<char[]>(count);
+        for (int index = 0; index < count; index++) {
+            ret.add(randomBases(rand, length));
+        }
+        return ret;
+    }
+
+    /**
+     * @return the sequences in genes.fa
+     */
+    public static List<String> readGenes() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(open("genes.fa")));
+        List<String> ret = new ArrayList<String>();
+        try {
+            StringBuilder seq = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(">")) {
+                    if (seq != null) {
+                        ret.add(seq.toString());
+                    }
+                    seq = new StringBuilder();
+                } else if (seq != null) {
+                    seq.append(line.trim());
+                }
+            }
+            if (seq != null) {
+                ret.add(seq.toString());
+            }
+        } finally {
+            reader.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Reads one of the bundled models, for.hmm or rev.hmm. The parser only
+     * reads files so the model is copied to a temporary file first.
+     */
+    public static ProfileHMM readHMM(String name) throws IOException {
+        File tmp = File.createTempFile("bench", ".hmm");
+        try {
+            InputStream in = open(name);
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                byte[] buf = new byte[8192];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+            } finally {
+                in.close();
+                out.close();
+            }
+            return HMMER3bParser.readModel(tmp);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static InputStream open(String name) throws IOException {
+        InputStream in = BenchData.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Benchmark resource " + name + " not found, is " + BenchData.class.getPackage().getName() + " on the classpath?");
+        }
+        return in;
+    }
+
+    /**
+     * @return a 2^22 bit filter of the genes and 2000 random reads
+     */
+    public static BloomFilter buildGeneFilter(List<String> genes) {
+        BloomFilter filter = new BloomFilter(22, 4, KMER_SIZE, 20, 1);
+        BloomFilter.GraphBuilder builder = filter.new GraphBuilder();
+        for (String gene : genes) {
+            builder.addString(gene.toCharArray());
+        }
+        for (char[] read : randomReads(5, 2000, 150)) {
+            builder.addString(read);
+        }
+        return filter;
+    }
+
+    /**
+     * @return the in frame kmer starting at codon position codon of a gene
+     */
+    public static String geneKmer(String gene, int codon) {
+        int start = GENE_OFFSET + codon * 3;
+        return gene.substring(start, start + KMER_SIZE);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.bench;
+
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.filter.NextCodon;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the codons that follow kmers of the bundled genes, the walk the
+ * search makes from every node it opens. Each invocation jumps to every
+ * in-frame kmer of the genes and lists its next codons.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodonFacadeBenchmark {
+
+    private List<char[]> kmers;
+    private BloomFilter.RightCodonFacade right;
+    private BloomFilter.LeftCodonFacade left;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> genes = BenchData.readGenes();
+        BloomFilter filter = BenchData.buildGeneFilter(genes);
+        kmers = new ArrayList<char[]>();
+        for (String gene : genes) {
+            int codons = (gene.length() - 2 * BenchData.GENE_OFFSET - BenchData.KMER_SIZE) / 3;
+            for (int codon = 0; codon <= codons; codon++) {
+                kmers.add(BenchData.geneKmer(gene, codon).toCharArray());
+            }
+        }
+        right = filter.new RightCodonFacade(kmers.get(0));
+        left = filter.new LeftCodonFacade(kmers.get(0));
+    }
+
+    private int countCodons(BloomFilter.CodonFacade walker) {
+        int ret = 0;
+        for (char[] kmer : kmers) {
+            walker.jumpTo(kmer);
+            for (NextCodon codon = walker.getNextCodon(); codon != null; codon = walker.getSibCodon()) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int rightGetNextCodon() {
+        return countCodons(right);
+    }
+
+    @Benchmark
+    public int leftGetNextCodon() {
+        return countCodons(left);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.bench;
+
+import edu.msu.cme.rdp.graph.hash.CyclicHash;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rolling the cyclic hash one base along a sequence, the cost per kmer of
+ * building a filter and of walking the graph
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CyclicHashBenchmark {
+
+    private static final int LENGTH = 1 << 16;
+    /**
+     * Bases hashed before the first update, at least the largest kmer size
+     */
+    private static final int PRIME = 64;
+
+    @Param({"21", "45", "63"})
+    public int kmerSize;
+
+    private CyclicHash hash;
+    private byte[] bases;
+
+    @Setup
+    public void setup() {
+        hash = new CyclicHash(kmerSize);
+        Random rand = new Random(1);
+        bases = new byte[LENGTH];
+        for (int index = 0; index < LENGTH; index++) {
+            bases[index] = (byte) rand.nextInt(4);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LENGTH - PRIME)
+    public long updateRight() {
+        long h = 0;
+        for (int index = PRIME - kmerSize; index < PRIME; index++) {
+            h = hash.eatRight(h, bases[index]);
+        }
+        for (int index = PRIME; index < LENGTH; index++) {
+            h = hash.updateRight(h, bases[index - kmerSize], bases[index]);
+        }
+        return h;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LENGTH - PRIME)
+    public long updateLeft() {
+        long h = 0;
+        for (int index = LENGTH - kmerSize; index < LENGTH; index++) {
+            h = hash.eatRight(h, bases[index]);
+        }
+        for (int index = LENGTH - kmerSize - 1; index >= PRIME - kmerSize; index--) {
+            h = hash.updateLeft(h, bases[index + kmerSize], bases[index]);
+        }
+        return h;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.bench;
+
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adding 150 base reads to a filter, time per read. The filter is replaced
+ * every iteration so the first invocations of each iteration add new kmers
+ * and the rest find them already set, as with high coverage reads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBuilderBenchmark {
+
+    private static final int READS = 2000;
+
+    @Param({"0", "1"})
+    public int layout;
+
+    private List<char[]> reads;
+    private BloomFilter.GraphBuilder builder;
+
+    @Setup(Level.Trial)
+    public void makeReads() {
+        reads = BenchData.randomReads(1, READS, 150);
+    }
+
+    @Setup(Level.Iteration)
+    public void makeFilter() {
+        builder = new BloomFilter(24, 4, BenchData.KMER_SIZE, 22, 1, layout).new GraphBuilder();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public long addString() {
+        for (char[] read : reads) {
+            builder.addString(read);
+        }
+        return builder.getUniqueKmerAdded();
+    }
+}
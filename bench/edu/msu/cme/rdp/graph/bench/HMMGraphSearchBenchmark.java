@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.bench;
+
+import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.search.HMMGraphSearch;
+import edu.msu.cme.rdp.graph.search.SearchResult;
+import edu.msu.cme.rdp.graph.search.SearchTarget;
+import edu.msu.cme.rdp.graph.search.heuristic.weight.StaticHeuristicWeight;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full search, left and right, from two starting kmers in each of the first
+ * three bundled genes, as hmmgs search runs it with the default pruning
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HMMGraphSearchBenchmark {
+
+    private static final int[] START_CODONS = {30, 60};
+
+    /**
+     * Number of paths found in each direction
+     */
+    @Param({"1", "5"})
+    public int paths;
+
+    private List<SearchTarget> targets;
+    private HMMGraphSearch search;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> genes = BenchData.readGenes();
+        BloomFilter filter = BenchData.buildGeneFilter(genes);
+        ProfileHMM forHMM = BenchData.readHMM("for.hmm");
+        ProfileHMM revHMM = BenchData.readHMM("rev.hmm");
+
+        targets = new ArrayList<SearchTarget>();
+        for (int gene = 0; gene < 3; gene++) {
+            for (int codon : START_CODONS) {
+                targets.add(new SearchTarget("bench", "gene" + gene + "_" + codon, "bench", BenchData.geneKmer(genes.get(gene), codon), 0, codon, forHMM, revHMM, filter));
+            }
+        }
+
+        search = new HMMGraphSearch(paths, HMMGraphSearch.PRUNE_NODE);
+        search.setHWeight(new StaticHeuristicWeight(1.0));
+    }
+
+    @Benchmark
+    public int search() throws InterruptedException {
+        int ret = 0;
+        for (SearchTarget target : targets) {
+            for (SearchResult result : search.search(target)) {
+                ret += result.getNuclSeq().length();
+            }
+        }
+        return ret;
+    }
+}
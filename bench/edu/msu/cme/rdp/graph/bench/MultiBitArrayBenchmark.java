@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.bench;
+
+import edu.msu.cme.rdp.graph.filter.MultiBitArray;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Random access to the buckets of a 2^26 bucket array, too large for the
+ * caches, so these mostly measure the memory loads a filter lookup makes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiBitArrayBenchmark {
+
+    private static final int HASH_SIZE_LOG2 = 26;
+    private static final int BITSET_SIZE_LOG2 = 24;
+    private static final int ACCESSES = 1 << 16;
+
+    @Param({"1", "2", "3"})
+    public int numBits;
+
+    private MultiBitArray array;
+    private long[] buckets;
+
+    @Setup
+    public void setup() {
+        array = new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, numBits);
+        Random rand = new Random(1);
+        buckets = new long[ACCESSES];
+        for (int index = 0; index < ACCESSES; index++) {
+            buckets[index] = rand.nextLong() & ((1L << HASH_SIZE_LOG2) - 1);
+        }
+        // half the buckets looked up are set, some of them more than once
+        for (int index = 0; index < ACCESSES; index += 2) {
+            for (int count = 0; count <= index % 3; count++) {
+                array.setBit(buckets[index]);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int setBit() {
+        int ret = 0;
+        for (long bucket : buckets) {
+            ret += array.setBit(bucket) ? 1 : 0;
+        }
+        return ret;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int isSet() {
+        int ret = 0;
+        for (long bucket : buckets) {
+            ret += array.isSet(bucket) ? 1 : 0;
+        }
+        return ret;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int getCount() {
+        int ret = 0;
+        for (long bucket : buckets) {
+            ret += array.getCount(bucket);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.bench;
+
+import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.search.AStarNode;
+import edu.msu.cme.rdp.graph.search.AStarNodeArena;
+import edu.msu.cme.rdp.graph.search.NodeEnumerator;
+import edu.msu.cme.rdp.graph.search.heuristic.weight.StaticHeuristicWeight;
+import edu.msu.cme.rdp.kmer.NuclKmer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Expanding A* nodes against the bundled model and genes. Each invocation
+ * expands, breadth first, the first EXPANSIONS nodes reachable from each of
+ * a few starting kmers, in to a new arena per start as a search does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeEnumeratorBenchmark {
+
+    private static final int EXPANSIONS = 500;
+    private static final int[] START_CODONS = {20, 50, 80};
+
+    private NodeEnumerator enumerator;
+    private BloomFilter.RightCodonFacade walker;
+    private List<AStarNode> starts;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> genes = BenchData.readGenes();
+        BloomFilter filter = BenchData.buildGeneFilter(genes);
+        ProfileHMM hmm = BenchData.readHMM("for.hmm");
+        enumerator = new NodeEnumerator(hmm, new StaticHeuristicWeight(1.0, hmm));
+
+        starts = new ArrayList<AStarNode>();
+        for (int codon : START_CODONS) {
+            String kmer = BenchData.geneKmer(genes.get(0), codon);
+            walker = filter.new RightCodonFacade(kmer);
+            starts.add(new AStarNode(null, new NuclKmer(kmer.toCharArray()), walker.getFwdHash(), walker.getRcHash(), codon, 'm'));
+        }
+    }
+
+    @Benchmark
+    public int enumerateNodes() {
+        int ret = 0;
+        for (AStarNode start : starts) {
+            AStarNodeArena arena = new AStarNodeArena(start);
+            for (int node = 0; node < arena.size() && node < EXPANSIONS; node++) {
+                enumerator.enumerateNodes(arena, node, walker, null);
+            }
+            ret += arena.size();
+        }
+        return ret;
+    }
+}
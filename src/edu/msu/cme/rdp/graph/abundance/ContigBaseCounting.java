@@ -16,6 +16,7 @@
  */
 package edu.msu.cme.rdp.graph.abundance;
 
+import edu.msu.cme.rdp.graph.utils.ProgressMonitor;
 import edu.msu.cme.rdp.kmer.set.KmerSet;
 import edu.msu.cme.rdp.kmer.set.NuclKmerGenerator;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
@@ -189,10 +190,13 @@ public class ContigBaseCounting {
 
         //ExecutorService service = Executors.newFixedThreadPool(maxThreads);
 
+        final ProgressMonitor monitor = ProgressMonitor.register("ContigBaseCounting");
+        monitor.setPhase("mapping reads");
         startTime = System.currentTimeMillis();
         while ((seq = reader.readNextSequence()) != null) {
             kmerCounter.processSeq(seq);
             processed.incrementAndGet();
+            monitor.counter().add(1, Math.max(0, seq.getSeqString().length() - k + 1));
 
             if ((processed.get()) % 1000000 == 0) {
                 System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
@@ -232,8 +236,10 @@ public class ContigBaseCounting {
 
         System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
 
+        monitor.setPhase("writing results");
         kmerCounter.printResults(System.out);
         //System.err.println("Unique kmers in contigs: " + kmerCounter.trie.uniqueWords());
         System.err.println("Processing complete");
+        monitor.setPhase("done");
     }
 }
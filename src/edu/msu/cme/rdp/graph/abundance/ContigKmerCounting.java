@@ -16,6 +16,8 @@
  */
 package edu.msu.cme.rdp.graph.abundance;
 
+import edu.msu.cme.rdp.graph.utils.SeqBatchReader;
+import edu.msu.cme.rdp.graph.utils.ProgressMonitor;
 import edu.msu.cme.rdp.kmer.trie.KmerTrie;
 import edu.msu.cme.rdp.kmer.trie.KmerTrie.TrieLeaf;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
@@ -24,6 +26,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -119,35 +122,41 @@ public class ContigKmerCounting {
         final AtomicInteger outstandingTasks = new AtomicInteger();
 
         
-        SequenceReader reader = new SequenceReader(readsFile);
-        Sequence seq;
+        SeqBatchReader reader = new SeqBatchReader(readsFile, maxThreads);
+        List<Sequence> batch;
         
         ExecutorService service = Executors.newFixedThreadPool(maxThreads);
 
+        final ProgressMonitor monitor = ProgressMonitor.register("ContigKmerCounting");
+        monitor.setPhase("mapping reads");
         startTime = System.currentTimeMillis();
-        while ((seq = reader.readNextSequence()) != null) {
-            final Sequence threadSeq = seq;
-
-            Runnable r = new Runnable() {
-                public void run() {
-                    //System.err.println("Processing sequence " + threadSeq.getSeqName() + " in thread " + Thread.currentThread().getName());
-                    kmerCounter.processSeq(threadSeq);
-                    //System.err.println("Processed count " + processed);
-                    //System.err.println("Outstanding count count " + outstandingTasks);
-                    processed.incrementAndGet();
-                    outstandingTasks.decrementAndGet();
-                }
-            };
+        while ((batch = reader.nextBatch()) != null) {
+            for (Sequence seq : batch) {
+                final Sequence threadSeq = seq;
+
+                Runnable r = new Runnable() {
+                    public void run() {
+                        //System.err.println("Processing sequence " + threadSeq.getSeqName() + " in thread " + Thread.currentThread().getName());
+                        kmerCounter.processSeq(threadSeq);
+                        // both strands are looked up, the counter is the worker thread's own
+                        monitor.counter().add(1, 2 * Math.max(0, threadSeq.getSeqString().length() - k + 1));
+                        //System.err.println("Processed count " + processed);
+                        //System.err.println("Outstanding count count " + outstandingTasks);
+                        processed.incrementAndGet();
+                        outstandingTasks.decrementAndGet();
+                    }
+                };
             
-            outstandingTasks.incrementAndGet();
-            service.submit(r);
+                outstandingTasks.incrementAndGet();
+                service.submit(r);
             
-            //System.err.println("Submitting " + threadSeq.getSeqName() + ", outstanding tasks= " + outstandingTasks);
+                //System.err.println("Submitting " + threadSeq.getSeqName() + ", outstanding tasks= " + outstandingTasks);
             
-            while(outstandingTasks.get() >= maxTasks);
+                while(outstandingTasks.get() >= maxTasks);
             
-            if (processed.get() % 1000000 == 0) {
-                System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
+                if (processed.get() % 1000000 == 0) {
+                    System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
+                }
             }
         }
 
@@ -157,8 +166,10 @@ public class ContigKmerCounting {
 
         System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
 
+        monitor.setPhase("writing results");
         kmerCounter.printResults(nuclContigs, System.out);
         //System.err.println("Unique kmers in contigs: " + kmerCounter.trie.uniqueWords());
         System.err.println("Processing complete");
+        monitor.setPhase("done");
     }
 }
@@ -16,6 +16,8 @@
  */
 package edu.msu.cme.rdp.graph.abundance;
 
+import edu.msu.cme.rdp.graph.utils.SeqBatchReader;
+import edu.msu.cme.rdp.graph.utils.ProgressMonitor;
 import edu.msu.cme.rdp.kmer.Kmer;
 import edu.msu.cme.rdp.kmer.set.KmerSet;
 import edu.msu.cme.rdp.kmer.set.NuclKmerGenerator;
@@ -158,18 +160,24 @@ public class ReadKmerMapper {
         final AtomicInteger outstandingTasks = new AtomicInteger();
 
 
-        SequenceReader reader = new SequenceReader(readsFile);
-        Sequence seq;
+        SeqBatchReader reader = new SeqBatchReader(readsFile, maxThreads);
+        List<Sequence> batch;
 
         //ExecutorService service = Executors.newFixedThreadPool(maxThreads);
 
+        final ProgressMonitor monitor = ProgressMonitor.register("ReadKmerMapper");
+        monitor.setPhase("mapping reads");
         startTime = System.currentTimeMillis();
-        while ((seq = reader.readNextSequence()) != null) {
-            kmerCounter.processRead(seq);
-            processed.incrementAndGet();
-
-            if ((processed.get()) % 1000000 == 0) {
-                System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
+        while ((batch = reader.nextBatch()) != null) {
+            for (Sequence seq : batch) {
+                kmerCounter.processRead(seq);
+                processed.incrementAndGet();
+                // both strands are looked up
+                monitor.counter().add(1, 2 * Math.max(0, seq.getSeqString().length() - k + 1));
+
+                if ((processed.get()) % 1000000 == 0) {
+                    System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
+                }
             }
 
             /*
@@ -206,8 +214,10 @@ public class ReadKmerMapper {
 
         System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
 
+        monitor.setPhase("writing results");
         kmerCounter.printResults(System.out);
         //System.err.println("Unique kmers in contigs: " + kmerCounter.trie.uniqueWords());
         System.err.println("Processing complete");
+        monitor.setPhase("done");
     }
 }
@@ -17,6 +17,7 @@
 package edu.msu.cme.rdp.graph.abundance;
 
 import edu.msu.cme.rdp.kmer.Kmer;
+import edu.msu.cme.rdp.graph.utils.ProgressMonitor;
 import edu.msu.cme.rdp.kmer.set.KmerIterator;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
@@ -148,10 +149,14 @@ public class ReadKmerMapperLongKmer {
 
         //ExecutorService service = Executors.newFixedThreadPool(maxThreads);
 
+        final ProgressMonitor monitor = ProgressMonitor.register("ReadKmerMapperLongKmer");
+        monitor.setPhase("mapping reads");
         startTime = System.currentTimeMillis();
         while ((seq = reader.readNextSequence()) != null) {
             kmerCounter.processRead(seq);
             processed.incrementAndGet();
+            // both strands are looked up
+            monitor.counter().add(1, 2 * Math.max(0, seq.getSeqString().length() - k + 1));
 
             if ((processed.get()) % 1000000 == 0) {
                 System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
@@ -191,8 +196,10 @@ public class ReadKmerMapperLongKmer {
 
         System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
 
+        monitor.setPhase("writing results");
         kmerCounter.printResults(System.out);
         //System.err.println("Unique kmers in contigs: " + kmerCounter.trie.uniqueWords());
         System.err.println("Processing complete");
+        monitor.setPhase("done");
     }
 }
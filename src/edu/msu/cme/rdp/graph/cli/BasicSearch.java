@@ -31,10 +31,7 @@ import edu.msu.cme.rdp.readseq.SequenceType;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.writers.FastaWriter;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -127,9 +124,7 @@ public class BasicSearch {
         long startTime;
 
         startTime = System.currentTimeMillis();
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        BloomFilter bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter bloom = BloomFilter.fromFile(bloomFile);
 
         BasicSearch search = new BasicSearch(k, forHMM, revHMM, bloom);
 
@@ -18,19 +18,26 @@ package edu.msu.cme.rdp.graph.cli;
 
 import edu.msu.cme.rdp.graph.utils.BloomFilterStats;
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.hash.NucleotideHash;
+import edu.msu.cme.rdp.graph.utils.EncodedSeqReader;
+import edu.msu.cme.rdp.graph.utils.PackedReadCache;
+import edu.msu.cme.rdp.graph.utils.ProgressMonitor;
 import edu.msu.cme.rdp.readseq.SequenceFormat;
-import edu.msu.cme.rdp.readseq.readers.Sequence;
-import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.utils.SeqUtils;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -38,6 +45,12 @@ import java.util.List;
  */
 public class BloomFilterBuilder {
 
+    /**
+     * Number of reads handed to a worker at a time in a multi-threaded build
+     */
+    private static final int BATCH_SIZE = 10000;
+    private static final List<byte[]> END_OF_READS = new ArrayList<byte[]>();
+
     public static class BloomSize {
 
         public final int bloomSizeLog2;
@@ -50,19 +63,23 @@ public class BloomFilterBuilder {
     }
 
     public static BloomSize predictBloomSize(File readFile, int kmerSize, int numHashes, int startingM, double desiredFpr) throws IOException {
+        return predictBloomSize(readFile, kmerSize, numHashes, startingM, desiredFpr, BloomFilter.LAYOUT_STANDARD);
+    }
+
+    public static BloomSize predictBloomSize(File readFile, int kmerSize, int numHashes, int startingM, double desiredFpr, int layout) throws IOException {
         long readFileSize = readFile.length();
         long readUntil = (long) (readFileSize * .2);
 
-        SequenceReader reader = new SequenceReader(readFile);
-        Sequence seq;
+        EncodedSeqReader reader = new EncodedSeqReader(readFile);
         BloomFilter filter = new BloomFilter(28, numHashes, kmerSize, 8, 1);
         BloomFilter.GraphBuilder builder = filter.new GraphBuilder();
 
         int seqCount = 0;
-        while ((seq = reader.readNextSequence()) != null && reader.getPosition() < readUntil && seqCount < 500000) {
+        while (reader.next() && reader.getPosition() < readUntil && seqCount < 500000) {
             seqCount++;
-            builder.addString(seq.getSeqString().toCharArray());
+            builder.addEncoded(reader.getBases(), 0, reader.getLength());
         }
+        reader.close();
 
         int uniqueKmers = (int) filter.getUniqueKmers();
         int predictedKmers = (int) (uniqueKmers * (readFileSize / (double) reader.getPosition()));
@@ -72,26 +89,261 @@ public class BloomFilterBuilder {
 
         while (fpr > desiredFpr) {
             m++;
-            fpr = Math.pow((1 - Math.pow(Math.E, -numHashes * ((predictedKmers + .5) / (Math.pow(2, m) - 1)))), numHashes);
+            fpr = BloomFilterStats.predictFalsePositiveRate(predictedKmers, 1L << m, numHashes, layout);
         }
 
         return new BloomSize(m, fpr);
     }
 
-    private static void identifyMercyKmers(List<File> readFiles, BloomFilter filter ) throws IOException{
-        BloomFilter.GraphMercyKmer mercyKmerChecker = filter.new GraphMercyKmer();
+    /**
+     * Promotes mercy kmers, see BloomFilter.GraphMercyKmer, checking the reads
+     * kept in the cache by addReads, the only ones that can have a kmer seen
+     * once.
+     *
+     * With more than one thread the reads are checked in batches on a worker
+     * pool, each worker with its own checker. A read's check looks at counts
+     * other reads may promote, so which kmers are promoted can depend on the
+     * order the reads are checked in; as with reordering the input files, a
+     * multi-threaded pass won't always promote exactly the same kmers as a
+     * single threaded one.
+     */
+    private static void identifyMercyKmers(PackedReadCache cache, final BloomFilter filter, int threads) throws IOException, InterruptedException {
+        PackedReadCache.Reader reader = cache.open();
+        if (threads == 1) {
+            BloomFilter.GraphMercyKmer mercyKmerChecker = filter.new GraphMercyKmer();
+            while (reader.next()) {
+                mercyKmerChecker.checkMercyKmer(reader.toCharArray());
+            }
+            reader.close();
+            return;
+        }
+
+        final BlockingQueue<List<byte[]>> queue = new ArrayBlockingQueue<List<byte[]>>(threads * 4);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<BloomFilter.GraphMercyKmer>> workers = new ArrayList<Future<BloomFilter.GraphMercyKmer>>();
+
+        filter.setConcurrent(true);
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(new Callable<BloomFilter.GraphMercyKmer>() {
+                    public BloomFilter.GraphMercyKmer call() throws InterruptedException {
+                        BloomFilter.GraphMercyKmer mercyKmerChecker = filter.new GraphMercyKmer(true);
+                        List<byte[]> batch;
+                        while ((batch = queue.take()) != END_OF_READS) {
+                            for (byte[] read : batch) {
+                                mercyKmerChecker.checkMercyKmer(EncodedSeqReader.toCharArray(read, 0, read.length));
+                            }
+                        }
+                        return mercyKmerChecker;
+                    }
+                }));
+            }
+
+            List<byte[]> batch = new ArrayList<byte[]>(BATCH_SIZE);
+            while (reader.next()) {
+                batch.add(Arrays.copyOf(reader.getBases(), reader.getLength()));
+                if (batch.size() == BATCH_SIZE) {
+                    putBatch(queue, batch, workers);
+                    batch = new ArrayList<byte[]>(BATCH_SIZE);
+                }
+            }
+            reader.close();
+            putBatch(queue, batch, workers);
+            for (int i = 0; i < threads; i++) {
+                putBatch(queue, END_OF_READS, workers);
+            }
+
+            for (Future<BloomFilter.GraphMercyKmer> worker : workers) {
+                worker.get().mergeStats();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to identify mercy kmers", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        filter.setConcurrent(false);
+    }
+
+    /**
+     * @param cache if not null, the reads with a kmer that wasn't in the
+     *              filter before are added to it for the mercy kmer pass
+     * @param monitor counts the reads and kmers added
+     */
+    private static void addReads(List<File> readFiles, BloomFilter filter, PackedReadCache cache, ProgressMonitor monitor) throws IOException {
+        BloomFilter.GraphBuilder graphBuilder = filter.new GraphBuilder();
+        PackedReadCache.Writer cacheWriter = (cache == null) ? null : cache.newWriter();
+        ProgressMonitor.Counter counter = monitor.counter();
+        long seqCount = 0;
+        long kmerCount = 0;
+
         for (File readFile : readFiles) {
-            SequenceReader reader = new SequenceReader(readFile);
-            Sequence seq = null;
-            while ((seq = reader.readNextSequence()) != null) {
-               mercyKmerChecker.checkMercyKmer(seq.getSeqString().toCharArray());
+            EncodedSeqReader reader = new EncodedSeqReader(readFile);
+
+            while (reader.next()) {
+
+                seqCount++;
+                if ((seqCount % 1000000) == 0) {
+                    System.err.println("p: " + seqCount + " kmers added " + graphBuilder.getKmerAdded());
+                }
+
+                if (graphBuilder.addEncoded(reader.getBases(), 0, reader.getLength()) && cacheWriter != null) {
+                    cacheWriter.add(reader.getBases(), 0, reader.getLength());
+                }
+                counter.add(1, graphBuilder.getKmerAdded() - kmerCount);
+                kmerCount = graphBuilder.getKmerAdded();
             }
             reader.close();
         }
+        if (cacheWriter != null) {
+            cacheWriter.flush();
+        }
+    }
+
+    /**
+     * Reads on this thread and adds the reads from the given number of worker
+     * threads, each with its own GraphBuilder. Counters are set with
+     * compare-and-set, so the filter ends up with the same bits as a single
+     * threaded build regardless of the order the batches are added in.
+     *
+     * @param cache if not null, the reads with a kmer that wasn't in the
+     *              filter before are added to it for the mercy kmer pass
+     * @param monitor counts the reads and kmers added, per worker
+     */
+    private static void addReads(List<File> readFiles, final BloomFilter filter, final PackedReadCache cache, int threads, final ProgressMonitor monitor) throws IOException, InterruptedException {
+        final BlockingQueue<List<byte[]>> queue = new ArrayBlockingQueue<List<byte[]>>(threads * 4);
+        monitor.setQueue(queue);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<BloomFilter.GraphBuilder>> workers = new ArrayList<Future<BloomFilter.GraphBuilder>>();
+
+        filter.setConcurrent(true);
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(new Callable<BloomFilter.GraphBuilder>() {
+                    public BloomFilter.GraphBuilder call() throws InterruptedException, IOException {
+                        BloomFilter.GraphBuilder graphBuilder = filter.new GraphBuilder(true);
+                        PackedReadCache.Writer cacheWriter = (cache == null) ? null : cache.newWriter();
+                        ProgressMonitor.Counter counter = monitor.counter();
+                        long kmerCount = 0;
+                        List<byte[]> batch;
+                        while ((batch = queue.take()) != END_OF_READS) {
+                            for (byte[] read : batch) {
+                                if (graphBuilder.addEncoded(read, 0, read.length) && cacheWriter != null) {
+                                    cacheWriter.add(read, 0, read.length);
+                                }
+                            }
+                            counter.add(batch.size(), graphBuilder.getKmerAdded() - kmerCount);
+                            kmerCount = graphBuilder.getKmerAdded();
+                        }
+                        if (cacheWriter != null) {
+                            cacheWriter.flush();
+                        }
+                        return graphBuilder;
+                    }
+                }));
+            }
+
+            long seqCount = 0;
+            List<byte[]> batch = new ArrayList<byte[]>(BATCH_SIZE);
+            for (File readFile : readFiles) {
+                EncodedSeqReader reader = new EncodedSeqReader(readFile, threads);
+
+                while (reader.next()) {
+                    seqCount++;
+                    if ((seqCount % 1000000) == 0) {
+                        System.err.println("p: " + seqCount);
+                    }
+
+                    batch.add(Arrays.copyOf(reader.getBases(), reader.getLength()));
+                    if (batch.size() == BATCH_SIZE) {
+                        putBatch(queue, batch, workers);
+                        batch = new ArrayList<byte[]>(BATCH_SIZE);
+                    }
+                }
+                reader.close();
+            }
+            putBatch(queue, batch, workers);
+            for (int i = 0; i < threads; i++) {
+                putBatch(queue, END_OF_READS, workers);
+            }
+
+            for (Future<BloomFilter.GraphBuilder> worker : workers) {
+                worker.get().mergeStats();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to add reads to the bloom filter", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            monitor.setQueue(null);
+        }
+        filter.setConcurrent(false);
+    }
+
+    /**
+     * Queues a batch, failing instead of blocking forever if a worker died
+     */
+    private static void putBatch(BlockingQueue<List<byte[]>> queue, List<byte[]> batch, List<? extends Future<?>> workers) throws InterruptedException, ExecutionException {
+        while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+            for (Future<?> worker : workers) {
+                if (worker.isDone()) {
+                    worker.get();
+                }
+            }
+        }
+    }
+
+    /**
+     * Output usage information to STDERR.
+     */
+    private static void printUsage() {
+        System.err.println("USAGE: BloomFilterBuilder [-h] [-b] [-t threads] [-H hash_filter] [-k] <read_file> <bloom_out> <kmerSize> <bloomSizeLog2> [cutoff = 1] [# hashCount = 4] [bitsetSizeLog2 = 30]");
+        System.err.println("\t-h\n\t\tprint this help information" );
+        System.err.println("\t-b\n\t\tuse the blocked layout, all probes for a kmer fall in one 512 bit block (one cache line)," );
+        System.err.println("\t\tsearches are faster but the false positive rate is slightly higher for the same size" );
+        System.err.println("\t-t threads\n\t\tnumber of threads adding reads to the filter, default 1" );
+        System.err.println("\t-H hash_filter\n\t\tuse the hash values of an existing bloom filter, filters built from shards of a read set" );
+        System.err.println("\t\thave to share them to be merged (HMMgs merge-filters)" );
+        System.err.println("\t-k\n\t\tkeep the counts instead of collapsing the filter at the cutoff, for shards to be merged" );
+        System.err.println("\t\twith the cutoff applied to the merged counts. No mercy kmers are identified" );
+        System.err.println("\tread_file\n\t\tfasta or fastq files containing the reads to build the graph from " );
+        System.err.println("\tbloom_out\n\t\tfile to write the bloom filter to " );
+        System.err.println("\tkmerSize\n\t\tshould be multiple of 3, (recommend 45, maximum 63) " );
+        System.err.println("\tbloomSizeLog2\n\t\tthe size of the bloom filter (or memory needed) is 2^bloomSizeLog2 bits, increase if the predicted false positive rate is greater than 1%" );           
+        System.err.println("\tcutoff\n\t\tminimum number of times a kmer has to be observed in SEQFILE to be included in the final bloom filter");
+        System.err.println("\thashCount\n\t\tnumber of hash functions, default 4");
+        System.err.println("\tbitsetSizeLog2\n\t\tthe size of one bitSet 2^bitsetSizeLog2, recommend 30, usually not changed");           
     }
 
     public static void main(String[] args) throws Exception {
         List<File> readFiles = new ArrayList();
+        int layout = BloomFilter.LAYOUT_STANDARD;
+        int threads = 1;
+        File hashFile = null;
+        boolean keepCounts = false;
+
+        int optCount = 0;
+        while (optCount < args.length && args[optCount].startsWith("-")) {
+            if (args[optCount].equals("-b")) {
+                layout = BloomFilter.LAYOUT_BLOCKED;
+            } else if (args[optCount].equals("-t") && optCount + 1 < args.length) {
+                threads = Integer.parseInt(args[++optCount]);
+                if (threads < 1) {
+                    System.err.println("Number of threads must be at least 1");
+                    System.exit(1);
+                }
+            } else if (args[optCount].equals("-H") && optCount + 1 < args.length) {
+                hashFile = new File(args[++optCount]);
+            } else if (args[optCount].equals("-h")) {
+                printUsage();
+                System.exit(1);
+            } else if (args[optCount].equals("-k")) {
+                keepCounts = true;
+            } else {
+                System.err.println("Unknown option " + args[optCount]);
+                System.exit(1);
+            }
+            optCount++;
+        }
+        args = Arrays.copyOfRange(args, optCount, args.length);
 
         for (int index = 0; index < args.length; index++) {
             File f = new File(args[index]);
@@ -109,14 +361,7 @@ public class BloomFilterBuilder {
         args = Arrays.copyOfRange(args, readFiles.size(), args.length);
 
         if (args.length < 3 || args.length > 6) {
-            System.err.println("USAGE: BloomFilterBuilder <read_file> <bloom_out> <kmerSize> <bloomSizeLog2> [cutoff = 1] [# hashCount = 4] [bitsetSizeLog2 = 30]");
-            System.err.println("\tread_file\n\t\tfasta or fastq files containing the reads to build the graph from " );
-            System.err.println("\tbloom_out\n\t\tfile to write the bloom filter to " );
-            System.err.println("\tkmerSize\n\t\tshould be multiple of 3, (recommend 45, maximum 63) " );
-            System.err.println("\tbloomSizeLog2\n\t\tthe size of the bloom filter (or memory needed) is 2^bloomSizeLog2 bits, increase if the predicted false positive rate is greater than 1%" );           
-            System.err.println("\tcutoff\n\t\tminimum number of times a kmer has to be observed in SEQFILE to be included in the final bloom filter");
-            System.err.println("\thashCount\n\t\tnumber of hash functions, default 4");
-            System.err.println("\tbitsetSizeLog2\n\t\tthe size of one bitSet 2^bitsetSizeLog2, recommend 30, usually not changed");           
+            printUsage();
             System.exit(1);
         }
 
@@ -172,46 +417,51 @@ public class BloomFilterBuilder {
         System.err.println("*  bitset size log2: " + bitsetSizeLog2);
         System.err.println("*  bits per bucket:  " + numBits);
         System.err.println("*  minimum count:    " + cutoff);
+        System.err.println("*  layout:           " + BloomFilterStats.getLayoutName(layout));
+        System.err.println("*  threads:          " + threads);
+        if (hashFile != null) {
+            System.err.println("*  hash values from: " + hashFile);
+        }
+        if (keepCounts) {
+            System.err.println("*  counts kept, not collapsed");
+        }
         
-        BloomFilter filter = new BloomFilter(hashSizeLog2, hashCount, kmerSize, bitsetSizeLog2, numBits);
-        BloomFilter.GraphBuilder graphBuilder = filter.new GraphBuilder();
-
-        long seqCount = 0;
+        NucleotideHash nuclHash = (hashFile == null) ? NucleotideHash.getInstance() : BloomFilter.fromFile(hashFile).getNucleotideHash();
+        BloomFilter filter = new BloomFilter(hashSizeLog2, hashCount, kmerSize, bitsetSizeLog2, numBits, layout, nuclHash);
 
         long startTime = System.currentTimeMillis();
+        ProgressMonitor monitor = ProgressMonitor.register("BloomFilterBuilder");
 
-        for (File readFile : readFiles) {
-            SequenceReader reader = new SequenceReader(readFile);
-            Sequence seq = null;
-
-            while ((seq = reader.readNextSequence()) != null) {
-
-                seqCount++;
-                if ((seqCount % 1000000) == 0) {
-                    System.err.println("p: " + seqCount + " kmers added " + graphBuilder.getKmerAdded());
-                }
-
-                graphBuilder.addString(seq.getSeqString().toCharArray());
-            }
-            reader.close();
+        // reads that could have singleton kmers are kept for the mercy kmer pass
+        PackedReadCache mercyCache = (cutoff == 2 && !keepCounts) ? new PackedReadCache(outputFile.getAbsoluteFile().getParentFile()) : null;
+        monitor.setPhase("adding reads");
+        if (threads > 1) {
+            addReads(readFiles, filter, mercyCache, threads, monitor);
+        } else {
+            addReads(readFiles, filter, mercyCache, monitor);
         }
 
         System.err.println("time to parse reads: " + (System.currentTimeMillis() - startTime) / 60000.0 + " minutes");
-        if ( cutoff == 2) {//identify mercy kmers
+        if ( cutoff == 2 && !keepCounts) {//identify mercy kmers
             long mercy_startTime = System.currentTimeMillis();
-            identifyMercyKmers(readFiles, filter);
+            System.err.println("reads kept for the mercy kmer pass: " + mercyCache.getNumReads() + " (" + mercyCache.getSize() + " bytes)");
+            monitor.setPhase("identifying mercy kmers");
+            identifyMercyKmers(mercyCache, filter, threads);
+            mercyCache.delete();
             // filter.printKmerCounts(readFiles); // for debugging
             System.err.println("time to identify mercykmers: " + (System.currentTimeMillis() - mercy_startTime) / 60000.0 + " minutes");
         }
 
         //Collapsing counting bloom filter 
-        filter.collapse(cutoff);
+        if (!keepCounts) {
+            monitor.setPhase("collapsing");
+            filter.collapse(cutoff);
+        }
         long endTime = System.currentTimeMillis();
-        ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)));
-
-        oos.writeObject(filter);
-        oos.close();
+        monitor.setPhase("writing");
+        filter.writeTo(outputFile);
         BloomFilterStats.printStats(filter, System.out);
         System.err.println("time to build BloomFilter: " + (endTime - startTime) / 60000.0 + " minutes");
+        monitor.setPhase("done");
     }
 }
@@ -20,6 +20,7 @@ package edu.msu.cme.rdp.graph.cli;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.io.PrintStream;
 
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
@@ -114,34 +115,35 @@ public class CutFinder {
     
     /**
      * Scan over the sequence string and walk along the bloom filter, printing
-     * out all kmers which are not found in the filter.
+     * out all kmers which are not found in the filter. The hash values of all
+     * the kmers are collected first and looked up in one batch.
      * 
      * @param refSeq    reference Sequence to get nucleotides from
      * @param kmerSize  the size of the kmers to extract and check for
      */
     private static void searchKmers(Sequence refSeq, int kmerSize) {
         String seqString = refSeq.getSeqString();
-        // create a Kmer; makes it easier to scan the sequence string
-        Kmer kmer = new NuclKmer(seqString.substring(0, kmerSize).toCharArray());
+        int numKmers = Math.max(seqString.length() - kmerSize, 0);
+        long[] fwdHashes = new long[numKmers];
+        long[] rcHashes = new long[numKmers];
         // initialize the bloom filter to the starting kmer
-        bloomState.setState(kmer.toString().toCharArray());
+        bloomState.setState(seqString.substring(0, kmerSize).toCharArray());
         // beginning at the end of the starting kmer, advance along the
         // sequence string
         for(int i = kmerSize; i < seqString.length(); ++i) {
-            // create a new reference kmer based on the current kmer
-            // makes it easier to print (and store, should that functionality
-            // be implemented at a later date)
-            RefKmer refKmer = new RefKmer(kmer.toString(), i);
-            if (!bloomState.hasCurrent()) {
-                refKmer.print(System.out);
-            }
+            fwdHashes[i - kmerSize] = bloomState.getFwdHash();
+            rcHashes[i - kmerSize] = bloomState.getRcHash();
             // append the next character to the end of the kmer and advance
             // along the bloom filter
-            // **Warning** kmer.shiftLeft and bloomState.shiftLeft go in
-            // OPPOSITE directions, which is why bloomState.shiftRight is used
-            kmer = kmer.shiftLeft(seqString.charAt(i));
             bloomState.shiftRight(seqString.charAt(i));
         }
+
+        BitSet found = new BitSet(numKmers);
+        bloom.hasNodes(fwdHashes, rcHashes, numKmers, found);
+        for (int i = found.nextClearBit(0); i < numKmers; i = found.nextClearBit(i + 1)) {
+            Kmer kmer = new NuclKmer(seqString.substring(i, i + kmerSize).toCharArray());
+            new RefKmer(kmer.toString(), i + kmerSize).print(System.out);
+        }
     }
     
     /**
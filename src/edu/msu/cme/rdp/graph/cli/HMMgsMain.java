@@ -17,8 +17,12 @@
 package edu.msu.cme.rdp.graph.cli;
 
 import edu.msu.cme.rdp.graph.utils.BloomFilterAppender;
+import edu.msu.cme.rdp.graph.utils.BloomFilterConverter;
+import edu.msu.cme.rdp.graph.utils.BloomFilterFolder;
+import edu.msu.cme.rdp.graph.utils.BloomFilterMerger;
 import edu.msu.cme.rdp.graph.utils.ContigMerger;
 import edu.msu.cme.rdp.graph.utils.BloomFilterStats;
+import edu.msu.cme.rdp.graph.utils.ReadSimulator;
 import java.util.Arrays;
 
 /**
@@ -42,6 +46,11 @@ public class HMMgsMain {
         System.err.println("\tmerge       - Merge HMMgs left and right fragments");
         System.err.println("\tlicense     - Print the license");
         System.err.println("\tfind-cuts   - Search bloom filter for cuts");
+        System.err.println("\tconvert     - Convert a serialized bloom filter to the binary format");
+        System.err.println("\tmerge-filters - Merge bloom filters built from shards of a read set");
+        System.err.println("\tfold        - Shrink a bloom filter to use less memory, at a higher false positive rate");
+        System.err.println("\tsimulate    - Simulate reads and starting kmers from reference genes");
+        System.err.println("\tregression  - Run build, search and merge on simulated reads and report performance and recall");
         System.exit(1);
     }
 
@@ -69,6 +78,16 @@ public class HMMgsMain {
             printLicense();
         } else if (cmd.equals("find-cuts")) {
             CutFinder.main(args);
+        } else if (cmd.equals("convert")) {
+            BloomFilterConverter.main(args);
+        } else if (cmd.equals("merge-filters")) {
+            BloomFilterMerger.main(args);
+        } else if (cmd.equals("fold")) {
+            BloomFilterFolder.main(args);
+        } else if (cmd.equals("simulate")) {
+            ReadSimulator.main(args);
+        } else if (cmd.equals("regression")) {
+            RegressionRunner.main(args);
         } else {
             printUsageAndExit();
         }
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.cli;
+
+import edu.msu.cme.rdp.graph.utils.BloomFilterStats;
+import edu.msu.cme.rdp.graph.utils.ReadSimulator;
+import edu.msu.cme.rdp.readseq.readers.Sequence;
+import edu.msu.cme.rdp.readseq.readers.SequenceReader;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs build, search and merge on a dataset written by ReadSimulator and
+ * writes one JSON line with the throughput, peak memory and recall of the
+ * run, so the numbers can be compared across versions.
+ *
+ * Every stage runs in its own jvm (see Stage) so its peak resident set size
+ * can be read from /proc, on systems without /proc it is reported as null.
+ * Stage times don't include jvm startup. A known gene counts as recovered
+ * when a merged contig, on either strand, contains at least
+ * MIN_RECOVERED_WORDS of its RECALL_WORD_SIZE-mers.
+ */
+public class RegressionRunner {
+
+    public static final int RECALL_WORD_SIZE = 21;
+    public static final double MIN_RECOVERED_WORDS = .9;
+    private static final Pattern OPENED_NODES = Pattern.compile("\"nodes_opened\": (\\d+)");
+
+    /**
+     * Entry point of the stage jvms, runs an HMMgs command and writes its
+     * peak resident set size (kB) and run time (ms) to the given file on exit
+     */
+    public static class Stage {
+
+        public static void main(String[] args) throws Exception {
+            final File statsFile = new File(args[0]);
+            final long startTime = System.currentTimeMillis();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        PrintStream out = new PrintStream(statsFile);
+                        out.println(readPeakRss());
+                        out.println(System.currentTimeMillis() - startTime);
+                        out.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            HMMgsMain.main(Arrays.copyOfRange(args, 1, args.length));
+        }
+    }
+
+    private static class StageResult {
+
+        long peakRssKb;
+        long millis;
+    }
+
+    /**
+     * Copies a stage's output to a file so the stage never blocks on a full
+     * pipe
+     */
+    private static class StreamCopier extends Thread {
+
+        private final InputStream in;
+        private final OutputStream out;
+
+        StreamCopier(InputStream in, File file) throws IOException {
+            this.in = in;
+            this.out = new FileOutputStream(file);
+        }
+
+        @Override
+        public void run() {
+            byte[] buf = new byte[8192];
+            int read;
+            try {
+                try {
+                    while ((read = in.read(buf)) != -1) {
+                        out.write(buf, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * VmHWM of this process in kB, -1 where /proc isn't available
+     */
+    static long readPeakRss() {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) {
+            return -1;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(status));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("VmHWM:")) {
+                        return Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+        }
+        return -1;
+    }
+
+    private static StageResult runStage(String name, File workDir, List<String> cmd) throws IOException, InterruptedException {
+        File statsFile = new File(workDir, name + ".stats");
+        statsFile.delete();
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-Xmx" + Runtime.getRuntime().maxMemory() / (1024 * 1024) + "m");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Stage.class.getName());
+        command.add(statsFile.getAbsolutePath());
+        command.addAll(cmd);
+
+        System.err.println("Running " + name + ": " + cmd);
+        Process process = new ProcessBuilder(command).directory(workDir).start();
+        process.getOutputStream().close();
+        StreamCopier stdout = new StreamCopier(process.getInputStream(), new File(workDir, name + ".txt"));
+        StreamCopier stderr = new StreamCopier(process.getErrorStream(), new File(workDir, name + ".log"));
+        stdout.start();
+        stderr.start();
+        int exitCode = process.waitFor();
+        stdout.join();
+        stderr.join();
+
+        if (exitCode != 0 || !statsFile.exists()) {
+            throw new IOException(name + " failed with exit code " + exitCode + ", see " + new File(workDir, name + ".log"));
+        }
+
+        StageResult ret = new StageResult();
+        BufferedReader reader = new BufferedReader(new FileReader(statsFile));
+        ret.peakRssKb = Long.parseLong(reader.readLine().trim());
+        ret.millis = Long.parseLong(reader.readLine().trim());
+        reader.close();
+        return ret;
+    }
+
+    /**
+     * Sums the opened nodes of the search directions in a metrics file
+     * written by search --metrics
+     */
+    private static long countOpenedNodes(File metricsFile) throws IOException {
+        long ret = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(metricsFile));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Matcher m = OPENED_NODES.matcher(line);
+            if (m.find()) {
+                ret += Long.parseLong(m.group(1));
+            }
+        }
+        reader.close();
+        return ret;
+    }
+
+    private static List<String> readSeqs(File file) throws IOException {
+        List<String> ret = new ArrayList<String>();
+        if (!file.exists()) {
+            return ret;
+        }
+        SequenceReader reader = new SequenceReader(file);
+        Sequence seq;
+        while ((seq = reader.readNextSequence()) != null) {
+            ret.add(seq.getSeqString().toLowerCase());
+        }
+        reader.close();
+        return ret;
+    }
+
+    private static void addWords(String seq, Set<String> words) {
+        for (int index = 0; index + RECALL_WORD_SIZE <= seq.length(); index++) {
+            words.add(seq.substring(index, index + RECALL_WORD_SIZE));
+        }
+    }
+
+    /**
+     * Number of genes with at least MIN_RECOVERED_WORDS of their words in
+     * one of the contigs
+     */
+    public static int countRecovered(List<String> genes, List<String> contigs) {
+        List<Set<String>> contigWords = new ArrayList<Set<String>>();
+        for (String contig : contigs) {
+            Set<String> words = new HashSet<String>();
+            addWords(contig, words);
+            addWords(ReadSimulator.reverseComplement(contig), words);
+            contigWords.add(words);
+        }
+
+        int ret = 0;
+        for (String gene : genes) {
+            Set<String> geneWords = new HashSet<String>();
+            addWords(gene, geneWords);
+            if (geneWords.isEmpty()) {
+                continue;
+            }
+            for (Set<String> words : contigWords) {
+                int found = 0;
+                for (String word : geneWords) {
+                    if (words.contains(word)) {
+                        found++;
+                    }
+                }
+                if (found >= MIN_RECOVERED_WORDS * geneWords.size()) {
+                    ret++;
+                    break;
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static Object rss(StageResult stage) {
+        return (stage.peakRssKb < 0) ? null : stage.peakRssKb;
+    }
+
+    private static double perSecond(long count, StageResult stage) {
+        return (stage.millis == 0) ? Double.NaN : count * 1000.0 / stage.millis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = 1;
+        int bloomSizeLog2 = 24;
+        int paths = 1;
+        int timeLimit = 100;
+        String label = HMMgsMain.class.getPackage().getImplementationVersion();
+        File resultsFile = null;
+
+        int optCount = 0;
+        while (optCount < args.length && args[optCount].startsWith("-") && optCount + 1 < args.length) {
+            String opt = args[optCount++];
+            if (opt.equals("-t")) {
+                threads = Integer.parseInt(args[optCount++]);
+            } else if (opt.equals("-b")) {
+                bloomSizeLog2 = Integer.parseInt(args[optCount++]);
+            } else if (opt.equals("-p")) {
+                paths = Integer.parseInt(args[optCount++]);
+            } else if (opt.equals("-s")) {
+                timeLimit = Integer.parseInt(args[optCount++]);
+            } else if (opt.equals("-l")) {
+                label = args[optCount++];
+            } else if (opt.equals("-o")) {
+                resultsFile = new File(args[optCount++]);
+            } else {
+                System.err.println("Unknown option " + opt);
+                System.exit(1);
+            }
+        }
+        args = Arrays.copyOfRange(args, optCount, args.length);
+
+        if (args.length != 4 || threads < 1 || paths < 1 || timeLimit < 1) {
+            System.err.println("USAGE: RegressionRunner [-t threads] [-b bloomSizeLog2] [-p paths] [-s seconds] [-l label] [-o results] <dataset_dir> <work_dir> <for_hmm> <rev_hmm>");
+            System.err.println("\t-t threads\n\t\tthreads used to build, search and merge, default 1");
+            System.err.println("\t-b bloomSizeLog2\n\t\tsize of the bloom filter built, default 24");
+            System.err.println("\t-p paths\n\t\tnumber of paths searched for each starting kmer, default 1");
+            System.err.println("\t-s seconds\n\t\ttime limit of a search, default 100");
+            System.err.println("\t-l label\n\t\tlabel of the run in the results, such as the version tested, default the jar's version");
+            System.err.println("\t-o results\n\t\tappend the results line to this file as well as writing it to stdout");
+            System.err.println("\tdataset_dir\n\t\tdirectory written by HMMgs simulate");
+            System.err.println("\twork_dir\n\t\tdirectory the stages run in, their output and logs are kept there");
+            System.err.println("\tfor_hmm, rev_hmm\n\t\tforward and reverse hidden markov models, HMMER3 format");
+            System.exit(1);
+        }
+
+        File datasetDir = new File(args[0]).getAbsoluteFile();
+        File workDir = new File(args[1]).getAbsoluteFile();
+        String forHMM = new File(args[2]).getAbsolutePath();
+        String revHMM = new File(args[3]).getAbsolutePath();
+        if (!workDir.isDirectory() && !workDir.mkdirs()) {
+            throw new IOException("Couldn't create " + workDir);
+        }
+
+        Properties dataset = new Properties();
+        InputStream propsIn = new FileInputStream(new File(datasetDir, ReadSimulator.PROPERTIES_FILE));
+        dataset.load(propsIn);
+        propsIn.close();
+        String kmerSize = dataset.getProperty("kmer_size");
+        long bases = Long.parseLong(dataset.getProperty("bases"));
+        long starts = Long.parseLong(dataset.getProperty("starts"));
+        String startsFile = new File(datasetDir, ReadSimulator.STARTS_FILE).getPath();
+
+        System.err.println("Starting regression run at " + new Date());
+        System.err.println("*  dataset:          " + datasetDir);
+        System.err.println("*  work directory:   " + workDir);
+        System.err.println("*  threads:          " + threads);
+        System.err.println("*  bloom size log2:  " + bloomSizeLog2);
+
+        StageResult build = runStage("build", workDir, Arrays.asList("build", "-t", String.valueOf(threads),
+                new File(datasetDir, ReadSimulator.READS_FILE).getPath(), "filter.bloom", kmerSize, String.valueOf(bloomSizeLog2)));
+        StageResult search = runStage("search", workDir, Arrays.asList("search", "-t", String.valueOf(threads), "--metrics", "search_metrics.jsonl",
+                String.valueOf(paths), String.valueOf(timeLimit), "filter.bloom", forHMM, revHMM, startsFile));
+        StageResult merge = runStage("merge", workDir, Arrays.asList("merge", "-t", String.valueOf(threads), "-o", "merge_scores.txt",
+                forHMM, "search.txt", ReadSimulator.STARTS_FILE + "_nucl.fasta"));
+
+        long openedNodes = countOpenedNodes(new File(workDir, "search_metrics.jsonl"));
+        List<String> genes = readSeqs(new File(datasetDir, ReadSimulator.GENES_FILE));
+        List<String> merged = readSeqs(new File(workDir, "nucl_merged.fasta"));
+        int recovered = countRecovered(genes, merged);
+
+        StringBuilder json = new StringBuilder("{");
+        BloomFilterStats.appendJson(json, "label", (label == null) ? "dev" : label);
+        BloomFilterStats.appendJson(json, "date", System.currentTimeMillis());
+        BloomFilterStats.appendJson(json, "dataset", datasetDir.getPath());
+        BloomFilterStats.appendJson(json, "gene", dataset.getProperty("gene"));
+        for (String name : new String[]{"coverage", "error_rate", "divergence", "noise"}) {
+            BloomFilterStats.appendJson(json, name, Double.valueOf(dataset.getProperty(name)));
+        }
+        BloomFilterStats.appendJson(json, "strains", Integer.valueOf(dataset.getProperty("strains")));
+        BloomFilterStats.appendJson(json, "seed", Long.valueOf(dataset.getProperty("seed")));
+        BloomFilterStats.appendJson(json, "threads", threads);
+        BloomFilterStats.appendJson(json, "bloom_size_log2", bloomSizeLog2);
+        BloomFilterStats.appendJson(json, "kmer_size", Integer.valueOf(kmerSize));
+        BloomFilterStats.appendJson(json, "reads", Long.valueOf(dataset.getProperty("reads")));
+        BloomFilterStats.appendJson(json, "bases", bases);
+        BloomFilterStats.appendJson(json, "build_ms", build.millis);
+        BloomFilterStats.appendJson(json, "build_bases_per_s", perSecond(bases, build));
+        BloomFilterStats.appendJson(json, "build_peak_rss_kb", rss(build));
+        BloomFilterStats.appendJson(json, "starting_kmers", starts);
+        BloomFilterStats.appendJson(json, "search_ms", search.millis);
+        BloomFilterStats.appendJson(json, "kmers_per_s", perSecond(starts, search));
+        BloomFilterStats.appendJson(json, "nodes_opened", openedNodes);
+        BloomFilterStats.appendJson(json, "nodes_opened_per_s", perSecond(openedNodes, search));
+        BloomFilterStats.appendJson(json, "search_peak_rss_kb", rss(search));
+        BloomFilterStats.appendJson(json, "merge_ms", merge.millis);
+        BloomFilterStats.appendJson(json, "merge_peak_rss_kb", rss(merge));
+        BloomFilterStats.appendJson(json, "merged_contigs", merged.size());
+        BloomFilterStats.appendJson(json, "genes", genes.size());
+        BloomFilterStats.appendJson(json, "genes_recovered", recovered);
+        BloomFilterStats.appendJson(json, "recall", genes.isEmpty() ? Double.NaN : (double) recovered / genes.size());
+        json.append('}');
+
+        System.out.println(json);
+        if (resultsFile != null) {
+            PrintStream out = new PrintStream(new FileOutputStream(resultsFile, true));
+            out.println(json);
+            out.close();
+        }
+    }
+}
@@ -21,27 +21,35 @@ import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
 import edu.msu.cme.rdp.graph.search.HMMGraphSearch;
 import edu.msu.cme.rdp.graph.search.HMMGraphSearch.HackTerminateException;
+import edu.msu.cme.rdp.graph.search.JsonLinesSearchMetricsSink;
+import edu.msu.cme.rdp.graph.search.SearchMetricsSummary;
+import edu.msu.cme.rdp.graph.search.SearchOptions;
+import edu.msu.cme.rdp.graph.search.SearchProgress;
 import edu.msu.cme.rdp.graph.search.SearchResult;
 import edu.msu.cme.rdp.graph.search.SearchTarget;
+import edu.msu.cme.rdp.graph.search.TermNodeCache;
 import edu.msu.cme.rdp.graph.search.heuristic.weight.DynamicHeuristicWeight;
 import edu.msu.cme.rdp.graph.search.heuristic.weight.HeuristicWeight;
 import edu.msu.cme.rdp.graph.search.heuristic.weight.RevisedDynamicHeuristicWeight;
 import edu.msu.cme.rdp.graph.search.heuristic.weight.StaticHeuristicWeight;
+import edu.msu.cme.rdp.graph.utils.BloomFilterStats;
+import edu.msu.cme.rdp.graph.utils.ProgressMonitor;
 import edu.msu.cme.rdp.kmer.io.KmerStart;
 import edu.msu.cme.rdp.kmer.io.KmerStartsReader;
 import edu.msu.cme.rdp.readseq.SequenceType;
 import edu.msu.cme.rdp.readseq.writers.FastaWriter;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ThreadFactory;
 
 /**
  *
@@ -49,21 +57,30 @@ import java.util.concurrent.TimeoutException;
  */
 public class TimeLimitedSearch {
 
+    /**
+     * Runs one starting kmer with the HMMGraphSearch owned by the worker
+     * thread, returns null if the search was interrupted
+     */
     private static class TimeLimitedSearchThread implements Callable<List<SearchResult>> {
 
-        private HMMGraphSearch searchMethod;
+        private ThreadLocal<HMMGraphSearch> searchMethod;
         private SearchTarget target;
+        private SearchProgress progress;
 
-        public TimeLimitedSearchThread(HMMGraphSearch searchMethod, SearchTarget target) {
+        public TimeLimitedSearchThread(ThreadLocal<HMMGraphSearch> searchMethod, SearchTarget target, SearchProgress progress) {
             this.searchMethod = searchMethod;
             this.target = target;
+            this.progress = progress;
         }
 
         public List<SearchResult> call() throws Exception {
+            long startedAt = progress.searchStarted();
             try {
-                return searchMethod.search(target);
+                return searchMethod.get().search(target);
             } catch (HackTerminateException e) {
                 return null;
+            } finally {
+                progress.searchFinished(startedAt);
             }
         }
     }
@@ -116,14 +133,19 @@ public class TimeLimitedSearch {
      * @param full  whether to display option information
      */
     private static void printUsage(boolean full) {
-        System.err.println("USAGE: TimeLimitedSearch [-h] [-u] [-p <n_nodes>] <k> <limit_in_seconds> <bloom_filter> <for_hmm> <rev_hmm> <kmers>");
+        System.err.println("USAGE: TimeLimitedSearch [-h] [-u] [-p <n_nodes>] [-t <threads>] [-c <cache_mb>] [-n <max_nodes>] [--fold-to <size_log2>] [--metrics <file>] <k> <limit_in_seconds> <bloom_filter> <for_hmm> <rev_hmm> <kmers>");
         if(full) {
             System.err.println("\nOptions:");
             System.err.println("\t-h\n\t\tprint this help information");
             System.err.println("\t-u\n\t\tdon't normalize the hmm input");
             System.err.println("\t-p n_nodes\n\t\tprune the search if the score does not improve after n_nodes (default "  + HMMGraphSearch.PRUNE_NODE + ", set to 0 to disable pruning)");            
+            System.err.println("\t-t threads\n\t\tnumber of starting kmers searched at the same time (default 1), results are still written in input order");
+            System.err.println("\t-c cache_mb\n\t\tkeep the edges of the paths found in a cache shared by the searches of a thread, at most cache_mb megabytes in total (default 0, a new cache for every starting kmer)");
+            System.err.println("\t-n max_nodes\n\t\tstop a search after opening max_nodes nodes and keep the best partial path (default 0, no limit)");
+            System.err.println("\t--fold-to size_log2\n\t\tfold the bloom filter down to 2^size_log2 buckets on the heap after loading it, to search with less memory at a higher false positive rate (see hmmgs fold), must be smaller than the filter's size log2");
+            System.err.println("\t--metrics file\n\t\twrite the nodes opened, bloom filter lookups, time taken and how it ended of every search direction to file as JSON lines (a summary is always written to stderr at the end)");
             System.err.println("\tk\n\t\tnumber of best local assemblies to return for each kmer");
-            System.err.println("\tlimit_in_seconds\n\t\tdtime limit for individual searches (conservative suggestion = 100)");
+            System.err.println("\tlimit_in_seconds\n\t\tdtime limit for individual searches (conservative suggestion = 100), searches out of time keep the best partial paths found");
             System.err.println("\tbloom_filter\n\t\tbloom filter built using hmmgs build");
             System.err.println("\tfor_hmm, rev_hmm\n\t\tforward and reverse hidden markov models, HMMER3 format");
             System.err.println("\tkmers\n\t\tstarting kmers (can use KmerFilter's fast_kmer_filter to identify starting kmers)");
@@ -134,35 +156,113 @@ public class TimeLimitedSearch {
         }
     }
 
-    public static void main(String[] args) throws Exception {
-        if ((args.length < 6 && args.length != 1)|| args.length > 13) {
-            printUsage(true);
-            System.exit(1);
+    private static HeuristicWeight createHeuristicWeight(String hweightstr, double weight) {
+        if(hweightstr.equals("static")) {
+            return new StaticHeuristicWeight(weight);
+        } else if (hweightstr.equals("dynamic")) {
+            return new DynamicHeuristicWeight(weight);
+        } else if (hweightstr.equals("revised_dynamic")) {
+            return new RevisedDynamicHeuristicWeight(weight);
+        } else {
+            throw new RuntimeException("Invalid argument for heuristic weight: " + hweightstr);
+        }
+    }
+
+    /**
+     * Writes the results of a finished search, or a placeholder line if it
+     * timed out or failed
+     *
+     * @return the new contig count
+     */
+    private static int writeResults(TimeStamppedFutureTask future, boolean isProt, FastaWriter nuclOut, FastaWriter protOut, int contigCount) throws Exception {
+        try {
+            List<SearchResult> searchResults = future.get();
+            if (searchResults == null) {
+                System.out.println("-\t" + future.getStartingWord() + (isProt ? "\t-" : "") + "\t-\t-\t-\t-");
+                return contigCount;
+            }
+
+            for (SearchResult result : searchResults) {
+                String seqid = "contig_" + (contigCount++);
+
+                HMMBloomSearch.printResult(seqid, isProt, result, System.out);
+
+                nuclOut.writeSeq(seqid, result.getNuclSeq());
+                if (isProt) {
+                    protOut.writeSeq(seqid, result.getProtSeq());
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("-\t" + future.getStartingWord() + (isProt ? "\t-" : "") + "\t-\t-\t-\t-");
+            e.printStackTrace();
+            if (e.getCause() != null) {
+                e.getCause().printStackTrace();
+            }
+        }
+        return contigCount;
+    }
+
+    /**
+     * Sums the shared term node caches of all the workers, to see whether
+     * reusing edges across starting kmers pays for itself
+     */
+    private static void printCacheStats(List<HMMGraphSearch> searches) {
+        long size = 0, maxSize = 0, hits = 0, misses = 0, evictions = 0;
+        synchronized (searches) {
+            for (HMMGraphSearch search : searches) {
+                for (TermNodeCache cache : search.getSharedTermNodeCaches()) {
+                    size += cache.size();
+                    maxSize += cache.getMaxEntries();
+                    hits += cache.getHits();
+                    misses += cache.getMisses();
+                    evictions += cache.getEvictions();
+                }
+            }
         }
+        System.err.println("Term node cache: " + size + " of " + maxSize + " edges, " + hits + " hits, " + misses + " misses (hit rate "
+                + ((hits + misses == 0) ? 0 : (float) hits / (hits + misses)) + "), " + evictions + " evicted");
+    }
 
+    public static void main(String[] args) throws Exception {
         // check for optional arguments
         boolean normalized = true;
         int heuristicPruning = HMMGraphSearch.PRUNE_NODE;
         String hweightstr = "static";
         double weight = 1.0;
+        int threads = 1;
+        long cacheSize = 0;
+        int maxNodes = 0;
+        int foldTo = 0;
+        File metricsFile = null;
         int optCount = 0;
-        for(int i = 0; i < 6; ++i) {
-            if (args[i].equals("-u")) {
+        while (optCount < args.length && args[optCount].startsWith("-")) {
+            String opt = args[optCount++];
+            if (opt.equals("-u")) {
                 normalized = false;
-                optCount++;
-            } else if (args[i].equals("-p")) {
-                heuristicPruning = Integer.parseInt(args[i+1]);
-                i++;
-                optCount += 2;
-            } else if (args[i].equals("-w")) {
-                weight = Double.parseDouble(args[i+1]);
-                i++;
-                optCount += 2;
-            } else if (args[i].equals("-m")) {
-                hweightstr = args[i+1];
-                i++;
-                optCount += 2;
-            } else if (args[i].equals("-h")) {
+            } else if (opt.equals("-h")) {
+                printUsage(true);
+                System.exit(1);
+            } else if (optCount == args.length) {
+                printUsage(true);
+                System.exit(1);
+            } else if (opt.equals("-p")) {
+                heuristicPruning = Integer.parseInt(args[optCount++]);
+            } else if (opt.equals("-w")) {
+                weight = Double.parseDouble(args[optCount++]);
+            } else if (opt.equals("-m")) {
+                hweightstr = args[optCount++];
+            } else if (opt.equals("-t")) {
+                threads = Integer.parseInt(args[optCount++]);
+            } else if (opt.equals("-n")) {
+                maxNodes = Integer.parseInt(args[optCount++]);
+            } else if (opt.equals("-c")) {
+                cacheSize = Long.parseLong(args[optCount++]) * 1024 * 1024;
+            } else if (opt.equals("--fold-to")) {
+                foldTo = Integer.parseInt(args[optCount++]);
+            } else if (opt.equals("--metrics")) {
+                metricsFile = new File(args[optCount++]);
+            } else {
+                System.err.println("Unknown option " + opt);
                 printUsage(true);
                 System.exit(1);
             }
@@ -171,8 +271,12 @@ public class TimeLimitedSearch {
         if(optCount > 0) {
             args = Arrays.copyOfRange(args, optCount, args.length);
         }
+        if (args.length != 6 || threads < 1 || foldTo < 0) {
+            printUsage(true);
+            System.exit(1);
+        }
 
-        int k = Integer.valueOf(args[0]);
+        final int k = Integer.valueOf(args[0]);
         long timeLimit = Long.valueOf(args[1]);
 
         File bloomFile = new File(args[2]);
@@ -183,16 +287,8 @@ public class TimeLimitedSearch {
         File nuclOutFile = new File(kmersFile.getName() + "_nucl.fasta");
         File protOutFile = new File(kmersFile.getName() + "_prot.fasta");
 
-        HeuristicWeight hweight;
-        if(hweightstr.equals("static")) {
-            hweight = new StaticHeuristicWeight(weight);
-        } else if (hweightstr.equals("dynamic")) {
-            hweight = new DynamicHeuristicWeight(weight);
-        } else if (hweightstr.equals("revised_dynamic")) {
-            hweight = new RevisedDynamicHeuristicWeight(weight);
-        } else {
-            throw new RuntimeException("Invalid argument for heuristic weight: " + hweightstr);
-        }
+        // fail on a bad weighting method before anything is loaded
+        createHeuristicWeight(hweightstr, weight);
 
         ProfileHMM forHMM;
         ProfileHMM revHMM;
@@ -219,9 +315,17 @@ public class TimeLimitedSearch {
         long startTime;
 
         startTime = System.currentTimeMillis();
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        BloomFilter bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter bloom = BloomFilter.fromFile(bloomFile);
+        if (foldTo >= bloom.getHashSizeLog2()) {
+            System.err.println("--fold-to " + foldTo + " isn't smaller than the bloom filter's size log2 " + bloom.getHashSizeLog2());
+            printUsage(true);
+            System.exit(1);
+        }
+        if (foldTo > 0) {
+            // the mapped words are only read while folding, the search uses the heap copy
+            bloom = bloom.fold(foldTo, threads);
+            System.err.println("Bloom filter folded to 2^" + foldTo + ", predicted false positive rate " + BloomFilterStats.predictFalsePositiveRate(bloom));
+        }
         System.err.println("Bloom filter loaded in " + (System.currentTimeMillis() - startTime) + " ms");
 
         System.err.println("Starting hmmgs search at " + new Date());
@@ -234,6 +338,10 @@ public class TimeLimitedSearch {
         System.err.println("*  Nucl contigs out file    " + nuclOutFile);
         System.err.println("*  Prot contigs out file    " + protOutFile);
         System.err.println("*  heuristicPruning         " + heuristicPruning);
+        System.err.println("*  threads                  " + threads);
+        System.err.println("*  term node cache (MB)     " + cacheSize / (1024 * 1024));
+        System.err.println("*  max opened nodes         " + maxNodes);
+        System.err.println("*  metrics file             " + metricsFile);
         // these are experimental options, not used
         //System.err.println("*  HeuristicWeightMethod    " + hweightstr);
         //System.err.println("*  HeuristicWeight          " + weight);
@@ -241,13 +349,52 @@ public class TimeLimitedSearch {
         startTime = System.currentTimeMillis();
         HMMBloomSearch.printHeader(System.out, isProt);
 
+        // the heuristic cost tables are built on first use, build them before
+        // the workers share the models
+        forHMM.getHCost();
+        revHMM.getHCost();
+
+        /*
+         * Every worker has its own search (and heuristic weight, which holds
+         * the current hmm), the bloom filter and models are only read. The
+         * walkers and node enumerators are created per search.
+         */
+        final int pruning = heuristicPruning;
+        final String weightMethod = hweightstr;
+        final double baseWeight = weight;
+        final long cachePerThread = cacheSize / threads;
+        final SearchMetricsSummary metrics = new SearchMetricsSummary((metricsFile == null) ? null : new JsonLinesSearchMetricsSink(metricsFile));
+        SearchProgress progress = new SearchProgress();
+        ProgressMonitor.register(progress, "TimeLimitedSearch");
+        final List<HMMGraphSearch> allSearches = Collections.synchronizedList(new ArrayList<HMMGraphSearch>());
+        ThreadLocal<HMMGraphSearch> searches = new ThreadLocal<HMMGraphSearch>() {
+            @Override
+            protected HMMGraphSearch initialValue() {
+                HMMGraphSearch search = new HMMGraphSearch(k, pruning);
+                search.setHWeight(createHeuristicWeight(weightMethod, baseWeight));
+                search.setSharedTermNodeCache(cachePerThread);
+                search.setMetricsSink(metrics);
+                allSearches.add(search);
+                return search;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                t.setPriority(Thread.MAX_PRIORITY);
+                return t;
+            }
+        });
+        // searches submitted but not yet written, in input order
+        LinkedList<TimeStamppedFutureTask> pending = new LinkedList<TimeStamppedFutureTask>();
+        int maxPending = threads * 4;
+
+        SearchOptions options = new SearchOptions(timeLimit * 1000, maxNodes);
         KmerStart line;
         KmerStartsReader reader = new KmerStartsReader(kmersFile);
-        HMMGraphSearch search = new HMMGraphSearch(k, heuristicPruning);
         try {
             while ((line = reader.readNext()) != null) {  
-                search.setHWeight(hweight);
-
                 kmerCount++;
 
                 if (line.getMpos() == 0) {
@@ -256,44 +403,29 @@ public class TimeLimitedSearch {
                 }
 
                 TimeStamppedFutureTask future = new TimeStamppedFutureTask(
-                        new TimeLimitedSearchThread(search,
+                        new TimeLimitedSearchThread(searches,
                         new SearchTarget(line.getGeneName(),
                         line.getQueryId(), line.getRefId(), line.getNuclKmer(), 0,
-                        line.getMpos() - 1, forHMM, revHMM, bloom)));
+                        line.getMpos() - 1, forHMM, revHMM, bloom, options), progress));
 
-                Thread t = new Thread(future);
-                t.setDaemon(true);
-                t.setPriority(Thread.MAX_PRIORITY);
-                t.start();
-
-                try {
-                    List<SearchResult> searchResults = future.get(timeLimit, TimeUnit.SECONDS);
-
-                    for (SearchResult result : searchResults) {
-                        String seqid = "contig_" + (contigCount++);
-
-                        HMMBloomSearch.printResult(seqid, isProt, result, System.out);
-
-                        nuclOut.writeSeq(seqid, result.getNuclSeq());
-                        if (isProt) {
-                            protOut.writeSeq(seqid, result.getProtSeq());
-                        }
-                    }
-
-                } catch (TimeoutException e) {
-                    System.out.println("-\t" + future.getStartingWord() + (isProt ? "\t-" : "") + "\t-\t-\t-\t-");
-                    future.cancel(true);
-                } catch (Exception e) {
-                    System.out.println("-\t" + future.getStartingWord() + (isProt ? "\t-" : "") + "\t-\t-\t-\t-");
-                    e.printStackTrace();
-                    if (e.getCause() != null) {
-                        e.getCause().printStackTrace();
-                    }
-                    future.cancel(true);
+                executor.execute(future);
+                pending.add(future);
+
+                if (pending.size() >= maxPending) {
+                    contigCount = writeResults(pending.removeFirst(), isProt, nuclOut, protOut, contigCount);
                 }
             }
+            while (!pending.isEmpty()) {
+                contigCount = writeResults(pending.removeFirst(), isProt, nuclOut, protOut, contigCount);
+            }
             System.err.println("Read in " + kmerCount + " kmers and created " + contigCount + " contigs in " + (System.currentTimeMillis() - startTime) / 1000f + " seconds");
+            if (cacheSize > 0) {
+                printCacheStats(allSearches);
+            }
+            metrics.print(System.err);
         } finally {
+            executor.shutdownNow();
+            metrics.close();
             nuclOut.close();
             if (isProt) {
                 protOut.close();
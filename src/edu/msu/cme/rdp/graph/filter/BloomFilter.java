@@ -18,17 +18,73 @@ package edu.msu.cme.rdp.graph.filter;
 
 import edu.msu.cme.rdp.graph.hash.CyclicHash;
 import edu.msu.cme.rdp.graph.hash.Hash;
+import edu.msu.cme.rdp.graph.hash.NucleotideHash;
 import edu.msu.cme.rdp.kmer.Kmer;
 import edu.msu.cme.rdp.kmer.NuclKmer;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Bloom filters are written with writeTo in the following binary format, all
+ * values little endian:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     8  magic "HMMGSBF\0"
+ *      8     4  format version (1)
+ *     12     4  kmer size
+ *     16     4  hash count
+ *     20     4  hash size log2
+ *     24     4  bitset size log2
+ *     28     4  bits per bucket (counters interleaved, see MultiBitArray)
+ *     32     4  hash function (1 = CyclicHash)
+ *     36     4  layout (0 = standard, 1 = blocked)
+ *     40     8  unique kmers
+ *     48     8  total kmers
+ *     56     8  total strings
+ *     64     8  mercy kmers
+ *     72     8  singleton kmers (-1 if not computed)
+ *     80     8  created on, milliseconds since the epoch
+ *     88    32  CyclicHash values of a, c, g and t
+ *    120     8  checksum of the words (0 if not computed), see MultiBitArray.checksum
+ *    128     4  flags, 1 while an append is in progress
+ *    132  3964  reserved, zero
+ *   4096     -  bitset words, see MultiBitArray.writeTo
+ * </pre>
+ *
+ * The nucleotide hash values are drawn at random when the JVM starts, so they
+ * have to be stored with the filter for its hashes to mean anything later.
+ * The header is padded to a page so the words can be memory-mapped directly,
+ * fromFile maps them instead of reading them on to the heap. Files written
+ * with java serialization (.ser) are still read by fromFile.
+ *
+ * openForAppend maps the words read-write so reads can be added to the file
+ * in place. The append flag is set on disk before the first word changes and
+ * only cleared by finishAppend, once the words are on disk and the header
+ * counts and checksum are updated, so a file left half appended by a crash
+ * is refused by fromFile until the append is run again. For a presence
+ * filter adding kmers only sets bits, so running it again finishes the job,
+ * and finishAppend then estimates the unique kmers from the occupied buckets
+ * since the kmers set before the crash aren't new to the second run. Adding
+ * to a counting filter increments counters, running it again would count
+ * the reads added before the crash twice, so counting filters can't be
+ * appended to in place.
  *
  * @author wangqion, gilmanma This is not thread safe
  */
@@ -37,6 +93,34 @@ public class BloomFilter implements Serializable {
     private static final int MAX_ASCII = 128;
     private static final int LONGSIZE = 64;
     public static final long serialVersionUID = -8788171152437524877L;
+    private static final byte[] FILE_MAGIC = {'H', 'M', 'M', 'G', 'S', 'B', 'F', 0};
+    public static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 4096;
+    private static final int CYCLIC_HASH = 1;
+    private static final int NUM_BITS_OFFSET = 28;
+    private static final int CHECKSUM_OFFSET = 120;
+    private static final int FLAGS_OFFSET = 128;
+    private static final int FLAG_APPENDING = 1;
+    /**
+     * Words handled per task by merge, fold and countOccupied
+     */
+    private static final int BLOCK_WORDS = 1 << 16;
+    /**
+     * Random kmers looked up per hasNodes call by countRandomHits
+     */
+    private static final int SAMPLE_BATCH = 1 << 12;
+
+    /**
+     * Probes for a kmer are spread over the whole filter
+     */
+    public static final int LAYOUT_STANDARD = 0;
+    /**
+     * All probes for a kmer fall in one block of BLOCK_SIZE bits (one cache
+     * line) chosen by xHash, yHash picks the bits inside the block
+     */
+    public static final int LAYOUT_BLOCKED = 1;
+    public static final int BLOCK_SIZE_LOG2 = 9;
+    private static final long BLOCK_MASK = (1L << BLOCK_SIZE_LOG2) - 1;
     private final Hash hasher;
     private final MultiBitArray bitArray;
     /**
@@ -50,6 +134,7 @@ public class BloomFilter implements Serializable {
     private final long hashMask;
     private final int hashCount;   // number of hash functions
     private final int kmerSize;  // should be less than 63
+    private final int layout;    // LAYOUT_STANDARD or LAYOUT_BLOCKED, serialized filters predating it are standard
     /**
      * ***********
      * These variables keep track of stats about what is in the bloom filter
@@ -61,8 +146,39 @@ public class BloomFilter implements Serializable {
     private final Date createdOn;
     private long numMercyKmers = 0;
     private long singltonKmers = -1; // number of singleton kmers found during mercy kmer calculation,
+    private transient long checksum = 0;
+    /*
+     * the file being appended to in place, see openForAppend
+     */
+    private transient File appendFile;
+    /*
+     * set when openForAppend finds the append flag left by an unfinished append
+     */
+    private transient boolean recoveringAppend;
 
+    /**
+     * Loads a bloom filter, binary files are mapped read only
+     */
     public static BloomFilter fromFile(File f) throws IOException {
+        return fromFile(f, false);
+    }
+
+    /**
+     * Loads a bloom filter from either the binary format or a serialized
+     * (.ser) file
+     *
+     * @param f         bloom filter file
+     * @param writable  if true binary files are mapped copy-on-write so nodes
+     *                  can be added without changing the file (the file must
+     *                  still be opened read-write to map it this way)
+     * @return
+     * @throws IOException
+     */
+    public static BloomFilter fromFile(File f, boolean writable) throws IOException {
+        if (isBinaryFile(f)) {
+            return mapFile(f, writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY);
+        }
+
         ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
         try {
             BloomFilter ret = (BloomFilter) ois.readObject();
@@ -74,16 +190,282 @@ public class BloomFilter implements Serializable {
         }
     }
 
+    /**
+     * @return true if the file starts with the binary format magic number
+     */
+    public static boolean isBinaryFile(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            byte[] magic = new byte[FILE_MAGIC.length];
+            in.readFully(magic);
+            return Arrays.equals(magic, FILE_MAGIC);
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static BloomFilter mapFile(File f, FileChannel.MapMode mode) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, (mode == FileChannel.MapMode.READ_ONLY) ? "r" : "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Bloom filter header is truncated in " + f);
+                }
+            }
+            header.position(FILE_MAGIC.length);
+
+            int version = header.getInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported bloom filter format version " + version + " in " + f);
+            }
+            int kmerSize = header.getInt();
+            int hashCount = header.getInt();
+            int hashSizeLog2 = header.getInt();
+            int bitsetSizeLog2 = header.getInt();
+            int numBits = header.getInt();
+            int hashFunction = header.getInt();
+            if (hashFunction != CYCLIC_HASH) {
+                throw new IOException("Unsupported hash function " + hashFunction + " in " + f);
+            }
+            int layout = header.getInt();
+            long[] hashValues = new long[4];
+            header.position(88);
+            for (int i = 0; i < hashValues.length; i++) {
+                hashValues[i] = header.getLong();
+            }
+            if ((header.getInt(FLAGS_OFFSET) & FLAG_APPENDING) != 0 && mode != FileChannel.MapMode.READ_WRITE) {
+                throw new IOException("Bloom filter " + f + " was left partly appended to, run the append again to finish it");
+            }
+
+            MultiBitArray bitArray = MultiBitArray.map(channel, HEADER_SIZE, hashSizeLog2, bitsetSizeLog2, numBits, mode);
+            BloomFilter ret = new BloomFilter(hashSizeLog2, hashCount, kmerSize, bitsetSizeLog2, layout, new NucleotideHash(hashValues), bitArray, new Date(header.getLong(80)));
+            header.position(40);
+            ret.uniqueKmers = header.getLong();
+            ret.totalKmers = header.getLong();
+            ret.totalStrings = header.getLong();
+            ret.numMercyKmers = header.getLong();
+            ret.singltonKmers = header.getLong();
+            ret.checksum = header.getLong(CHECKSUM_OFFSET);
+
+            return ret;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens a binary bloom filter to add kmers to the file in place, the
+     * words are mapped read-write and the append flag is set in the file.
+     * Call finishAppend when done adding.
+     *
+     * The checksum is kept up to date as bits are set, unless the file has no
+     * checksum or was left partly appended to, then finishAppend computes it
+     * from all the words.
+     *
+     * Counting filters (more than one bit per bucket) are refused, an
+     * interrupted append run again would count reads twice.
+     */
+    public static BloomFilter openForAppend(File f) throws IOException {
+        if (!isBinaryFile(f)) {
+            throw new IOException("Only binary bloom filters can be appended to in place, see BloomFilterConverter");
+        }
+        if (readNumBits(f) > 1) {
+            throw new IOException("Counting bloom filter " + f + " can't be appended to in place, append to a copy instead");
+        }
+        BloomFilter ret = mapFile(f, FileChannel.MapMode.READ_WRITE);
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            ByteBuffer flags = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            raf.getChannel().read(flags, FLAGS_OFFSET);
+            boolean wasAppending = (flags.getInt(0) & FLAG_APPENDING) != 0;
+            if (!wasAppending) {
+                writeFlags(raf.getChannel(), FLAG_APPENDING);
+            }
+            ret.recoveringAppend = wasAppending;
+            if (wasAppending || ret.checksum == 0) {
+                ret.checksum = 0;
+            } else {
+                ret.bitArray.trackChecksum();
+            }
+        } finally {
+            raf.close();
+        }
+
+        ret.appendFile = f;
+        return ret;
+    }
+
+    /**
+     * @return bits per bucket of a binary bloom filter, read from the header
+     * without mapping the words
+     */
+    public static int readNumBits(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (buf.hasRemaining()) {
+                if (raf.getChannel().read(buf, NUM_BITS_OFFSET + buf.position()) < 0) {
+                    throw new IOException("Bloom filter header is truncated in " + f);
+                }
+            }
+            return buf.getInt(0);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeFlags(FileChannel channel, int flags) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0, flags);
+        channel.write(buf, FLAGS_OFFSET);
+        channel.force(true);
+    }
+
+    /**
+     * Finishes an append started with openForAppend: the words are forced to
+     * disk, then the header is rewritten with the new counts and checksum and
+     * the append flag cleared. When finishing an append left unfinished
+     * the unique kmers are estimated from the occupied buckets.
+     */
+    public void finishAppend() throws IOException, InterruptedException {
+        if (appendFile == null) {
+            throw new IllegalStateException("Bloom filter wasn't opened for append");
+        }
+        bitArray.force();
+        if (recoveringAppend) {
+            long occupied = 0;
+            for (long setOccupied : countOccupied(Runtime.getRuntime().availableProcessors())) {
+                occupied += setOccupied;
+            }
+            uniqueKmers = estimateKmers(occupied);
+        }
+        if (checksum == 0) {
+            checksum = bitArray.checksum();
+        } else {
+            checksum = MultiBitArray.nonZero(checksum + bitArray.getChecksumDelta());
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(appendFile, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = getHeader(FLAG_APPENDING);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            writeFlags(channel, 0);
+        } finally {
+            raf.close();
+        }
+        appendFile = null;
+        recoveringAppend = false;
+    }
+
+    private ByteBuffer getHeader(int flags) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(FILE_MAGIC);
+        header.putInt(FILE_VERSION);
+        header.putInt(kmerSize);
+        header.putInt(hashCount);
+        header.putInt(hashSizeLog2);
+        header.putInt(bitsetSizeLog2);
+        header.putInt(bitArray.getNumBits());
+        header.putInt(CYCLIC_HASH);
+        header.putInt(layout);
+        header.putLong(uniqueKmers);
+        header.putLong(totalKmers);
+        header.putLong(totalStrings);
+        header.putLong(numMercyKmers);
+        header.putLong(singltonKmers);
+        header.putLong(createdOn.getTime());
+        for (long hashValue : getNucleotideHash().hashvalues) {
+            header.putLong(hashValue);
+        }
+        header.putLong(CHECKSUM_OFFSET, checksum);
+        header.putInt(FLAGS_OFFSET, flags);
+        header.clear();
+        return header;
+    }
+
+    /**
+     * Writes the bloom filter in the binary format described above
+     *
+     * @param f file to write to, overwritten if it exists
+     * @throws IOException
+     */
+    public void writeTo(File f) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            FileChannel channel = out.getChannel();
+            channel.position(HEADER_SIZE);
+            checksum = bitArray.writeTo(channel);
+
+            // the header goes last, once the checksum is known
+            ByteBuffer header = getHeader(0);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return checksum of the words as of the last writeTo or append, 0 if it
+     * hasn't been computed
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return true if the words match the checksum, reads every word
+     */
+    public boolean verifyChecksum() {
+        return bitArray.checksum() == checksum;
+    }
+
     public BloomFilter(int hashSizeLog2, int hashCount, int kmerSize, int bitsetSizeLog2, int numBits) {
-        createdOn = new Date();
+        this(hashSizeLog2, hashCount, kmerSize, bitsetSizeLog2, numBits, LAYOUT_STANDARD);
+    }
+
+    public BloomFilter(int hashSizeLog2, int hashCount, int kmerSize, int bitsetSizeLog2, int numBits, int layout) {
+        this(hashSizeLog2, hashCount, kmerSize, bitsetSizeLog2, numBits, layout, NucleotideHash.getInstance());
+    }
+
+    /**
+     * @param nuclHash  nucleotide hash values to use instead of this JVM's,
+     *                  filters built separately (e.g. from shards of a read
+     *                  set) can only be merged if they share them
+     */
+    public BloomFilter(int hashSizeLog2, int hashCount, int kmerSize, int bitsetSizeLog2, int numBits, int layout, NucleotideHash nuclHash) {
+        this(hashSizeLog2, hashCount, kmerSize, bitsetSizeLog2, layout, nuclHash, new MultiBitArray(hashSizeLog2, bitsetSizeLog2, numBits), new Date());
+    }
+
+    private BloomFilter(int hashSizeLog2, int hashCount, int kmerSize, int bitsetSizeLog2, int layout, NucleotideHash nuclHash, MultiBitArray bitArray, Date createdOn) {
+        if (layout == LAYOUT_BLOCKED) {
+            // a block must not straddle two bitsets
+            if (hashSizeLog2 < BLOCK_SIZE_LOG2 || bitsetSizeLog2 < BLOCK_SIZE_LOG2) {
+                throw new IllegalArgumentException("Blocked bloom filters need hash size and bitset size of at least 2^" + BLOCK_SIZE_LOG2);
+            }
+        } else if (layout != LAYOUT_STANDARD) {
+            throw new IllegalArgumentException("Unknown bloom filter layout " + layout);
+        }
+        this.layout = layout;
+        this.createdOn = createdOn;
         this.hashCount = hashCount;
         this.hashSizeLog2 = hashSizeLog2;
         this.hashMask = (1L << hashSizeLog2) - 1;
         this.kmerSize = kmerSize;
         this.bitsetSizeLog2 = bitsetSizeLog2;
 
-        hasher = new CyclicHash(kmerSize);
-        bitArray = new MultiBitArray(hashSizeLog2, bitsetSizeLog2, numBits);
+        hasher = new CyclicHash(kmerSize, nuclHash);
+        this.bitArray = bitArray;
     }
 
     /*
@@ -91,6 +473,9 @@ public class BloomFilter implements Serializable {
      * internal state to point to this node
      */
     boolean addNode(long xHash, long yHash) {
+        if (layout == LAYOUT_BLOCKED) {
+            return addNodeBlocked(xHash, yHash);
+        }
         boolean wasSet = false;
         //to avoid overflow, we get the mod first because (a+B)%m = (a%m + b%m )%m
         //Only works if hash size < maxLong in size.
@@ -106,6 +491,9 @@ public class BloomFilter implements Serializable {
     }
 
     boolean hasNode(long xHash, long yHash) {
+        if (layout == LAYOUT_BLOCKED) {
+            return hasNodeBlocked(xHash, yHash);
+        }
         boolean wasSet = true;
         //to avoid overflow, we get the mod first because (a+B)%m = (a%m + b%m )%m
         //Only works if hash size < maxLong in size.
@@ -120,6 +508,91 @@ public class BloomFilter implements Serializable {
         return wasSet;
     }
 
+    /**
+     * Looks up many kmers at once. hasNode follows each kmer's probes one
+     * after the other, every probe waiting on the memory load before it.
+     * Here the first probe of every kmer is tested, then the second probe of
+     * those still present and so on, so the loads within a round don't
+     * depend on each other and can be in flight together.
+     *
+     * @param fwdHashes forward hash value of each kmer
+     * @param rcHashes  reverse complement hash value of each kmer
+     * @param n         number of kmers
+     * @param out       cleared, then bit i is set if kmer i is in the filter
+     */
+    public void hasNodes(long[] fwdHashes, long[] rcHashes, int n, BitSet out) {
+        int[] found = new int[n];
+        int count = hasNodes(fwdHashes, rcHashes, n, found);
+
+        out.clear();
+        for (int index = 0; index < count; index++) {
+            out.set(found[index]);
+        }
+    }
+
+    /**
+     * @param found receives the indices of the kmers in the filter, in
+     *              order, at least n long
+     * @return number of kmers in the filter
+     */
+    int hasNodes(long[] fwdHashes, long[] rcHashes, int n, int[] found) {
+        for (int index = 0; index < n; index++) {
+            found[index] = index;
+        }
+
+        int remaining = n;
+        for (int i = 0; i < hashCount && remaining > 0; ++i) {
+            int kept = 0;
+            for (int r = 0; r < remaining; r++) {
+                int index = found[r];
+                found[kept] = index;
+                kept += bitArray.isSet(probe(fwdHashes[index], rcHashes[index], i)) ? 1 : 0;
+            }
+            remaining = kept;
+        }
+        return remaining;
+    }
+
+    /**
+     * @return the i'th bit hasNode tests for the kmer
+     */
+    private long probe(long fwdHash, long rcHash, int i) {
+        long xHash = (fwdHash > rcHash) ? fwdHash : rcHash;
+        long yHash = (fwdHash > rcHash) ? rcHash : fwdHash;
+        if (layout == LAYOUT_BLOCKED) {
+            long step = (yHash >>> BLOCK_SIZE_LOG2) | 1;
+            return (xHash & hashMask & ~BLOCK_MASK) | ((yHash + i * step) & BLOCK_MASK);
+        }
+        return ((xHash & hashMask) + i * (yHash & hashMask)) & hashMask;
+    }
+
+    /*
+     * In the blocked layout the block is picked by xHash, and the probes
+     * within the block are double hashed from the low and high bits of yHash
+     */
+    private boolean addNodeBlocked(long xHash, long yHash) {
+        boolean wasSet = false;
+        long block = xHash & hashMask & ~BLOCK_MASK;
+        long step = (yHash >>> BLOCK_SIZE_LOG2) | 1;
+        for (int i = 0; i < hashCount; ++i) {
+            wasSet |= setBit(block | (yHash & BLOCK_MASK));
+            yHash += step;
+        }
+        return wasSet;
+    }
+
+    private boolean hasNodeBlocked(long xHash, long yHash) {
+        long block = xHash & hashMask & ~BLOCK_MASK;
+        long step = (yHash >>> BLOCK_SIZE_LOG2) | 1;
+        for (int i = 0; i < hashCount; ++i) {
+            if (!bitArray.isSet(block | (yHash & BLOCK_MASK))) {
+                return false;
+            }
+            yHash += step;
+        }
+        return true;
+    }
+
     /*
      * Returns True if bit not previously set
      */
@@ -138,6 +611,16 @@ public class BloomFilter implements Serializable {
      * @return the minimum count of the hash values
      */
     public int getMinCurrentCount(long xHash, long yHash){
+        if (layout == LAYOUT_BLOCKED) {
+            long block = xHash & hashMask & ~BLOCK_MASK;
+            long step = (yHash >>> BLOCK_SIZE_LOG2) | 1;
+            int minCount = Integer.MAX_VALUE;
+            for (int i = 0; i < hashCount && (minCount > 0); ++i) {
+                minCount = Math.min(minCount, bitArray.getCount(block | (yHash & BLOCK_MASK)));
+                yHash += step;
+            }
+            return minCount;
+        }
         xHash = xHash & hashMask;
         yHash = yHash & hashMask;
         long hashVal = xHash;
@@ -157,6 +640,270 @@ public class BloomFilter implements Serializable {
         bitArray.collapse(cutoff);
     }
 
+    /**
+     * Checks that other hashes kmers to the same buckets as this filter: same
+     * kmer size, hash count, size, bitset size, layout, bits per bucket and
+     * nucleotide hash values
+     *
+     * @throws IllegalArgumentException naming the first difference
+     */
+    public void checkMergeable(BloomFilter other) {
+        String diff = null;
+        if (kmerSize != other.kmerSize) {
+            diff = "kmer size " + kmerSize + " != " + other.kmerSize;
+        } else if (hashCount != other.hashCount) {
+            diff = "hash count " + hashCount + " != " + other.hashCount;
+        } else if (hashSizeLog2 != other.hashSizeLog2) {
+            diff = "hash size log2 " + hashSizeLog2 + " != " + other.hashSizeLog2;
+        } else if (layout != other.layout) {
+            diff = "layout " + layout + " != " + other.layout;
+        } else if (!bitArray.sameShape(other.bitArray)) {
+            diff = "bitset size log2 " + bitsetSizeLog2 + " / bits per bucket " + bitArray.getNumBits()
+                    + " != " + other.bitsetSizeLog2 + " / " + other.bitArray.getNumBits();
+        } else if (!hasher.getClass().equals(other.hasher.getClass())
+                || !Arrays.equals(getNucleotideHash().hashvalues, other.getNucleotideHash().hashvalues)) {
+            diff = "different hash values, build the filters with the same hash values (see BloomFilterBuilder -H)";
+        }
+        if (diff != null) {
+            throw new IllegalArgumentException("Bloom filters can't be merged: " + diff);
+        }
+    }
+
+    /**
+     * Adds the kmers of the given filters, built from other reads with the
+     * same parameters (see checkMergeable), to this one. Presence bits are
+     * or'ed, counters are added and saturate at the largest count a bucket
+     * holds, so a counting filter can still be collapsed afterwards.
+     *
+     * The words are merged a block at a time in the given number of threads,
+     * each block read from every filter (mapped filters are read straight
+     * from the page cache) and written once. The string and kmer totals are
+     * summed, unique kmers can't be summed since shards share kmers so it is
+     * estimated from the number of non-empty buckets.
+     */
+    public void merge(List<BloomFilter> others, int threads) throws InterruptedException {
+        final MultiBitArray[] otherArrays = new MultiBitArray[others.size()];
+        for (int i = 0; i < otherArrays.length; i++) {
+            BloomFilter other = others.get(i);
+            checkMergeable(other);
+            otherArrays[i] = other.bitArray;
+        }
+
+        int wordsPerSet = bitArray.getWordsPerSet();
+        int blockWords = Math.min(wordsPerSet, BLOCK_WORDS);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> blocks = new ArrayList<Future<Long>>();
+        long occupied = 0;
+        try {
+            for (int set = 0; set < bitArray.getNumBitSets(); set++) {
+                for (int from = 0; from < wordsPerSet; from += blockWords) {
+                    final int setNum = set;
+                    final int fromWord = from;
+                    final int toWord = Math.min(from + blockWords, wordsPerSet);
+                    blocks.add(executor.submit(new Callable<Long>() {
+                        public Long call() {
+                            return bitArray.add(otherArrays, setNum, fromWord, toWord);
+                        }
+                    }));
+                }
+            }
+            for (Future<Long> block : blocks) {
+                occupied += block.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to merge bloom filters", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (BloomFilter other : others) {
+            totalKmers += other.totalKmers;
+            totalStrings += other.totalStrings;
+            numMercyKmers += other.numMercyKmers;
+            singltonKmers = (singltonKmers < 0 || other.singltonKmers < 0) ? -1 : singltonKmers + other.singltonKmers;
+        }
+        uniqueKmers = estimateKmers(occupied);
+    }
+
+    /**
+     * Counts the non-empty buckets of every bitset, reading the words a block
+     * at a time in the given number of threads
+     *
+     * @return number of non-empty buckets in each bitset
+     */
+    public long[] countOccupied(int threads) throws InterruptedException {
+        int wordsPerSet = bitArray.getWordsPerSet();
+        int blockWords = Math.min(wordsPerSet, BLOCK_WORDS);
+        long[] ret = new long[bitArray.getNumBitSets()];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> blocks = new ArrayList<Future<Long>>();
+        try {
+            for (int set = 0; set < ret.length; set++) {
+                for (int from = 0; from < wordsPerSet; from += blockWords) {
+                    final int setNum = set;
+                    final int fromWord = from;
+                    final int toWord = Math.min(from + blockWords, wordsPerSet);
+                    blocks.add(executor.submit(new Callable<Long>() {
+                        public Long call() {
+                            return bitArray.countOccupied(setNum, fromWord, toWord);
+                        }
+                    }));
+                }
+            }
+            int blocksPerSet = (wordsPerSet + blockWords - 1) / blockWords;
+            for (int index = 0; index < blocks.size(); index++) {
+                ret[index / blocksPerSet] += blocks.get(index).get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to count bloom filter buckets", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return ret;
+    }
+
+    /**
+     * Looks up random kmers, almost all of them can't have been added so the
+     * fraction found is the false positive rate the filter actually has. Each
+     * thread walks a random sequence a base at a time, one hash update per
+     * kmer, and looks the kmers up in batches with hasNodes.
+     *
+     * @param samples   number of random kmers to look up
+     * @param seed      seed for the random sequences
+     * @return number of the random kmers found in the filter
+     */
+    public long countRandomHits(long samples, long seed, int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> parts = new ArrayList<Future<Long>>();
+        long ret = 0;
+        try {
+            for (int t = 0; t < threads; t++) {
+                final long count = samples / threads + ((t < samples % threads) ? 1 : 0);
+                final Random rand = new Random(seed + t);
+                parts.add(executor.submit(new Callable<Long>() {
+                    public Long call() {
+                        return countRandomHits(count, rand);
+                    }
+                }));
+            }
+            for (Future<Long> part : parts) {
+                ret += part.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to sample bloom filter", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return ret;
+    }
+
+    private long countRandomHits(long samples, Random rand) {
+        char[] bases = {'a', 'c', 'g', 't'};
+        char[] start = new char[kmerSize];
+        for (int i = 0; i < kmerSize; i++) {
+            start[i] = bases[rand.nextInt(4)];
+        }
+        GraphState state = new GraphState(start);
+
+        long[] fwdHashes = new long[SAMPLE_BATCH];
+        long[] rcHashes = new long[SAMPLE_BATCH];
+        int[] found = new int[SAMPLE_BATCH];
+        long hits = 0;
+        while (samples > 0) {
+            int n = (int) Math.min(samples, SAMPLE_BATCH);
+            for (int index = 0; index < n; index++) {
+                state.shiftRight(bases[rand.nextInt(4)]);
+                fwdHashes[index] = state.getFwdHash();
+                rcHashes[index] = state.getRcHash();
+            }
+            hits += hasNodes(fwdHashes, rcHashes, n, found);
+            samples -= n;
+        }
+        return hits;
+    }
+
+    /**
+     * @return number of distinct kmers expected to leave the given number of
+     * buckets non-empty, -(m / k) ln(1 - X / m) (Swamidass and Baldi 2007)
+     */
+    public long estimateKmers(long occupied) {
+        double m = (double) (1L << hashSizeLog2);
+        if (occupied >= m) {
+            return Long.MAX_VALUE;
+        }
+        return Math.round(-(m / hashCount) * Math.log(1 - occupied / m));
+    }
+
+    /**
+     * Folds the filter down to 2^newHashSizeLog2 buckets, trading a higher
+     * false positive rate for less memory without rebuilding from the reads.
+     *
+     * Every probe is taken mod the filter size, a power of two, so a kmer's
+     * probes in the smaller filter are its probes in this one with the high
+     * bits dropped (in the blocked layout the block number loses its high
+     * bits and the position in the block is unchanged). Bucket b of the
+     * folded filter is therefore the or, or for counting filters the
+     * saturating sum, of every bucket b + j * 2^newHashSizeLog2 of this one
+     * and the folded filter answers exactly as one built at the smaller size
+     * would.
+     *
+     * @param newHashSizeLog2   log2 of the new size, at most this filter's
+     * @param threads           number of threads folding the words
+     * @return a new filter on the heap, this one is unchanged
+     */
+    public BloomFilter fold(int newHashSizeLog2, int threads) throws InterruptedException {
+        if (newHashSizeLog2 > hashSizeLog2) {
+            throw new IllegalArgumentException("Can't fold a bloom filter of size 2^" + hashSizeLog2 + " to the larger 2^" + newHashSizeLog2);
+        }
+        int newBitsetSizeLog2 = Math.min(bitsetSizeLog2, newHashSizeLog2);
+        final MultiBitArray folded = new MultiBitArray(newHashSizeLog2, newBitsetSizeLog2, bitArray.getNumBits());
+        if (!bitArray.canFold(hashSizeLog2) || !folded.canFold(newHashSizeLog2)) {
+            throw new IllegalArgumentException("Can't fold a bloom filter to fewer than a word of buckets, or one with bitsets smaller than a word");
+        }
+        BloomFilter ret = new BloomFilter(newHashSizeLog2, hashCount, kmerSize, newBitsetSizeLog2, layout, getNucleotideHash(), folded, createdOn);
+
+        long foldedWords = (long) folded.getNumBitSets() * folded.getWordsPerSet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> blocks = new ArrayList<Future<Long>>();
+        try {
+            for (long from = 0; from < foldedWords; from += BLOCK_WORDS) {
+                final long fromWord = from;
+                final long toWord = Math.min(from + BLOCK_WORDS, foldedWords);
+                blocks.add(executor.submit(new Callable<Long>() {
+                    public Long call() {
+                        return bitArray.foldInto(folded, hashSizeLog2, fromWord, toWord);
+                    }
+                }));
+            }
+            for (Future<Long> block : blocks) {
+                block.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to fold bloom filter", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the same kmers are in the folded filter, only the size changes
+        ret.uniqueKmers = uniqueKmers;
+        ret.totalKmers = totalKmers;
+        ret.totalStrings = totalStrings;
+        ret.numMercyKmers = numMercyKmers;
+        ret.singltonKmers = singltonKmers;
+        return ret;
+    }
+
+    /**
+     * Allows GraphBuilders in different threads to add to this filter at the
+     * same time, see MultiBitArray.setConcurrent. Builders used that way
+     * have to be created with deferStats and merged with mergeStats.
+     *
+     * @param concurrent    whether kmers may be added from several threads
+     */
+    public void setConcurrent(boolean concurrent) {
+        bitArray.setConcurrent(concurrent);
+    }
+
     public int getBitsetSize() {
         return bitArray.getBitSetSize();
     }
@@ -173,6 +920,10 @@ public class BloomFilter implements Serializable {
         return kmerSize;
     }
 
+    public int getLayout() {
+        return layout;
+    }
+
     public long getBitsetMask() {
         return bitArray.getBitSetMask();
     }
@@ -181,10 +932,24 @@ public class BloomFilter implements Serializable {
         return bitsetSizeLog2;
     }
 
+    /**
+     * @return bits per bucket, 1 once the filter has been collapsed
+     */
+    public int getNumBits() {
+        return bitArray.getNumBits();
+    }
+
     public long getHashMask() {
         return hashMask;
     }
 
+    /**
+     * @return the nucleotide hash values kmers are hashed with
+     */
+    public NucleotideHash getNucleotideHash() {
+        return ((CyclicHash) hasher).getNucleotideHash();
+    }
+
     public String getHasherClassName() {
         return hasher.getClass().getCanonicalName();
     }
@@ -291,6 +1056,14 @@ public class BloomFilter implements Serializable {
 
         }
 
+        public long getFwdHash() {
+            return fwdHashValue;
+        }
+
+        public long getRcHash() {
+            return rcHashValue;
+        }
+
         public boolean hasCurrent() {
             long xHash = (fwdHashValue > rcHashValue) ? fwdHashValue : rcHashValue;
             long yHash = (fwdHashValue > rcHashValue) ? rcHashValue : fwdHashValue;
@@ -312,6 +1085,13 @@ public class BloomFilter implements Serializable {
             if (c == -1) {
                 throw new InvalidDNABaseException("Input contains non nucleotide character: " + inChar);
             }
+            loadBaseRight(c);
+        }
+
+        /**
+         * loadCharRight for a base already encoded, not validated
+         */
+        protected void loadBaseRight(byte c) {
             fwdHashValue = hasher.eatRight(fwdHashValue, c);
             kmer[kmerLeftIdx] = c;
             if (++kmerLeftIdx >= kmerSize) {
@@ -337,6 +1117,13 @@ public class BloomFilter implements Serializable {
             if (c == -1) {
                 throw new InvalidDNABaseException("Input contains non nucleotide character: " + inChar);
             }
+            shiftBaseRight(c);
+        }
+
+        /**
+         * shiftRight for a base already encoded, not validated
+         */
+        protected void shiftBaseRight(byte c) {
             fwdHashValue = hasher.updateRight(fwdHashValue, kmer[kmerLeftIdx], c);
             kmer[kmerLeftIdx] = c;
             if (++kmerLeftIdx >= kmerSize) {
@@ -379,8 +1166,25 @@ public class BloomFilter implements Serializable {
         private long numStr = 0;
         private long numkmer = 0;
         private long numUniqueKmer = 0;
+        /*
+         * the filter's string and kmer counts not yet added to the filter
+         */
+        private final boolean deferStats;
+        private long pendingStrings = 0;
+        private long pendingKmers = 0;
+        private long pendingUniqueKmers = 0;
 
         public GraphBuilder() {
+            this(false);
+        }
+
+        /**
+         * @param deferStats if true, the filter's string and kmer counts are
+         * only updated by mergeStats, so builders in different threads don't
+         * race on them
+         */
+        public GraphBuilder(boolean deferStats) {
+            this.deferStats = deferStats;
         }
 
         /**
@@ -402,7 +1206,7 @@ public class BloomFilter implements Serializable {
          */
         public void addString(char[] seqStr) {
             numStr++;
-            BloomFilter.this.totalStrings++;
+            pendingStrings++;
 
             int i = 0;
             while (i < seqStr.length) {
@@ -428,16 +1232,92 @@ public class BloomFilter implements Serializable {
                         ++i;
                         wasSet = setCurrent();
                         numkmer++;
-                        BloomFilter.this.totalKmers++;
+                        pendingKmers++;
 
                         numUniqueKmer += wasSet ? 1 : 0;
-                        BloomFilter.this.uniqueKmers += wasSet ? 1 : 0;
+                        pendingUniqueKmers += wasSet ? 1 : 0;
                     }
 
                 } catch (InvalidDNABaseException e) {
                     ++i;
                 }
             } // end while
+
+            if (!deferStats) {
+                mergeStats();
+            }
+        }
+
+        /**
+         * Same as addString for a sequence already 2-bit encoded as in
+         * NuclBinMapping, see EncodedSeqReader. Bases aren't validated, any
+         * negative value is taken as a non nucleotide character and the kmers
+         * spanning it are skipped.
+         *
+         * @param bases encoded sequence
+         * @param off   index of the first base
+         * @param len   number of bases
+         * @return true if any of the sequence's kmers wasn't in the filter
+         * before, a sequence that returns false can't have a kmer seen only
+         * once
+         */
+        public boolean addEncoded(byte[] bases, int off, int len) {
+            numStr++;
+            pendingStrings++;
+            long startUnique = numUniqueKmer;
+
+            int end = off + len;
+            int i = off;
+            while (i < end) {
+                clearState();
+                int j = 0;
+                while (j < kmerSize && i < end && bases[i] >= 0) {
+                    loadBaseRight(bases[i]);
+                    ++i;
+                    ++j;
+                }
+                if (j < kmerSize) {
+                    // skip the invalid base and start a new kmer after it
+                    ++i;
+                    continue;
+                }
+
+                boolean wasSet = setCurrent();
+                numkmer++;
+                numUniqueKmer += wasSet ? 1 : 0;
+
+                while (i < end && bases[i] >= 0) {
+                    shiftBaseRight(bases[i]);
+                    ++i;
+                    wasSet = setCurrent();
+                    numkmer++;
+                    pendingKmers++;
+
+                    numUniqueKmer += wasSet ? 1 : 0;
+                    pendingUniqueKmers += wasSet ? 1 : 0;
+                }
+                ++i;
+            }
+
+            if (!deferStats) {
+                mergeStats();
+            }
+            return numUniqueKmer != startUnique;
+        }
+
+        /**
+         * Adds the string and kmer counts collected since the last call to
+         * the filter's totals
+         */
+        public void mergeStats() {
+            synchronized (BloomFilter.this) {
+                BloomFilter.this.totalStrings += pendingStrings;
+                BloomFilter.this.totalKmers += pendingKmers;
+                BloomFilter.this.uniqueKmers += pendingUniqueKmers;
+            }
+            pendingStrings = 0;
+            pendingKmers = 0;
+            pendingUniqueKmers = 0;
         }
 
         /**
@@ -462,9 +1342,34 @@ public class BloomFilter implements Serializable {
      */
     public class GraphMercyKmer extends BloomFilter.GraphState {
 
+        /*
+         * the filter's mercy and singleton kmer counts not yet added to the
+         * filter, see GraphBuilder
+         */
+        private final boolean deferStats;
+        private long pendingMercyKmers = 0;
+        private long pendingSingletonKmers = 0;
+        /*
+         * state at the start of the current run of singleton kmers, reused
+         * for every run
+         */
+        private GraphMercyKmer startGraphState;
+
         public GraphMercyKmer() {
-            if (BloomFilter.this.singltonKmers == -1) {
-                BloomFilter.this.singltonKmers = 0;
+            this(false);
+        }
+
+        /**
+         * @param deferStats if true, the filter's mercy and singleton kmer
+         * counts are only updated by mergeStats, so checkers in different
+         * threads don't race on them
+         */
+        public GraphMercyKmer(boolean deferStats) {
+            this.deferStats = deferStats;
+            synchronized (BloomFilter.this) {
+                if (BloomFilter.this.singltonKmers == -1) {
+                    BloomFilter.this.singltonKmers = 0;
+                }
             }
         }
 
@@ -484,34 +1389,46 @@ public class BloomFilter implements Serializable {
          */
         public GraphMercyKmer copy(){
             GraphMercyKmer ret = new GraphMercyKmer();
-            ret.rcHashValue = this.rcHashValue;
-            ret.fwdHashValue = this.fwdHashValue;
-            ret.kmerLeftIdx = this.kmerLeftIdx;
-            ret.rkmerLeftIdx = this.rkmerLeftIdx;
-            for ( int i = 0 ; i < ret.kmer.length; i++){
-                ret.kmer[i] = this.kmer[i];
-            }
-            for ( int i = 0 ; i < ret.rkmer.length; i++){
-                ret.rkmer[i] = this.rkmer[i];
-            }
+            ret.copyFrom(this);
             return ret;
         }
-        
+
+        /**
+         * Sets this state to a copy of other's
+         */
+        public void copyFrom(GraphMercyKmer other) {
+            this.rcHashValue = other.rcHashValue;
+            this.fwdHashValue = other.fwdHashValue;
+            this.kmerLeftIdx = other.kmerLeftIdx;
+            this.rkmerLeftIdx = other.rkmerLeftIdx;
+            System.arraycopy(other.kmer, 0, this.kmer, 0, kmer.length);
+            System.arraycopy(other.rkmer, 0, this.rkmer, 0, rkmer.length);
+        }
+
         /**
          * Identify mercy-kmers, pattern like 222X111111Y22233322
          * vertex X does not have any outgoing vertex with count >=2, 
          * vertex Y does not have any incoming vertex with count >=2, 
          * then promote the singlton kmers to mercy-kmers, change the counts to 2
          *
+         * Nothing is allocated per sequence, the singleton siblings are kept
+         * as a bit per base and the state at the start of a run is copied in
+         * to a state kept for the purpose. Counts are incremented with
+         * addNode, so checkers in several threads can promote kmers of the
+         * same filter once it's set concurrent.
+         *
          * @param seqStr
          */
         public void checkMercyKmer(char[] seqStr) {
+            if (startGraphState == null) {
+                startGraphState = new GraphMercyKmer(true);
+            }
+
             int i = 0;
             while (i < seqStr.length) {
                 // beginning at the end of the starting kmer, advance along the sequence string
                 int singletonStart = -1; // the start position of the first one in the continuous kmers with count 1
                 int singletonEnd = -1; // the start position of the last one in the continuous kmers with count 1
-                GraphMercyKmer startGraphState = null; //
                 try {
                     clearState();
                     int j;
@@ -527,10 +1444,10 @@ public class BloomFilter implements Serializable {
                     while (i <= seqStr.length) {                        
                         int count = getMinCurrentCount();
                         if ( count == 1){
-                            BloomFilter.this.singltonKmers++;
+                            pendingSingletonKmers++;
                             if ( singletonStart == -1){
                                 singletonStart = i - kmerSize -1;
-                                startGraphState = this.copy();
+                                startGraphState.copyFrom(this);
                             }
                             if ( singletonEnd < i ){
                                 singletonEnd = i - kmerSize ;
@@ -538,16 +1455,14 @@ public class BloomFilter implements Serializable {
                         }else {
                             // if the previous stretch of singleton kmers exists, check if there are mercy kmers 
                             // we are looking for a pattern, with none-1's, the 1's, then none-1's, ex: 22221111112222
-                            //System.out.println("singletonStart " + singletonStart + " singletonEnd " + singletonEnd + " seqlength " + seqStr.length);
 
                             if ( singletonStart > 0 && (singletonEnd + kmerSize) <= (seqStr.length-1)){
                                 int startMaxCount = 0;   
                                 int endMaxCount = 0;   
                                 // find out the count of other three sibling kmers of the start singleton kmer
-                                // keep track of the singleton sibling kmers.
+                                // keep track of the singleton sibling kmers, bit c set for NuclBinMapping.intToChar[c]
                                 // note this change the start raphState
-                                ArrayList <Character> singletonStartSibKmers = new ArrayList<Character>();
-                                ArrayList <Character> singletonEndSibKmers ;
+                                int singletonStartSibKmers = 0;
                                 char curChar = Character.toLowerCase(seqStr[singletonStart+kmerSize]);
                                 for ( int c = 0; c < NuclBinMapping.intToChar.length; c++ ){
                                     char newchar = NuclBinMapping.intToChar[c];
@@ -556,19 +1471,17 @@ public class BloomFilter implements Serializable {
 
                                         startGraphState.shiftRight(newchar);
                                         int temp_count = startGraphState.getMinCurrentCount();    
-                                       // System.err.println(i + " newchar " + newchar + " temp_count " + temp_count + " curChar " + curChar );
                                         if ( temp_count > startMaxCount){
                                             startMaxCount = temp_count;
                                         }
                                         if ( temp_count == 1){
-                                            singletonStartSibKmers.add(newchar);
+                                            singletonStartSibKmers |= 1 << c;
                                         }
                                     }
                                 }
 
                                 // find the endMaxCount, note this loop uses the current graphstate but restores to the status when it ends
                                if ( startMaxCount == 0 || startMaxCount == 1 ){ 
-                                   singletonEndSibKmers = new ArrayList<Character>();
                                    curChar = Character.toLowerCase(seqStr[singletonEnd]);
                                     for ( int c = 0; c < NuclBinMapping.intToChar.length; c++ ){
                                         char newchar = NuclBinMapping.intToChar[c];
@@ -578,9 +1491,6 @@ public class BloomFilter implements Serializable {
                                             int temp_count = this.getMinCurrentCount();    
                                             if ( temp_count > endMaxCount){
                                                 endMaxCount = temp_count;
-                                            }
-                                            if ( temp_count == 1){
-                                                singletonEndSibKmers.add(newchar);
                                             }
                                              this.shiftRight(seqStr[i-1]);
                                         }
@@ -588,42 +1498,43 @@ public class BloomFilter implements Serializable {
                                }
                                 // if both maxCounts are less than 2, this means we didn't find more abundant path, promote all these kmers to be mercy-kmers
                                 // basically increment the counts to 2
-                              // System.err.println("startMaxCount " + startMaxCount + " endMaxCount " + endMaxCount);
                                 if ( (startMaxCount == 0 || startMaxCount == 1) && (endMaxCount == 0 || endMaxCount == 1)){
                                     //  promote the singleton sibling kmers of the singletonStartKmer to mercy-kmers
-                                    for ( char c: singletonStartSibKmers ){
-                                        startGraphState.shiftLeft(seqStr[singletonStart]);
-                                        startGraphState.shiftRight(c);
-                                        startGraphState.setCurrent();
-                                        BloomFilter.this.numMercyKmers++;
-                                        BloomFilter.this.singltonKmers++;
+                                    for ( int c = 0; c < NuclBinMapping.intToChar.length; c++ ){
+                                        if ((singletonStartSibKmers & (1 << c)) != 0) {
+                                            startGraphState.shiftLeft(seqStr[singletonStart]);
+                                            startGraphState.shiftRight(NuclBinMapping.intToChar[c]);
+                                            startGraphState.setCurrent();
+                                            pendingMercyKmers++;
+                                            pendingSingletonKmers++;
+                                        }
                                     }
                                     // promte the singleton kmers from the current read
                                     startGraphState.shiftLeft(seqStr[singletonStart-1]);
                                     startGraphState.shiftRight(seqStr[singletonStart+kmerSize]);
                                     startGraphState.setCurrent();
-                                    //System.err.println( " promote this reads " + seqStr[singletonStart+kmerSize] + " temp_count " + startGraphState.getMinCurrentCount());
 
                                     for ( int m = singletonStart  +1; m <singletonEnd; m++ ){
                                         startGraphState.shiftRight(seqStr[m+kmerSize]);
                                         startGraphState.setCurrent();
-                                        BloomFilter.this.numMercyKmers++;
+                                        pendingMercyKmers++;
                                     }
                                     
                                     //  promote the singleton sibling kmers of the singletonEndKmer to mercy-kmers
-                                    for ( char c: singletonStartSibKmers ){
-                                        this.shiftLeft(c);
-                                        this.setCurrent();
-                                        BloomFilter.this.numMercyKmers++;
-                                        BloomFilter.this.singltonKmers++;
-                                        this.shiftRight(seqStr[i-1]);
+                                    for ( int c = 0; c < NuclBinMapping.intToChar.length; c++ ){
+                                        if ((singletonStartSibKmers & (1 << c)) != 0) {
+                                            this.shiftLeft(NuclBinMapping.intToChar[c]);
+                                            this.setCurrent();
+                                            pendingMercyKmers++;
+                                            pendingSingletonKmers++;
+                                            this.shiftRight(seqStr[i-1]);
+                                        }
                                     }                                    
                                 }
                               
                                 // reset values
                                 singletonStart = -1;
                                 singletonEnd = -1; 
-                                startGraphState = null;
                             }
                             
                         }
@@ -637,8 +1548,24 @@ public class BloomFilter implements Serializable {
                     ++i;
                 }
             } // end while
+
+            if (!deferStats) {
+                mergeStats();
+            }
         }
 
+        /**
+         * Adds the mercy and singleton kmer counts collected since the last
+         * call to the filter's totals
+         */
+        public void mergeStats() {
+            synchronized (BloomFilter.this) {
+                BloomFilter.this.numMercyKmers += pendingMercyKmers;
+                BloomFilter.this.singltonKmers += pendingSingletonKmers;
+            }
+            pendingMercyKmers = 0;
+            pendingSingletonKmers = 0;
+        }
     }
     
     /**
@@ -660,6 +1587,18 @@ public class BloomFilter implements Serializable {
          */
         protected PathHolder path = new PathHolder();
         protected int pathPtr = -1;
+        /*
+         * Scratch space for expand, the prefixes surviving so far and the
+         * batch of kmers one base on from them
+         */
+        private final long[] prefixFwd = new long[NextEmissions.MAX_EMISSIONS];
+        private final long[] prefixRc = new long[NextEmissions.MAX_EMISSIONS];
+        private final int[] prefixEmitted = new int[NextEmissions.MAX_EMISSIONS];
+        private final long[] batchFwd = new long[NextEmissions.MAX_EMISSIONS];
+        private final long[] batchRc = new long[NextEmissions.MAX_EMISSIONS];
+        private final int[] batchEmitted = new int[NextEmissions.MAX_EMISSIONS];
+        private final int[] batchFound = new int[NextEmissions.MAX_EMISSIONS];
+        private long lookups = 0;
 
         public CodonFacade(String s) {
             this(s.toCharArray());
@@ -697,6 +1636,20 @@ public class BloomFilter implements Serializable {
             }
         }
 
+        public final void jumpTo(long[] kmerWords, int offset, long fwdHash, long rcHash) {
+            fwdHashValue = fwdHash;
+            rcHashValue = rcHash;
+            framePtr = kmerSize - 1;
+            pathPtr = kmerSize - 1;
+            path.init(kmerWords, offset, kmerSize);
+
+            if (!hasCurrent()) {
+                long[] packed = new long[(kmerSize + 31) / 32];
+                System.arraycopy(kmerWords, offset, packed, 0, packed.length);
+                throw new IllegalArgumentException("kmer not in bloomfilter: " + new NuclKmer(packed, kmerSize));
+            }
+        }
+
         protected abstract void initialize(char[] s);
 
         /**
@@ -709,9 +1662,14 @@ public class BloomFilter implements Serializable {
             long xHash = (fwdHashValue > rcHashValue) ? fwdHashValue : rcHashValue;
             long yHash = (fwdHashValue > rcHashValue) ? rcHashValue : fwdHashValue;
 
+            lookups++;
             return BloomFilter.this.hasNode(xHash, yHash);
         }
 
+        public long getLookups() {
+            return lookups;
+        }
+
         protected final void reset(Kmer kmer, long fwdHash, long rcHash) {
             fwdHashValue = fwdHash;
             rcHashValue = rcHash;
@@ -727,6 +1685,19 @@ public class BloomFilter implements Serializable {
 
         protected abstract void replaceHash(byte out, byte in);
 
+        /**
+         * @return fwdHash after walking one base, the same change
+         * updateHashForward makes to fwdHashValue
+         */
+        protected abstract long nextFwdHash(long fwdHash, byte out, byte in);
+
+        protected abstract long nextRcHash(long rcHash, byte out, byte in);
+
+        /**
+         * @return amino acid for a codon packed in walk order
+         */
+        protected abstract char translate(int codon);
+
         /**
          * Returns amino acid for next codon, if one exists. Updates state to
          * new codon. If none exists, does not change state.
@@ -808,6 +1779,59 @@ public class BloomFilter implements Serializable {
             return (pathPtr >= kmerSize);
         }
 
+        public int getNextCodons(NextEmissions out) {
+            expand(out, 3);
+            return out.size();
+        }
+
+        public int getNextNucls(NextEmissions out) {
+            expand(out, 1);
+            return out.size();
+        }
+
+        /**
+         * Finds the emissions of the given length following the current
+         * kmer, the same walk as probe and replace a base at a time, but all
+         * the kmers one base on from the surviving prefixes are looked up in
+         * one hasNodes batch. Each prefix is hashed once from its parent's
+         * hash values and the walker's state isn't touched.
+         */
+        private void expand(NextEmissions out, int bases) {
+            out.clear();
+            prefixFwd[0] = fwdHashValue;
+            prefixRc[0] = rcHashValue;
+            prefixEmitted[0] = 0;
+            int prefixes = 1;
+
+            for (int depth = 0; depth < bases && prefixes > 0; depth++) {
+                byte leftChar = path.get(pathPtr + depth + 1 - kmerSize);
+                int n = 0;
+                for (int p = 0; p < prefixes; p++) {
+                    byte c = startChar;
+                    do {
+                        batchFwd[n] = nextFwdHash(prefixFwd[p], leftChar, c);
+                        batchRc[n] = nextRcHash(prefixRc[p], leftChar, c);
+                        batchEmitted[n] = (prefixEmitted[p] << 2) | c;
+                        n++;
+                        c = next[c];
+                    } while (c != 0);
+                }
+
+                lookups += n;
+                prefixes = BloomFilter.this.hasNodes(batchFwd, batchRc, n, batchFound);
+                for (int p = 0; p < prefixes; p++) {
+                    int index = batchFound[p];
+                    prefixFwd[p] = batchFwd[index];
+                    prefixRc[p] = batchRc[index];
+                    prefixEmitted[p] = batchEmitted[index];
+                }
+            }
+
+            for (int p = 0; p < prefixes; p++) {
+                out.add(prefixEmitted[p], (bases == 3) ? translate(prefixEmitted[p]) : 0, prefixFwd[p], prefixRc[p]);
+            }
+        }
+
         /**
          * attempts to find a vertex with right-most character replaced, in
          * order defined in next[] if found, set state to that vertex and
@@ -947,6 +1971,18 @@ public class BloomFilter implements Serializable {
             rcHashValue = hasher.updateRight(rcHashValue, NuclBinMapping.complementLookup[out], NuclBinMapping.complementLookup[in]);
         }
 
+        protected long nextFwdHash(long fwdHash, byte out, byte in) {
+            return hasher.updateRight(fwdHash, out, in);
+        }
+
+        protected long nextRcHash(long rcHash, byte out, byte in) {
+            return hasher.updateLeft(rcHash, NuclBinMapping.complementLookup[out], NuclBinMapping.complementLookup[in]);
+        }
+
+        protected char translate(int codon) {
+            return NextCodon.translate(true, codon);
+        }
+
         public NextCodon getNextCodon() {
             if (!finishCodon()) {
                 return null;
@@ -1011,6 +2047,18 @@ public class BloomFilter implements Serializable {
             rcHashValue = hasher.updateLeft(rcHashValue, NuclBinMapping.complementLookup[out], NuclBinMapping.complementLookup[in]);
         }
 
+        protected long nextFwdHash(long fwdHash, byte out, byte in) {
+            return hasher.updateLeft(fwdHash, out, in);
+        }
+
+        protected long nextRcHash(long rcHash, byte out, byte in) {
+            return hasher.updateRight(rcHash, NuclBinMapping.complementLookup[out], NuclBinMapping.complementLookup[in]);
+        }
+
+        protected char translate(int codon) {
+            return NextCodon.translate(false, codon);
+        }
+
         public NextCodon getNextCodon() {
             if (!finishCodon()) {
                 return null;
@@ -26,6 +26,11 @@ public interface CodonWalker {
 
     public void jumpTo(char[] s);
     public void jumpTo(Kmer kmer, long fwdHash, long rcHash);
+    /**
+     * Same as jumpTo(Kmer, long, long) for a kmer packed as Kmer.getPart
+     * starting at kmerWords[offset]
+     */
+    public void jumpTo(long[] kmerWords, int offset, long fwdHash, long rcHash);
 
     public NextCodon getNextCodon();
     /**
@@ -38,10 +43,25 @@ public interface CodonWalker {
     public NextCodon getSibCodon();
     public boolean hasMoreCodons();
 
+    /**
+     * Finds every codon that follows the current kmer in one call, in the
+     * order getNextCodon and getSibCodon would return them. Doesn't move the
+     * walker.
+     *
+     * @param out   receives the codons and the hashes of the kmers they lead to
+     * @return the number of codons found
+     */
+    public int getNextCodons(NextEmissions out);
+
     public Byte getNextNucl();
     public Byte getSibNucl();
     public boolean hasMoreNucl();
 
+    /**
+     * Same as getNextCodons for single bases
+     */
+    public int getNextNucls(NextEmissions out);
+
     public long getFwdHash();
     public long getRcHash();
 
@@ -53,5 +73,11 @@ public interface CodonWalker {
     public String getPathString();
 
     public int getLength();
+
+    /**
+     * @return the number of kmers this walker has looked up in the bloom
+     * filter
+     */
+    public long getLookups();
 }
 
@@ -20,11 +20,31 @@ package edu.msu.cme.rdp.graph.filter;
 import java.util.BitSet;
 import java.util.List;
 import java.util.ArrayList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * A class similar to a BitSet that allows multiple bits per bucket
  * 
+ * The buckets are stored as 64 bit words, one LongBuffer of words per bitset,
+ * so the same code works on heap arrays and on bitsets memory-mapped from a
+ * bloom filter file (see BloomFilter.writeTo). Words are little endian on disk.
+ * 
+ * The counter bits of a bucket sit next to each other in the same word: each
+ * bucket takes a slot of numBits rounded up to a power of two, so incrementing,
+ * testing or reading a counter touches one word. This is also what lets
+ * several threads increment counters with a compare-and-set on the word (see
+ * setConcurrent).
+ * 
  * @author gilmanma
  * 
  */
@@ -40,58 +60,276 @@ public class MultiBitArray implements Serializable {
      */
     private static final int MAX_BITSET_SIZE_LOG2 = 30;
 
+    /**
+     * Largest number of bits per bucket, a slot has to fit in a word
+     */
+    private static final int MAX_NUM_BITS = 32;
+
+    /**
+     * Largest region mapped with a single call to FileChannel.map
+     */
+    private static final long MAX_MAP_SIZE = 1L << 30;
+
+    /**
+     * Size of the direct buffer used to copy words to a file
+     */
+    private static final int WRITE_BUFFER_SIZE = 1 << 23;
+
     public static final long serialVersionUID = -1919209030378954154L;
+
+    /**
+     * The serialized form is still the original List<BitSet> (one BitSet per
+     * counter bit) so .ser files written before the switch to word buffers
+     * can be read, and vice versa
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("bitSetSize", int.class),
+        new ObjectStreamField("bitSetMask", long.class),
+        new ObjectStreamField("bitSetSizeLog2", int.class),
+        new ObjectStreamField("bitSetList", List.class),
+        new ObjectStreamField("numBits", int.class)
+    };
+
     /**
      * Size of an individual BitSet
      */
-    private final int bitSetSize;
-    private final long bitSetMask;
-    private final int bitSetSizeLog2;
+    private int bitSetSize;
+    private long bitSetMask;
+    private int bitSetSizeLog2;
+
+    /**
+     * Number of longs backing one BitSet
+     */
+    private int wordsPerSet;
+
+    private LongBuffer[] bitSets;
+
+    /**
+     * Words of the bitsets while concurrent updates are enabled, null
+     * otherwise
+     */
+    private transient AtomicLongArray[] atomicSets;
+
+    /**
+     * Regions of the file the bitsets are mapped from, null if they're on the
+     * heap
+     */
+    private transient MappedByteBuffer[] regions;
 
-    private List<BitSet> bitSetList;
+    /**
+     * While tracking, the change in checksum() caused by setBit
+     */
+    private transient boolean trackChecksum;
+    private transient long checksumDelta;
 
     /**
      * Number of bits per bucket
      */
     private int numBits;
 
+    /**
+     * Log2 of the bits reserved for a bucket (numBits rounded up to a power
+     * of two), and the mask of the counter within its slot
+     */
+    private int slotSizeLog2;
+    private long countMask;
+
     public MultiBitArray(int hashSizeLog2, int bitSetSizeLog2) {
         this(hashSizeLog2, bitSetSizeLog2, 1);
     }
 
     public MultiBitArray(int hashSizeLog2, int bitSetSizeLog2, int numBits) {
+        this(hashSizeLog2, bitSetSizeLog2, numBits, true);
+    }
+
+    private MultiBitArray(int hashSizeLog2, int bitSetSizeLog2, int numBits, boolean allocate) {
         if(bitSetSizeLog2 > MAX_BITSET_SIZE_LOG2) {
             throw new IllegalArgumentException("Can't have bitset larger than 2^" + MAX_BITSET_SIZE_LOG2);
         }
         if(hashSizeLog2 > MAX_HASH_SIZE_LOG2) {
             throw new IllegalArgumentException("Can't have filter larger than 2^" + MAX_HASH_SIZE_LOG2);
         }
+        if(numBits < 1 || numBits > MAX_NUM_BITS) {
+            throw new IllegalArgumentException("Bits per bucket must be between 1 and " + MAX_NUM_BITS);
+        }
 
         this.bitSetSizeLog2 = bitSetSizeLog2;
-        this.numBits = numBits;
-
         this.bitSetSize = (1 << this.bitSetSizeLog2);
         this.bitSetMask = this.bitSetSize - 1;
+        setNumBits(numBits);
 
         int bitSetCount = 1;
         if(hashSizeLog2 > bitSetSizeLog2) {
             bitSetCount = (1 << (hashSizeLog2-bitSetSizeLog2));
         }
-        bitSetCount *= numBits;
 
-        bitSetList = new ArrayList<BitSet>(bitSetCount);
-        for(int i = 0; i < bitSetCount; i++) {
-            bitSetList.add(i, new BitSet(bitSetSize));
+        bitSets = new LongBuffer[bitSetCount];
+        if (allocate) {
+            for(int i = 0; i < bitSetCount; i++) {
+                bitSets[i] = LongBuffer.wrap(new long[wordsPerSet]);
+            }
+        }
+    }
+
+    private void setNumBits(int numBits) {
+        this.numBits = numBits;
+        this.slotSizeLog2 = 0;
+        while ((1 << slotSizeLog2) < numBits) {
+            slotSizeLog2++;
+        }
+        this.countMask = (1L << numBits) - 1;
+        this.wordsPerSet = Math.max(1, (int) (((long) bitSetSize << slotSizeLog2) >>> 6));
+    }
+
+    /**
+     * Maps the bitsets of an array previously written with writeTo, the words
+     * stay in the page cache and are shared by every process mapping the file
+     *
+     * @param channel   file containing the words
+     * @param position  file offset of the first word
+     * @param mode      READ_ONLY for searching, PRIVATE to modify a copy,
+     *                  READ_WRITE to modify the file in place
+     * @return          MultiBitArray backed by the mapped file
+     * @throws IOException if the file is too short
+     */
+    public static MultiBitArray map(FileChannel channel, long position, int hashSizeLog2, int bitSetSizeLog2, int numBits, FileChannel.MapMode mode) throws IOException {
+        MultiBitArray ret = new MultiBitArray(hashSizeLog2, bitSetSizeLog2, numBits, false);
+
+        long bytesPerSet = (long) ret.wordsPerSet * 8;
+        if (channel.size() < position + bytesPerSet * ret.bitSets.length) {
+            throw new IOException("Bloom filter file is truncated, expected " + (position + bytesPerSet * ret.bitSets.length) + " bytes but found " + channel.size());
+        }
+        int setsPerMap = (int) Math.max(1, MAX_MAP_SIZE / bytesPerSet);
+        ret.regions = new MappedByteBuffer[(ret.bitSets.length + setsPerMap - 1) / setsPerMap];
+
+        for (int i = 0; i < ret.bitSets.length; i += setsPerMap) {
+            int sets = Math.min(setsPerMap, ret.bitSets.length - i);
+            MappedByteBuffer region = channel.map(mode, position + i * bytesPerSet, sets * bytesPerSet);
+            ret.regions[i / setsPerMap] = region;
+
+            for (int j = 0; j < sets; j++) {
+                region.limit((int) ((j + 1) * bytesPerSet));
+                region.position((int) (j * bytesPerSet));
+                ret.bitSets[i + j] = region.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Writes every word, little endian, in bitset order starting at the
+     * current position of the channel
+     *
+     * @param channel   channel to write to
+     * @return          checksum of the words, see checksum()
+     * @throws IOException
+     */
+    public long writeTo(FileChannel channel) throws IOException {
+        checkNotConcurrent();
+        ByteBuffer buf = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        LongBuffer longView = buf.asLongBuffer();
+        long checksum = 0;
+        long index = 0;
+
+        for (LongBuffer bitSet : bitSets) {
+            int word = 0;
+            while (word < wordsPerSet) {
+                int count = Math.min(wordsPerSet - word, longView.capacity());
+                longView.clear();
+                for (int i = 0; i < count; i++) {
+                    long val = bitSet.get(word + i);
+                    checksum += mixWord(val, index++);
+                    longView.put(val);
+                }
+                buf.clear();
+                buf.limit(count * 8);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                word += count;
+            }
+        }
+        return nonZero(checksum);
+    }
+
+    /**
+     * @return a checksum of every word, 0 is never returned so it can stand
+     * for a checksum that hasn't been computed
+     */
+    public long checksum() {
+        checkNotConcurrent();
+        long checksum = 0;
+        long index = 0;
+        for (LongBuffer bitSet : bitSets) {
+            for (int w = 0; w < wordsPerSet; w++) {
+                checksum += mixWord(bitSet.get(w), index++);
+            }
+        }
+        return nonZero(checksum);
+    }
+
+    /**
+     * The checksum is a sum of a hash of each word and its index, so a change
+     * to one word changes it by the difference in that word's hash and it can
+     * be kept up to date without reading the other words
+     */
+    private static long mixWord(long word, long index) {
+        long h = word ^ (index * 0x9e3779b97f4a7c15L);
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    static long nonZero(long checksum) {
+        return (checksum == 0) ? 1 : checksum;
+    }
+
+    /**
+     * Starts keeping track of how setBit changes checksum(), see
+     * getChecksumDelta. Only setBit is tracked, so the array can't be set
+     * concurrent or collapsed while tracking.
+     */
+    public void trackChecksum() {
+        checkNotConcurrent();
+        trackChecksum = true;
+        checksumDelta = 0;
+    }
+
+    /**
+     * @return the amount setBit has added to the sum behind checksum() since
+     * trackChecksum was called
+     */
+    public long getChecksumDelta() {
+        return checksumDelta;
+    }
+
+    /**
+     * Writes changes to mapped bitsets through to the file, does nothing for
+     * heap bitsets
+     */
+    public void force() {
+        if (regions != null) {
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
         }
     }
 
+    /**
+     * @return number of bytes written by writeTo
+     */
+    public long getSizeInBytes() {
+        return (long) bitSets.length * wordsPerSet * 8;
+    }
+
     /** 
      * @param bit   bit for which to find the offset of
      * 
-     * @return position of bit within the BitSet
+     * @return position of the bucket's first counter bit within the BitSet
      */
-    protected int getOffset(long bit) {
-        return (int) (bit & bitSetMask);
+    protected long getOffset(long bit) {
+        return (bit & bitSetMask) << slotSizeLog2;
     }
 
     /**
@@ -100,81 +338,74 @@ public class MultiBitArray implements Serializable {
      * @return number of BitSet that contains the bit
      */
     protected int getSetNum(long bit) {             
-        return (int) (bit >>> bitSetSizeLog2) * numBits;
+        return (int) (bit >>> bitSetSizeLog2);
     }
 
     
      /**
-     * Increments count at given position
+     * Increments count at given position, the count stays at its maximum once
+     * reached
      * 
      * @param bit   which bit to increment
-     * @return      whether the bit was previously set
+     * @return      true if the count was zero before incrementing
      */
     public boolean setBit(long bit) {
-        int bitSetOffset = getOffset(bit);
-        int bitSetNum = getSetNum(bit);
-        boolean wasSet = false;
-        
-        //  we can speed up count 1 and 2 more than 40% compared to the for loop below
-       if ( numBits == 1){ 
-            boolean val = bitSetList.get(bitSetNum ).get(bitSetOffset);
-            wasSet |= val;
-            bitSetList.get(bitSetNum).set(bitSetOffset, true);
-        }else if (numBits == 2){ //this is faster than the for loop below 
-            boolean val = bitSetList.get(bitSetNum ).get(bitSetOffset);
-            wasSet |= val;
-            if ( !val){
-                bitSetList.get(bitSetNum).set(bitSetOffset, true);
-            }else{                
-                val = bitSetList.get(bitSetNum +1 ).get(bitSetOffset);
-                wasSet |= val;
-                if ( !val ){
-                    bitSetList.get(bitSetNum).set(bitSetOffset, false);
-                    bitSetList.get(bitSetNum+1).set(bitSetOffset, true);
-                }
-            }
-        }else { // this loop works for all the counts but slow
-        // if the count already reached the max, don't do anything
-            boolean isBitSet = true;
-            for(int i = 0; i < numBits; ++i) {
-                isBitSet &= bitSetList.get(bitSetNum + i).get(bitSetOffset);
-                if ( !isBitSet){
-                    break;
-                }
-            }
-            if ( isBitSet){
-                 return wasSet;
-            }
-
-        // carry = whether the previous bit rolled over into this one
-            // for first bit, this is just adding one to it
-            boolean carry = true;
+        if (atomicSets != null) {
+            return setBitConcurrent(bit);
+        }
+        LongBuffer bitSet = bitSets[getSetNum(bit)];
+        long offset = getOffset(bit);
+        int wordIdx = (int) (offset >>> 6);
+        long word = bitSet.get(wordIdx);
+        long count = (word >>> offset) & countMask;
 
-            for(int i = 0; i < numBits; ++i) {
-                boolean val = bitSetList.get(bitSetNum + i).get(bitSetOffset);
-                wasSet |= val;
-                bitSetList.get(bitSetNum + i).set(bitSetOffset, (val ^ carry));
-                carry &= val;
+        if (count != countMask) {
+            // the counter can't overflow its slot, so adding at its offset is an increment
+            long newWord = word + (1L << offset);
+            bitSet.put(wordIdx, newWord);
+            if (trackChecksum) {
+                long index = (long) getSetNum(bit) * wordsPerSet + wordIdx;
+                checksumDelta += mixWord(newWord, index) - mixWord(word, index);
             }
         }
-        return !wasSet;
+        return count == 0;
     }
     
     
+    /**
+     * setBit for concurrent mode, the word is replaced with compareAndSet and
+     * retried if another thread changed it in between
+     */
+    private boolean setBitConcurrent(long bit) {
+        AtomicLongArray bitSet = atomicSets[getSetNum(bit)];
+        long offset = getOffset(bit);
+        int wordIdx = (int) (offset >>> 6);
+
+        while (true) {
+            long word = bitSet.get(wordIdx);
+            long count = (word >>> offset) & countMask;
+
+            if (count == countMask) {
+                return false;
+            }
+            if (bitSet.compareAndSet(wordIdx, word, word + (1L << offset))) {
+                return count == 0;
+            }
+        }
+    }
+
+    private long getWord(int setNum, int wordIdx) {
+        return (atomicSets == null) ? bitSets[setNum].get(wordIdx) : atomicSets[setNum].get(wordIdx);
+    }
+
     /**
      * 
      * @param bit   which bit to check
      * @return      whether the bit is set
      */
     public boolean isSet(long bit) {
-        int bitSetOffset = getOffset(bit);
-        int bitSetNum = getSetNum(bit);
-        
-        boolean isSet = false;
-        for(int i = 0; i < numBits; ++i) {
-            isSet |= bitSetList.get(bitSetNum + i).get(bitSetOffset);
-        }
-        return isSet;
+        long offset = getOffset(bit);
+        return (getWord(getSetNum(bit), (int) (offset >>> 6)) & (countMask << offset)) != 0;
     }
 
     /**
@@ -182,42 +413,257 @@ public class MultiBitArray implements Serializable {
      * @return      count at the given bit
      */
     public int getCount(long bit) {
-        int bitSetOffset = getOffset(bit);
-        int bitSetNum = getSetNum(bit);
+        long offset = getOffset(bit);
+        return (int) ((getWord(getSetNum(bit), (int) (offset >>> 6)) >>> offset) & countMask);
+    }
+
+    /**
+     * Turns concurrent updates on or off. While on, the words are held in
+     * AtomicLongArrays and setBit increments counters with compareAndSet, so
+     * any number of threads can add to the array at once. Turning it off
+     * copies the words back into the bitsets; the caller has to make sure no
+     * thread is still updating (e.g. by joining the workers first).
+     *
+     * Heap bitsets are released while concurrent so the array is never held
+     * twice, mapped ones are written back in place.
+     *
+     * @param concurrent    whether setBit may be called from several threads
+     */
+    public void setConcurrent(boolean concurrent) {
+        if (concurrent == (atomicSets != null)) {
+            return;
+        }
+
+        if (concurrent) {
+            checkNotTracking();
+            AtomicLongArray[] sets = new AtomicLongArray[bitSets.length];
+            for (int i = 0; i < bitSets.length; i++) {
+                sets[i] = new AtomicLongArray(wordsPerSet);
+                for (int w = 0; w < wordsPerSet; w++) {
+                    sets[i].set(w, bitSets[i].get(w));
+                }
+                if (bitSets[i].hasArray()) {
+                    bitSets[i] = null;
+                }
+            }
+            atomicSets = sets;
+        } else {
+            for (int i = 0; i < bitSets.length; i++) {
+                if (bitSets[i] == null) {
+                    bitSets[i] = LongBuffer.wrap(new long[wordsPerSet]);
+                }
+                for (int w = 0; w < wordsPerSet; w++) {
+                    bitSets[i].put(w, atomicSets[i].get(w));
+                }
+                atomicSets[i] = null;
+            }
+            atomicSets = null;
+        }
+    }
+
+    public boolean isConcurrent() {
+        return atomicSets != null;
+    }
+
+    private void checkNotConcurrent() {
+        if (atomicSets != null) {
+            throw new IllegalStateException("Concurrent updates have to be turned off first");
+        }
+    }
 
-        int count = 0;
-        for(int i = 0; i < numBits; ++i) {
-            count += (bitSetList.get(bitSetNum + i).get(bitSetOffset) ? 1 << i : 0);
+    private void checkNotTracking() {
+        if (trackChecksum) {
+            throw new IllegalStateException("Only setBit can change the array while its checksum is tracked");
         }
-        return count;
     }
 
     /** 
      * "Collapses" a MultiBitArray with multiple bits per bucket to one with one
      * bit per bucket
      * 
+     * Each bitset is rewritten in place: the presence bits for the buckets in
+     * output word w only come from input words >= w, so every word has been
+     * read before it is overwritten. The unused tail is then dropped.
+     * 
      * @param cutoff    how many bits must be in the bucket for the resulting
      *                  MultiBitArray to have a 1 at that position
      */
     public void collapse(int cutoff) {
+        checkNotConcurrent();
+        checkNotTracking();
         if(numBits == 1) {
             return;
         }
 
-        List<BitSet> newList = new ArrayList<BitSet>(bitSetList.size()/numBits);
+        int bucketsPerWord = 64 >>> slotSizeLog2;
+
+        for(int i = 0; i < bitSets.length; ++i) {
+            LongBuffer bitSet = bitSets[i];
+            long presence = 0;
+            int bucket = 0;
 
-        for(int i = 0; i < bitSetList.size()/numBits; ++i) {
-            BitSet baseBitSet = bitSetList.get(i*numBits);
-            long pos = (long) i * bitSetSize;
-            for(int j = 0; j < bitSetSize; ++j) {
-                baseBitSet.set(j, getCount(pos+j) >= cutoff);
+            for(int w = 0; w < wordsPerSet; ++w) {
+                long word = bitSet.get(w);
+                for(int j = 0; j < bucketsPerWord && bucket < bitSetSize; ++j, ++bucket) {
+                    if (((word >>> (j << slotSizeLog2)) & countMask) >= cutoff) {
+                        presence |= 1L << bucket;
+                    }
+                }
+
+                if ((bucket & 63) == 0 || bucket == bitSetSize) {
+                    bitSet.put((bucket - 1) >>> 6, presence);
+                    presence = 0;
+                }
             }
-            newList.add(baseBitSet);
+            bitSets[i] = truncate(bitSet, Math.max(1, bitSetSize >>> 6));
         }
-        numBits = 1;
-        bitSetList = newList;
+
+        setNumBits(1);
+    }
+
+    /**
+     * @return a buffer holding the first n words of the given one, heap
+     * buffers are copied so the rest of the array can be collected
+     */
+    private static LongBuffer truncate(LongBuffer bitSet, int n) {
+        if (bitSet.hasArray()) {
+            long[] words = new long[n];
+            System.arraycopy(bitSet.array(), bitSet.arrayOffset(), words, 0, n);
+            return LongBuffer.wrap(words);
+        }
+
+        LongBuffer dup = bitSet.duplicate();
+        dup.position(0);
+        dup.limit(n);
+        return dup.slice();
     }
     
+    /**
+     * @return true if other has the same number of bitsets, bitset size and
+     * bits per bucket, so its words line up with this array's
+     */
+    public boolean sameShape(MultiBitArray other) {
+        return bitSets.length == other.bitSets.length && bitSetSizeLog2 == other.bitSetSizeLog2
+                && numBits == other.numBits;
+    }
+
+    /**
+     * Adds the counters of others to this array's for the words fromWord up
+     * to toWord of one bitset, counts saturate at the largest value a bucket
+     * holds. With one bit per bucket this is a plain or of the words. Calls
+     * for different word ranges can run in different threads.
+     *
+     * @param others    arrays of the same shape, see sameShape
+     * @return          number of non-empty buckets in the merged words
+     */
+    long add(MultiBitArray[] others, int setNum, int fromWord, int toWord) {
+        checkNotConcurrent();
+        LongBuffer bitSet = bitSets[setNum];
+        int slotSize = 1 << slotSizeLog2;
+        long occupied = 0;
+
+        for (int w = fromWord; w < toWord; w++) {
+            long word = bitSet.get(w);
+            for (MultiBitArray other : others) {
+                long otherWord = other.getWord(setNum, w);
+                if (numBits == 1 || word == 0) {
+                    word |= otherWord;
+                } else if (otherWord != 0) {
+                    word = addSlots(word, otherWord, slotSize);
+                }
+            }
+            bitSet.put(w, word);
+            occupied += countOccupied(word, slotSize);
+        }
+
+        return occupied;
+    }
+
+    /**
+     * @return true if every bucket of a filter of 2^hashSizeLog2 buckets
+     * falls in a whole word, so the array can be folded a word at a time
+     */
+    boolean canFold(int hashSizeLog2) {
+        return hashSizeLog2 + slotSizeLog2 >= 6 && bitSetSizeLog2 + slotSizeLog2 >= 6;
+    }
+
+    /**
+     * Folds this array, holding the buckets of a filter of 2^hashSizeLog2
+     * buckets, on to the smaller array folded: bucket b of folded gets the
+     * sum of the counters of every bucket b + j * (folded's bucket count).
+     * Counting from the first bitset the buckets are numbered in word order,
+     * so this is an add of words a fixed distance apart. Only the words
+     * fromWord up to toWord of folded (numbered across its bitsets) are
+     * written, calls for different ranges can run in different threads.
+     *
+     * @param folded    array with the same bits per bucket and fewer buckets,
+     *                  both must pass canFold
+     * @return          number of non-empty buckets in the folded words
+     */
+    long foldInto(MultiBitArray folded, int hashSizeLog2, long fromWord, long toWord) {
+        checkNotConcurrent();
+        long foldedWords = (long) folded.bitSets.length * folded.wordsPerSet;
+        long usedWords = 1L << (hashSizeLog2 + slotSizeLog2 - 6);
+        int slotSize = 1 << slotSizeLog2;
+        long occupied = 0;
+
+        for (long w = fromWord; w < toWord; w++) {
+            long word = 0;
+            for (long from = w; from < usedWords; from += foldedWords) {
+                long otherWord = getWord((int) (from / wordsPerSet), (int) (from % wordsPerSet));
+                if (numBits == 1 || word == 0) {
+                    word |= otherWord;
+                } else if (otherWord != 0) {
+                    word = addSlots(word, otherWord, slotSize);
+                }
+            }
+            folded.bitSets[(int) (w / folded.wordsPerSet)].put((int) (w % folded.wordsPerSet), word);
+            occupied += countOccupied(word, slotSize);
+        }
+
+        return occupied;
+    }
+
+    /**
+     * @return number of non-empty buckets in the words fromWord up to toWord
+     * of one bitset, calls for different ranges can run in different threads
+     */
+    long countOccupied(int setNum, int fromWord, int toWord) {
+        int slotSize = 1 << slotSizeLog2;
+        long occupied = 0;
+        for (int w = fromWord; w < toWord; w++) {
+            occupied += countOccupied(getWord(setNum, w), slotSize);
+        }
+        return occupied;
+    }
+
+    private long addSlots(long word, long otherWord, int slotSize) {
+        long ret = 0;
+        for (int shift = 0; shift < 64; shift += slotSize) {
+            long count = ((word >>> shift) & countMask) + ((otherWord >>> shift) & countMask);
+            ret |= Math.min(count, countMask) << shift;
+        }
+        return ret;
+    }
+
+    private long countOccupied(long word, int slotSize) {
+        if (numBits == 1 || word == 0) {
+            return Long.bitCount(word);
+        }
+        long ret = 0;
+        for (int shift = 0; shift < 64; shift += slotSize) {
+            ret += ((word >>> shift) & countMask) != 0 ? 1 : 0;
+        }
+        return ret;
+    }
+
+    /**
+     * @return number of words backing one bitset
+     */
+    int getWordsPerSet() {
+        return wordsPerSet;
+    }
+
     public int getBitSetSize() {
         return bitSetSize;
     }
@@ -227,13 +673,67 @@ public class MultiBitArray implements Serializable {
     }
     
     /**
-     * Returns the effective number of BitSets 
-     * (i.e. How many there are in the list divided by the number of buckets,
-     * since there is one BitSet per bucket)
+     * Returns the number of BitSets (buckets, not counter bits)
      * 
      * @return  number of BitSets
      */
     public int getNumBitSets() {
-        return bitSetList.size()/numBits;
+        return bitSets.length;
+    }
+
+    public int getNumBits() {
+        return numBits;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        checkNotConcurrent();
+        List<BitSet> bitSetList = new ArrayList<BitSet>(bitSets.length * numBits);
+        for (LongBuffer bitSet : bitSets) {
+            BitSet[] counterBits = new BitSet[numBits];
+            for (int i = 0; i < numBits; i++) {
+                counterBits[i] = new BitSet(bitSetSize);
+                bitSetList.add(counterBits[i]);
+            }
+
+            for (int word = 0; word < wordsPerSet; word++) {
+                long val = bitSet.get(word);
+                while (val != 0) {
+                    long pos = ((long) word << 6) + Long.numberOfTrailingZeros(val);
+                    counterBits[(int) (pos & ((1 << slotSizeLog2) - 1))].set((int) (pos >>> slotSizeLog2));
+                    val &= val - 1;
+                }
+            }
+        }
+
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("bitSetSize", bitSetSize);
+        fields.put("bitSetMask", bitSetMask);
+        fields.put("bitSetSizeLog2", bitSetSizeLog2);
+        fields.put("bitSetList", bitSetList);
+        fields.put("numBits", numBits);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        bitSetSize = fields.get("bitSetSize", 0);
+        bitSetMask = fields.get("bitSetMask", 0L);
+        bitSetSizeLog2 = fields.get("bitSetSizeLog2", 0);
+        setNumBits(fields.get("numBits", 1));
+
+        List<BitSet> bitSetList = (List<BitSet>) fields.get("bitSetList", null);
+        bitSets = new LongBuffer[bitSetList.size() / numBits];
+        for (int i = 0; i < bitSets.length; i++) {
+            long[] words = new long[wordsPerSet];
+            for (int j = 0; j < numBits; j++) {
+                BitSet b = bitSetList.get(i * numBits + j);
+                for (int bit = b.nextSetBit(0); bit >= 0; bit = b.nextSetBit(bit + 1)) {
+                    long pos = ((long) bit << slotSizeLog2) + j;
+                    words[(int) (pos >>> 6)] |= 1L << pos;
+                }
+                bitSetList.set(i * numBits + j, null);  // let the BitSet go as soon as it is converted
+            }
+            bitSets[i] = LongBuffer.wrap(words);
+        }
     }
 }
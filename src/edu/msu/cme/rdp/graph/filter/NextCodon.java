@@ -28,6 +28,24 @@ import java.io.Serializable;
 public class NextCodon implements Serializable {
 
     static final AminoAcid[][][] bacteriaCodonMapping = ProteinUtils.getInstance().getTranslationTable(11);
+    /*
+     * bacteriaCodonMapping flattened, indexed by the codon packed as in
+     * getCodon, for codons read in walk order and reversed
+     */
+    private static final char[] forwardAminoAcids = new char[64];
+    private static final char[] reverseAminoAcids = new char[64];
+
+    static {
+        for (int b0 = 0; b0 < 4; b0++) {
+            for (int b1 = 0; b1 < 4; b1++) {
+                for (int b2 = 0; b2 < 4; b2++) {
+                    int codon = (b0 << 4) | (b1 << 2) | b2;
+                    forwardAminoAcids[codon] = bacteriaCodonMapping[b0][b1][b2].getAminoAcid();
+                    reverseAminoAcids[codon] = bacteriaCodonMapping[b2][b1][b0].getAminoAcid();
+                }
+            }
+        }
+    }
 
     private int codon;
     private char aminoAcid;
@@ -52,6 +70,17 @@ public class NextCodon implements Serializable {
         }
     }
 
+    /**
+     * Same translation as the constructor without building a NextCodon
+     *
+     * @param forward   false if the codon's bases are in reverse order
+     * @param codon     three bases packed two bits each, first base in the
+     *                  highest bits
+     */
+    public static char translate(boolean forward, int codon) {
+        return forward ? forwardAminoAcids[codon & 63] : reverseAminoAcids[codon & 63];
+    }
+
     public int getCodon() {
         return codon;
     }
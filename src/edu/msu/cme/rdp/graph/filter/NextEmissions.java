@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.filter;
+
+/**
+ * The codons (or single bases) that extend a CodonWalker's current kmer, as
+ * found by CodonWalker.getNextCodons and getNextNucls, with the hash values of
+ * the kmer each one leads to. Reused between calls, each call overwrites the
+ * previous contents.
+ */
+public class NextEmissions {
+
+    /**
+     * Most emissions one kmer can have, one per codon
+     */
+    public static final int MAX_EMISSIONS = 64;
+
+    private final int[] emissions = new int[MAX_EMISSIONS];
+    private final char[] aminoAcids = new char[MAX_EMISSIONS];
+    private final long[] fwdHashes = new long[MAX_EMISSIONS];
+    private final long[] rcHashes = new long[MAX_EMISSIONS];
+    private int size = 0;
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int emission, char aminoAcid, long fwdHash, long rcHash) {
+        emissions[size] = emission;
+        aminoAcids[size] = aminoAcid;
+        fwdHashes[size] = fwdHash;
+        rcHashes[size] = rcHash;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the bases of the index'th emission packed two bits each, first
+     * base (in walk order) in the highest bits, as NextCodon.getCodon
+     */
+    public int getEmission(int index) {
+        return emissions[index];
+    }
+
+    /**
+     * @return amino acid the index'th codon translates to, 0 for bases
+     */
+    public char getAminoAcid(int index) {
+        return aminoAcids[index];
+    }
+
+    public long getFwdHash(int index) {
+        return fwdHashes[index];
+    }
+
+    public long getRcHash(int index) {
+        return rcHashes[index];
+    }
+}
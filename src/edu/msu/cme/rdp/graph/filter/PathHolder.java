@@ -43,6 +43,24 @@ public class PathHolder {
         size = k;
     }
 
+    /**
+     * Same as init(Kmer) for a kmer packed as Kmer.getPart
+     *
+     * @param kmer      the packed kmer
+     * @param offset    index of the kmer's first long
+     * @param k         kmer length
+     */
+    public void init(long[] kmer, int offset, int k) {
+        int words = (k + 31) / 32;
+        if (words > path.length) {
+            path = Arrays.copyOf(path, words + 50);
+        }
+        System.arraycopy(kmer, offset, path, 0, words);
+        ptr = k / 32;
+        cap = 32 - k % 32;
+        size = k;
+    }
+
     public void push(byte twobits) {
         if (cap == 0) {
             ptr++;
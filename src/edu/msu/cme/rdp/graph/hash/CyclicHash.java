@@ -18,6 +18,15 @@ public class CyclicHash implements Hash, Serializable {
 
     }
 
+    public CyclicHash(int myn, NucleotideHash hasher) {
+        this(myn);
+        this.hasher = hasher;
+    }
+
+    public NucleotideHash getNucleotideHash() {
+        return hasher;
+    }
+
     private long fastleftshiftn(long x) {
         return (x << n) | (x >>> (wordsize - n));
     }
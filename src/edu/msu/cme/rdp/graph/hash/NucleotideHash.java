@@ -16,6 +16,17 @@ public class NucleotideHash implements Serializable {
         }
     }
 
+    /**
+     * @param hashvalues the values of a, c, g and t, e.g. read back from a
+     * bloom filter file
+     */
+    public NucleotideHash(long[] hashvalues) {
+        if (hashvalues.length != this.hashvalues.length) {
+            throw new IllegalArgumentException("Expected " + this.hashvalues.length + " hash values");
+        }
+        System.arraycopy(hashvalues, 0, this.hashvalues, 0, hashvalues.length);
+    }
+
     public static NucleotideHash getInstance() {
         return charhash;
     }
@@ -129,9 +129,7 @@ public class ReadCorrector {
 
         BloomFilter bloom;
 
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        bloom = BloomFilter.fromFile(bloomFile);
 
         SeqReader reader = new SequenceReader(readsFile);
         Sequence seq;
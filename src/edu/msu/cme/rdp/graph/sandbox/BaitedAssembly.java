@@ -24,10 +24,7 @@ import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.writers.FastaWriter;
 import edu.msu.cme.rdp.graph.filter.InvalidDNABaseException;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.HashSet;
@@ -119,9 +116,7 @@ public class BaitedAssembly {
             System.exit(1);
         }
 
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(args[0])));
-        BloomFilter bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter bloom = BloomFilter.fromFile(new File(args[0]));
 
         SeqReader reader = new SequenceReader(new File(args[1]));
         Sequence seq;
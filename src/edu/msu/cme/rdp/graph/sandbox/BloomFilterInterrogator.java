@@ -69,9 +69,7 @@ public class BloomFilterInterrogator {
 
         File bloomFile = new File(args[0]);
 
-        ObjectInputStream ois = ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        BloomFilter filter = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter filter = BloomFilter.fromFile(bloomFile);
 
         printStats(filter, System.out);
 
@@ -17,12 +17,15 @@
 package edu.msu.cme.rdp.graph.sandbox;
 
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
-import edu.msu.cme.rdp.graph.filter.CodonWalker;
+import edu.msu.cme.rdp.graph.filter.InvalidDNABaseException;
 import edu.msu.cme.rdp.kmer.trie.KmerGenerator;
 import edu.msu.cme.rdp.readseq.readers.SeqReader;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import org.apache.commons.lang.StringUtils;
 
 /**
@@ -74,24 +77,38 @@ public class CheckReadKmerPresence {
         File bloomFile = new File(args[0]);
         SeqReader reader = new SequenceReader(new File(args[1]));
 
-        ObjectInputStream ois = ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        BloomFilter filter = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter filter = BloomFilter.fromFile(bloomFile);
 
         printStats(filter, System.out);
         Sequence seq;
-        CodonWalker walker = null;
+        BloomFilter.GraphState state = filter.new GraphState();
+        List<char[]> kmers = new ArrayList<char[]>();
+        BitSet found = new BitSet();
         while ((seq = reader.readNextSequence()) != null) {
-            int kmerNum = 0;
+            kmers.clear();
             for (char[] kmer : KmerGenerator.getKmers(seq.getSeqString(), filter.getKmerSize())) {
-                System.out.print(seq.getSeqName() + "\t" + (++kmerNum) + "\t" + kmer + "\t");
+                kmers.add(kmer);
+            }
+
+            // hash every valid kmer and look them all up in one batch
+            long[] fwdHashes = new long[kmers.size()];
+            long[] rcHashes = new long[kmers.size()];
+            BitSet valid = new BitSet(kmers.size());
+            for (int index = 0; index < kmers.size(); index++) {
                 try {
-                    walker = filter.new RightCodonFacade(kmer);
-                    System.out.println("true");
-                } catch (Exception e) {
-                    System.out.println("false");
+                    state.setState(kmers.get(index));
+                    fwdHashes[index] = state.getFwdHash();
+                    rcHashes[index] = state.getRcHash();
+                    valid.set(index);
+                } catch (InvalidDNABaseException e) {
                 }
+            }
+            filter.hasNodes(fwdHashes, rcHashes, kmers.size(), found);
+            found.and(valid);
 
+            for (int index = 0; index < kmers.size(); index++) {
+                System.out.print(seq.getSeqName() + "\t" + (index + 1) + "\t" + kmers.get(index) + "\t");
+                System.out.println(found.get(index) ? "true" : "false");
             }
         }
     }
@@ -32,10 +32,7 @@ import edu.msu.cme.rdp.kmer.Kmer;
 import edu.msu.cme.rdp.kmer.NuclKmer;
 import edu.msu.cme.rdp.readseq.SequenceType;
 import edu.msu.cme.rdp.readseq.utils.ProteinUtils;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -290,9 +287,7 @@ public class ExploreRenderCombinedGraph {
         boolean prot = forHmm.getAlphabet() == SequenceType.Protein;
 
         BloomFilter bloom;
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        bloom = BloomFilter.fromFile(bloomFile);
 
         ExploreRenderCombinedGraph explorer = new ExploreRenderCombinedGraph(bloom, forHmm, revHmm, radius, allowGaps);
 
@@ -20,10 +20,7 @@ import edu.msu.cme.rdp.graph.filter.BloomFilter;
 import edu.msu.cme.rdp.graph.filter.CodonWalker;
 import edu.msu.cme.rdp.kmer.io.KmerStart;
 import edu.msu.cme.rdp.kmer.io.KmerStartsReader;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
@@ -83,9 +80,7 @@ public class NodeCounter {
         long startTime;
 
         startTime = System.currentTimeMillis();
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        BloomFilter bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter bloom = BloomFilter.fromFile(bloomFile);
         System.err.println("Bloom filter loaded in " + (System.currentTimeMillis() - startTime) + " ms");
 
         System.err.println("Starting node counting search at " + new Date());
@@ -114,16 +114,15 @@ public class AStarNode implements Serializable, Comparable<AStarNode> {
         }
 
         if (ret == 0) {
-            char[] k1 = kmer.toString().toCharArray();
-            char[] k2 = o.kmer.toString().toCharArray();
-
-            for (int index = 0; index < k1.length; index++) {
-                if (k1[index] != k2[index]) {
-                    ret = k2[index] - k1[index];
+            // compare the packed kmers, same order as comparing the strings
+            for (int index = 0; index < kmer.packedLength(); index++) {
+                long p1 = kmer.getPart(index) ^ Long.MIN_VALUE;
+                long p2 = o.kmer.getPart(index) ^ Long.MIN_VALUE;
+                if (p1 != p2) {
+                    ret = (p2 > p1) ? 1 : -1;
                     break;
                 }
             }
-
         }
 
         if (ret == 0) {
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.kmer.Kmer;
+import edu.msu.cme.rdp.kmer.NuclKmer;
+import java.util.Arrays;
+
+/**
+ * Storage for the nodes opened by one A* search, one array per field so a
+ * node costs no object headers, Kmer objects or references. A node is its
+ * index in the arena and points to its parent by index.
+ *
+ * Index 0 is the node the search starts from, its path back to the start of
+ * the kpaths search is kept as the AStarNode it was created from. Nodes the
+ * caller needs after the search, the path to the goal, are turned back in to
+ * AStarNodes with toNode. The arena is dropped as a whole when the search
+ * returns.
+ *
+ * The fields are package visible and written directly by NodeEnumerator, the
+ * arrays are replaced as the arena grows so don't hold on to them across add.
+ */
+public class AStarNodeArena {
+
+    public static final int NO_PARENT = -1;
+
+    private static final int DEFAULT_CAPACITY = 1 << 10;
+
+    /**
+     * Kmer length in bases and longs per packed kmer
+     */
+    final int k;
+    final int words;
+    private final AStarNode root;
+    private int size = 0;
+
+    /**
+     * Packed kmers, words longs per node laid out as Kmer.getPart
+     */
+    long[] kmers;
+    long[] fwdHashes;
+    long[] rcHashes;
+    int[] parents;
+    char[] states;
+    int[] stateNos;
+    int[] lengths;
+    int[] fvals;
+    int[] negativeCounts;
+    char[] emissions;
+    double[] scores;
+    double[] realScores;
+    double[] maxScores;
+
+    /**
+     * @param root  node the search starts from, stored at index 0
+     */
+    public AStarNodeArena(AStarNode root) {
+        this(root, DEFAULT_CAPACITY);
+    }
+
+    public AStarNodeArena(AStarNode root, int capacity) {
+        this.root = root;
+        this.k = root.kmer.length();
+        this.words = root.kmer.packedLength();
+        allocate(Math.max(capacity, 16));
+
+        long[] kmer = new long[words];
+        for (int index = 0; index < words; index++) {
+            kmer[index] = root.kmer.getPart(index);
+        }
+        int index = add(NO_PARENT, kmer, root.fwdHash, root.rcHash, root.stateNo, root.state);
+        lengths[index] = root.length;
+        fvals[index] = root.fval;
+        negativeCounts[index] = root.negativeCount;
+        emissions[index] = root.emission;
+        scores[index] = root.score;
+        realScores[index] = root.realScore;
+        maxScores[index] = root.maxScore;
+    }
+
+    private void allocate(int capacity) {
+        kmers = new long[capacity * words];
+        fwdHashes = new long[capacity];
+        rcHashes = new long[capacity];
+        parents = new int[capacity];
+        states = new char[capacity];
+        stateNos = new int[capacity];
+        lengths = new int[capacity];
+        fvals = new int[capacity];
+        negativeCounts = new int[capacity];
+        emissions = new char[capacity];
+        scores = new double[capacity];
+        realScores = new double[capacity];
+        maxScores = new double[capacity];
+    }
+
+    private void grow() {
+        int capacity = parents.length << 1;
+        kmers = Arrays.copyOf(kmers, capacity * words);
+        fwdHashes = Arrays.copyOf(fwdHashes, capacity);
+        rcHashes = Arrays.copyOf(rcHashes, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        states = Arrays.copyOf(states, capacity);
+        stateNos = Arrays.copyOf(stateNos, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        fvals = Arrays.copyOf(fvals, capacity);
+        negativeCounts = Arrays.copyOf(negativeCounts, capacity);
+        emissions = Arrays.copyOf(emissions, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        realScores = Arrays.copyOf(realScores, capacity);
+        maxScores = Arrays.copyOf(maxScores, capacity);
+    }
+
+    /**
+     * Adds a node, the scores and other fields are left for the caller to
+     * fill in
+     *
+     * @param parent    index of the node this one was reached from
+     * @param kmer      packed kmer, words longs
+     * @return index of the new node
+     */
+    public int add(int parent, long[] kmer, long fwdHash, long rcHash, int stateNo, char state) {
+        if (size == parents.length) {
+            grow();
+        }
+        int index = size++;
+        System.arraycopy(kmer, 0, kmers, index * words, words);
+        fwdHashes[index] = fwdHash;
+        rcHashes[index] = rcHash;
+        parents[index] = parent;
+        stateNos[index] = stateNo;
+        states[index] = state;
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public char getState(int node) {
+        return states[node];
+    }
+
+    public int getStateNo(int node) {
+        return stateNos[node];
+    }
+
+    public int getLength(int node) {
+        return lengths[node];
+    }
+
+    public int getNegativeCount(int node) {
+        return negativeCounts[node];
+    }
+
+    public int getFval(int node) {
+        return fvals[node];
+    }
+
+    public double getScore(int node) {
+        return scores[node];
+    }
+
+    public double getRealScore(int node) {
+        return realScores[node];
+    }
+
+    /**
+     * @return true if the two nodes have the same kmer, state and state
+     * number, the same test as AStarNode.equals
+     */
+    public boolean sameNode(int n1, int n2) {
+        if (fwdHashes[n1] != fwdHashes[n2] || rcHashes[n1] != rcHashes[n2]
+                || stateNos[n1] != stateNos[n2] || states[n1] != states[n2]) {
+            return false;
+        }
+        int o1 = n1 * words;
+        int o2 = n2 * words;
+        for (int index = 0; index < words; index++) {
+            if (kmers[o1 + index] != kmers[o2 + index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if node has the same kmer, state and state number as the
+     * given AStarNode
+     */
+    public boolean sameNode(int node, AStarNode other) {
+        if (stateNos[node] != other.stateNo || states[node] != other.state) {
+            return false;
+        }
+        return sameKmer(node, other.kmer);
+    }
+
+    /**
+     * @return true if the packed kmer at packed[offset] equals kmer
+     */
+    static boolean sameKmer(long[] packed, int offset, int words, Kmer kmer) {
+        for (int index = 0; index < words; index++) {
+            if (packed[offset + index] != kmer.getPart(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean sameKmer(int node, Kmer kmer) {
+        return sameKmer(kmers, node * words, words, kmer);
+    }
+
+    /**
+     * Same ordering as AStarNode.compareTo, nodes with the highest fval
+     * come first
+     */
+    public int compare(int n1, int n2) {
+        int ret = fvals[n2] - fvals[n1];
+
+        if (ret == 0) {
+            ret = stateNos[n1] - stateNos[n2];
+        }
+
+        if (ret == 0) {
+            int o1 = n1 * words;
+            int o2 = n2 * words;
+            for (int index = 0; index < words; index++) {
+                long p1 = kmers[o1 + index] ^ Long.MIN_VALUE;
+                long p2 = kmers[o2 + index] ^ Long.MIN_VALUE;
+                if (p1 != p2) {
+                    ret = (p2 > p1) ? 1 : -1;
+                    break;
+                }
+            }
+        }
+
+        if (ret == 0) {
+            ret = stateRank(states[n2]) - stateRank(states[n1]);
+        }
+
+        return ret;
+    }
+
+    private static int stateRank(char state) {
+        switch (state) {
+            case 'm':
+                return 3;
+            case 'd':
+                return 2;
+            case 'i':
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the kmer of node as a Kmer object
+     */
+    public Kmer getKmer(int node) {
+        long[] packed = new long[words];
+        System.arraycopy(kmers, node * words, packed, 0, words);
+        return new NuclKmer(packed, k);
+    }
+
+    /**
+     * @return an AStarNode with node's kmer, hashes and state but no path or
+     * scores, enough to look node up in maps keyed on AStarNodes
+     */
+    public AStarNode toKey(int node) {
+        if (node == 0) {
+            return root;
+        }
+        return new AStarNode(null, getKmer(node), fwdHashes[node], rcHashes[node], stateNos[node], states[node]);
+    }
+
+    /**
+     * Builds AStarNodes for node and each node on the path back to index 0,
+     * which links to the root the arena was created with
+     *
+     * @return the AStarNode for node
+     */
+    public AStarNode toNode(int node) {
+        int depth = 0;
+        for (int n = node; n != 0; n = parents[n]) {
+            depth++;
+        }
+        int[] path = new int[depth];
+        for (int n = node; n != 0; n = parents[n]) {
+            path[--depth] = n;
+        }
+
+        AStarNode ret = root;
+        for (int n : path) {
+            ret = toNode(n, ret);
+        }
+        return ret;
+    }
+
+    private AStarNode toNode(int node, AStarNode parent) {
+        AStarNode ret = new AStarNode(parent, getKmer(node), fwdHashes[node], rcHashes[node], stateNos[node], states[node]);
+        ret.length = lengths[node];
+        ret.fval = fvals[node];
+        ret.negativeCount = negativeCounts[node];
+        ret.emission = emissions[node];
+        ret.score = scores[node];
+        ret.realScore = realScores[node];
+        ret.maxScore = maxScores[node];
+        ret.thisNodeScore = scores[node] - parent.score;
+        ret.indels = parent.indels + ((states[node] == 'm') ? 0 : 1);
+        return ret;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import java.util.Arrays;
+
+/**
+ * Open list for the A* search, a 4-ary heap of AStarNodeArena indices ordered
+ * by AStarNodeArena.compare that holds at most one copy of each node (kmer,
+ * state, stateNo).
+ *
+ * Offering a node that is already on the heap with a better path replaces the
+ * queued copy in place (decrease-key) rather than adding a duplicate. The heap
+ * also remembers every node that has been polled, those are never queued
+ * again, so the caller doesn't need a separate closed set.
+ */
+public class AStarNodeHeap {
+
+    private static final int ARITY = 4;
+
+    private final AStarNodeArena arena;
+    private int[] heap = new int[64];
+    private int size = 0;
+    /**
+     * Heap position of each arena index, -1 if it isn't queued
+     */
+    private int[] positions = new int[0];
+    /**
+     * Every node offered, the queued or polled copy
+     */
+    private final AStarNodeTable seen;
+    private int peakSize = 0;
+    private int replaced = 0;
+
+    public AStarNodeHeap(AStarNodeArena arena) {
+        this.arena = arena;
+        this.seen = new AStarNodeTable(arena);
+    }
+
+    /**
+     * @return the queued or polled node equal to node, or -1 if no such
+     * node has been offered
+     */
+    public int get(int node) {
+        return seen.get(node);
+    }
+
+    /**
+     * @return true if a node equal to node is waiting on the heap
+     */
+    public boolean contains(int node) {
+        int n = seen.get(node);
+        return n >= 0 && isQueued(n);
+    }
+
+    /**
+     * @return true if node has been polled
+     */
+    public boolean isClosed(int node) {
+        int n = seen.get(node);
+        return n >= 0 && !isQueued(n);
+    }
+
+    private boolean isQueued(int n) {
+        return n < positions.length && positions[n] >= 0;
+    }
+
+    private void setPosition(int node, int position) {
+        if (node >= positions.length) {
+            int oldLength = positions.length;
+            positions = Arrays.copyOf(positions, Math.max(arena.size(), node + 1) * 2);
+            Arrays.fill(positions, oldLength, positions.length, -1);
+        }
+        positions[node] = position;
+    }
+
+    /**
+     * Queues node. If an equal node is already queued it is replaced when node
+     * comes first in the ordering. Nodes equal to one already polled are
+     * ignored.
+     *
+     * @return true if node was queued
+     */
+    public boolean offer(int node) {
+        int old = seen.get(node);
+        if (old < 0) {
+            seen.put(node);
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size << 1);
+            }
+            siftUp(size++, node);
+            if (size > peakSize) {
+                peakSize = size;
+            }
+            return true;
+        }
+
+        if (!isQueued(old) || arena.compare(old, node) <= 0) {
+            return false;
+        }
+
+        seen.put(node);
+        int index = positions[old];
+        positions[old] = -1;
+        siftUp(index, node);
+        replaced++;
+        return true;
+    }
+
+    /**
+     * @return the first node in the ordering, or -1 if the heap is empty
+     */
+    public int poll() {
+        if (size == 0) {
+            return -1;
+        }
+
+        int ret = heap[0];
+        positions[ret] = -1;
+        int last = heap[--size];
+        if (size > 0) {
+            siftDown(0, last);
+        }
+        return ret;
+    }
+
+    private void siftUp(int index, int node) {
+        while (index > 0) {
+            int parent = (index - 1) / ARITY;
+            int p = heap[parent];
+            if (arena.compare(node, p) >= 0) {
+                break;
+            }
+            heap[index] = p;
+            positions[p] = index;
+            index = parent;
+        }
+        heap[index] = node;
+        setPosition(node, index);
+    }
+
+    private void siftDown(int index, int node) {
+        while (true) {
+            int child = index * ARITY + 1;
+            if (child >= size) {
+                break;
+            }
+            int end = Math.min(child + ARITY, size);
+            int best = child;
+            for (int c = child + 1; c < end; c++) {
+                if (arena.compare(heap[c], heap[best]) < 0) {
+                    best = c;
+                }
+            }
+            if (arena.compare(node, heap[best]) <= 0) {
+                break;
+            }
+            heap[index] = heap[best];
+            positions[heap[index]] = index;
+            index = best;
+        }
+        heap[index] = node;
+        positions[node] = index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return number of nodes polled
+     */
+    public int closedSize() {
+        return seen.size() - size;
+    }
+
+    /**
+     * @return most nodes queued at once
+     */
+    public int getPeakSize() {
+        return peakSize;
+    }
+
+    /**
+     * @return number of queued nodes replaced by a better copy, each of which
+     * would have been a duplicate entry in a plain priority queue
+     */
+    public int getReplaced() {
+        return replaced;
+    }
+}
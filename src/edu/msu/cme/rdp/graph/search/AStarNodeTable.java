@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+/**
+ * Open addressing table of the nodes in an AStarNodeArena, used to find the
+ * copy of a node (kmer, state, stateNo) the search already has. Slots hold
+ * arena indices, probing compares the hashes and packed state held in the
+ * arena and only then the packed kmer.
+ *
+ * Same notion of equality as AStarNode.equals, entries can't be removed.
+ */
+public class AStarNodeTable {
+
+    private static final int DEFAULT_CAPACITY = 1 << 10;
+    private static final double MAX_LOAD = .6;
+
+    private final AStarNodeArena arena;
+    /**
+     * arena index + 1 for each slot, 0 for an empty slot
+     */
+    private int[] slots;
+    private int mask;
+    private int size = 0;
+    private int resizeAt;
+
+    public AStarNodeTable(AStarNodeArena arena) {
+        this(arena, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize  number of nodes to allocate space for up front
+     */
+    public AStarNodeTable(AStarNodeArena arena, int expectedSize) {
+        this.arena = arena;
+        int capacity = 16;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * MAX_LOAD);
+    }
+
+    /**
+     * Packs the state number and state in to one int, the state takes the
+     * low two bits
+     */
+    static int stateKey(int stateNo, char state) {
+        int code;
+        switch (state) {
+            case 'm':
+                code = 1;
+                break;
+            case 'i':
+                code = 2;
+                break;
+            case 'd':
+                code = 3;
+                break;
+            default:
+                code = 0;
+        }
+        return (stateNo << 2) | code;
+    }
+
+    private int slot(int node) {
+        long h = arena.fwdHashes[node] * 0x9E3779B97F4A7C15L ^ arena.rcHashes[node];
+        h = (h ^ stateKey(arena.stateNos[node], arena.states[node])) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return slot holding a node equal to node, or ~(the empty slot where it
+     * would go)
+     */
+    private int find(int node) {
+        int index = slot(node);
+        int stored;
+        while ((stored = slots[index]) != 0) {
+            if (arena.sameNode(stored - 1, node)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return ~index;
+    }
+
+    /**
+     * @return the index of the node in the table equal to node, or -1
+     */
+    public int get(int node) {
+        int index = find(node);
+        return (index < 0) ? -1 : slots[index] - 1;
+    }
+
+    public boolean contains(int node) {
+        return find(node) >= 0;
+    }
+
+    /**
+     * Stores node, replacing any equal node already in the table
+     *
+     * @return the index of the node replaced, or -1
+     */
+    public int put(int node) {
+        int index = find(node);
+        if (index >= 0) {
+            int old = slots[index] - 1;
+            slots[index] = node + 1;
+            return old;
+        }
+
+        insert(~index, node);
+        return -1;
+    }
+
+    /**
+     * Stores node if no equal node is in the table
+     *
+     * @return true if the node was added
+     */
+    public boolean add(int node) {
+        int index = find(node);
+        if (index >= 0) {
+            return false;
+        }
+
+        insert(~index, node);
+        return true;
+    }
+
+    private void insert(int index, int node) {
+        slots[index] = node + 1;
+        if (++size > resizeAt) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        int[] old = slots;
+
+        allocate(old.length << 1);
+        for (int stored : old) {
+            if (stored == 0) {
+                continue;
+            }
+            int index = slot(stored - 1);
+            while (slots[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            slots[index] = stored;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
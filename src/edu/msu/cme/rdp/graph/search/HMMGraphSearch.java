@@ -22,12 +22,15 @@ import edu.msu.cme.rdp.alignment.hmm.scoring.ForwardScorer;
 import edu.msu.cme.rdp.alignment.hmm.scoring.HMMScorer;
 import edu.msu.cme.rdp.graph.filter.CodonWalker;
 import edu.msu.cme.rdp.graph.filter.InvalidDNABaseException;
+import edu.msu.cme.rdp.graph.search.SearchMetrics.Termination;
 import edu.msu.cme.rdp.graph.search.heuristic.weight.HeuristicWeight;
 import edu.msu.cme.rdp.kmer.Kmer;
 import edu.msu.cme.rdp.kmer.NuclKmer;
 import edu.msu.cme.rdp.readseq.SequenceType;
 import edu.msu.cme.rdp.readseq.utils.ProteinUtils;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.*;
 
 /**
@@ -44,19 +47,29 @@ public class HMMGraphSearch {
         public long searchTime;
     }
 
+    /**
+     * Thrown out of a search whose thread was interrupted
+     */
     public static class HackTerminateException extends RuntimeException {
     }
     public static final int PRUNE_NODE = 20;  // prune the search if the score does not improve after p number of nodes
     public static final int INT_SCALE = 10000; //This is the number of sigfigs in a HMMER3 model, so it works out quite nicely if you ask me
     private static final int upperBound = Integer.MIN_VALUE;
+    /**
+     * The deadline and interrupt flag are checked every 2^n nodes closed
+     */
+    private static final int DEADLINE_CHECK_MASK = (1 << 8) - 1;
     private final int maxk;  // max number of shortest paths to search
     
     
     /**
-     * Map of previously discovered terminal nodes.  Used to shorten search times
-     * when algorithm encounters nodes from a previously cached path.  
+     * Previously discovered terminal nodes shared across searches, one cache
+     * per direction. Null (the default) gives every kpaths search its own
+     * cache, used to shorten search times when the algorithm encounters
+     * nodes from a path it already found.
      */
-    private Map<AStarNode, AStarNode> termNodes = new HashMap<AStarNode, AStarNode>();
+    private TermNodeCache leftTermNodes;
+    private TermNodeCache rightTermNodes;
     
     /**
      * prune the search if the score does not improve after p number of nodes
@@ -69,6 +82,22 @@ public class HMMGraphSearch {
      */
     private HeuristicWeight hweight;
 
+    /**
+     * Limits of the current target, the deadline is System.currentTimeMillis()
+     * after which the A* searches return their best partial path
+     */
+    private long deadline = Long.MAX_VALUE;
+    private int maxOpenedNodes = Integer.MAX_VALUE;
+    private SearchTarget target;
+
+    /**
+     * Where the metrics of every search direction go, and the metrics of the
+     * direction being searched
+     */
+    private SearchMetricsSink metricsSink = NullSearchMetricsSink.INSTANCE;
+    private SearchMetrics metrics;
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
     public HMMGraphSearch(int maxk, int n_nodes) {
         this.maxk = maxk;
         this.heuristicPruning = n_nodes;
@@ -85,11 +114,70 @@ public class HMMGraphSearch {
         this.hweight = hweight;
     }
 
+    /**
+     * Sets where the metrics of every search direction are recorded, the
+     * default drops them
+     */
+    public void setMetricsSink(SearchMetricsSink metricsSink) {
+        this.metricsSink = (metricsSink == null) ? NullSearchMetricsSink.INSTANCE : metricsSink;
+    }
+
+    /**
+     * Shares the terminal node cache across the searches run by this
+     * instance, keeping at most about maxBytes of edges (split between the
+     * two directions) and evicting the least recently used ones. Pass 0 to go
+     * back to one cache per search.
+     *
+     * @param maxBytes  approximate memory the caches may use
+     */
+    public void setSharedTermNodeCache(long maxBytes) {
+        if (maxBytes > 0) {
+            leftTermNodes = TermNodeCache.withMemoryLimit(maxBytes / 2);
+            rightTermNodes = TermNodeCache.withMemoryLimit(maxBytes / 2);
+        } else {
+            leftTermNodes = rightTermNodes = null;
+        }
+    }
+
+    /**
+     * @return the shared caches, {left, right}, or null if every search has
+     * its own
+     */
+    public TermNodeCache[] getSharedTermNodeCaches() {
+        if (leftTermNodes == null) {
+            return null;
+        }
+        return new TermNodeCache[]{leftTermNodes, rightTermNodes};
+    }
+
+    /**
+     * Starts the clock for the target's time limit
+     */
+    private void setLimits(SearchTarget target) {
+        this.target = target;
+        SearchOptions options = target.getOptions();
+        deadline = (options.getTimeLimit() > 0) ? System.currentTimeMillis() + options.getTimeLimit() : Long.MAX_VALUE;
+        maxOpenedNodes = (options.getMaxOpenedNodes() > 0) ? options.getMaxOpenedNodes() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * The check is cooperative, it is made while nodes are being closed
+     *
+     * @return true if the time limit is up
+     * @throws HackTerminateException if the thread has been interrupted
+     */
+    private boolean timeIsUp() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new HackTerminateException();
+        }
+        return System.currentTimeMillis() > deadline;
+    }
+
     public List<SearchResult> search(SearchTarget target) throws InterruptedException {
+        setLimits(target);
         String framedKmer = target.getKmer();
         List<SearchResult> ret = new ArrayList();
 
-        System.err.println("left " );
         hweight.setHMM(target.getReverseHmm());
         int lStartingState = target.getReverseHmm().M() - target.getStartState() - target.getKmer().length() / ((target.isProt()) ? 3 : 1);
 
@@ -114,7 +202,6 @@ public class HMMGraphSearch {
                 ret.add(new SearchResult(target, target.getKmer(), nuclSeq, alignment, protSeq, SearchResult.SearchDirection.left, lStartingState, r.maxScore, scorer.getMaxScore(), r.searchTime));
             }
 
-            System.err.println("right");
             hweight.setHMM(target.getForwardHmm());
             List<PartialResult> rightParts = kpathsSearch(target.getForwardHmm(), target.getStartState(), framedKmer, target.getFilter().new RightCodonFacade(target.getKmer()), true);
 
@@ -144,6 +231,7 @@ public class HMMGraphSearch {
     }
 
     public List<AStarNode> searchGraph(SearchTarget target) throws InterruptedException {
+        setLimits(target);
         String framedKmer = target.getKmer();
         List<AStarNode> ret = new ArrayList();
 
@@ -180,10 +268,20 @@ public class HMMGraphSearch {
         PriorityQueue<CandidatePath> candidatePaths = new PriorityQueue<CandidatePath>();
         Map<AStarNode, Set<AStarNode>> shortestPathEdges = new HashMap();
         Set<Kmer> seenKmers = new HashSet(); // keep a set of kmers seen from the previous chosen best paths
+        TermNodeCache termNodes = forward ? rightTermNodes : leftTermNodes;
+        if (termNodes == null) {
+            termNodes = new TermNodeCache();
+        }
+
+        metrics = new SearchMetrics(target.getGeneName(), target.getQuerySeqid(), target.getKmer(), target.getStartState(),
+                forward ? SearchResult.SearchDirection.right : SearchResult.SearchDirection.left);
+        long startLookups = walker.getLookups();
+        long startNanos = System.nanoTime();
+        long startCpu = threadCpuTime();
 
         long kTime = System.currentTimeMillis();
         try {
-            AStarNode goalNode = astarSearch(hmm, startingState, framedWord, walker, forward,  new HashSet(), true);
+            AStarNode goalNode = astarSearch(hmm, startingState, framedWord, walker, forward,  new HashSet(), termNodes, true);
 
             CandidatePath bestPath = new CandidatePath(goalNode);
             bestPath.generationTime = (System.currentTimeMillis() - kTime);
@@ -199,6 +297,10 @@ public class HMMGraphSearch {
                 termNodes.put(node, bestPath.path.get(index+1));
             }		            
             while (bestPaths.size() < maxk) {   //Where k is the current kth shortest path
+                if (timeIsUp()) {
+                    metrics.setTermination(Termination.time_limit);
+                    break;
+                }
                 CandidatePath pathAk = bestBasePath;
                 kTime = System.currentTimeMillis();
                
@@ -220,7 +322,7 @@ public class HMMGraphSearch {
                         shortestPathEdges.put(starting, new HashSet());
                     }
                     shortestPathEdges.get(starting).add(ak_i_1);
-                    goalNode = astarSearch(hmm, starting, walker, shortestPathEdges.get(starting), false);
+                    goalNode = astarSearch(hmm, starting, walker, shortestPathEdges.get(starting), termNodes, false);
                     if(goalNode == null) {
                         break;
                     }
@@ -264,14 +366,27 @@ public class HMMGraphSearch {
                 }  
             }
         } catch (HackTerminateException e) {
-            System.err.println("Terminated on path " + bestPaths.size() + " (candidates=" + candidatePaths.size() + ")");            
+            metrics.setTermination(Termination.interrupted);
             throw e;
         } catch (IOException ignore) {
             throw new RuntimeException(ignore);
+        } finally {
+            long cpu = threadCpuTime();
+            metrics.finish(bestPaths.size(), walker.getLookups() - startLookups, System.nanoTime() - startNanos, (cpu < 0) ? -1 : cpu - startCpu);
+            metricsSink.record(metrics);
+            metrics = null;
         }
         return bestPaths;
     }
 
+    /**
+     * @return cpu time of the current thread in nanoseconds, -1 if the jvm
+     * can't measure it
+     */
+    private static long threadCpuTime() {
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : -1;
+    }
+
     /**
      * initializes the starting node and starts the main search 
      * (NOTE: Walker MUST be initialized to the passed starting kmer)
@@ -282,6 +397,7 @@ public class HMMGraphSearch {
      * @param walker
      * @param forward
      * @param disallowedLinks
+     * @param termNodes     edges of the paths already found
      * @return
      * @throws IOException
      */
@@ -290,6 +406,7 @@ public class HMMGraphSearch {
             CodonWalker walker,
             boolean forward,
             Set<AStarNode> disallowedLinks,
+            TermNodeCache termNodes,
             boolean bestOnlySearch) throws IOException, InterruptedException {
         framedWord = framedWord.toLowerCase();
 
@@ -323,7 +440,7 @@ public class HMMGraphSearch {
         startingNode.score = scoreStart(hmm, scoringWord, startingState);
         startingNode.realScore = realScoreStart(hmm, scoringWord, startingState);
 
-        return astarSearch(hmm, startingNode, walker,  disallowedLinks, bestOnlySearch);
+        return astarSearch(hmm, startingNode, walker,  disallowedLinks, termNodes, bestOnlySearch);
     }
 
     private float scoreStart(ProfileHMM hmm, String startingKmer, int startingState) {
@@ -367,6 +484,7 @@ public class HMMGraphSearch {
      * @param startingNode      node at which to start the search
      * @param walker            used to find next node(s) to open
      * @param disallowedLinks   node transitions that the algorithm should not take
+     * @param termNodes         edges of the paths already found
      * @return final node in path
      * @throws IOException
      * @throws InterruptedException 
@@ -375,23 +493,25 @@ public class HMMGraphSearch {
             AStarNode startingNode,
             CodonWalker walker,           
             Set<AStarNode> disallowedLinks,
+            TermNodeCache termNodes,
              boolean bestOnlySearch ) throws IOException, InterruptedException {
 
         // if the starting node is already at the end of the model, return it and exit
         if (startingNode.stateNo >= hmm.M()) {
-            System.err.println(startingNode.kmer + "\t-\t-\t-\t-\t-\t" + false);
+            metrics.addSearch(0, 0, 0, 0, 0, 0, Termination.at_end);
             return startingNode;
         }
         
         NodeEnumerator nodeEnumerator = new NodeEnumerator(hmm, hweight);
-        PriorityQueue<AStarNode> open = new PriorityQueue<AStarNode>();
-        Set<AStarNode> closed = new HashSet();
-        AStarNode curr;
+        // every node this search opens, index 0 is the starting node
+        AStarNodeArena arena = new AStarNodeArena(startingNode);
+        // the open list, it also tracks which nodes have been closed
+        AStarNodeHeap open = new AStarNodeHeap(arena);
+        int childCount;
+        int curr;
         // maximum number of insertions and deletions in the path
         int openedNodes = 1;
         
-        Map<AStarNode, AStarNode> openHash = new HashMap<AStarNode, AStarNode>();
-        
         int repeatedNodes = 0;
         int replacedNodes = 0;
         int prunedNodes = 0;
@@ -399,79 +519,80 @@ public class HMMGraphSearch {
         //First step, enumerate all the nodes and remove any disallowed transitions
         //This way we only have to look at the set (disallowedLinks) once 
         // And if this is for the best path search, we only need to open the child node from the saved best edge
-        if ( bestOnlySearch && termNodes.containsKey(startingNode)){            
-            AStarNode childtoopen = termNodes.get(startingNode);
-            for (AStarNode next : nodeEnumerator.enumerateNodes(startingNode, walker, childtoopen)) { 
-                open.add(next);
+        AStarNode childtoopen = bestOnlySearch ? termNodes.get(startingNode) : null;
+        if (childtoopen != null) {
+            childCount = nodeEnumerator.enumerateNodes(arena, 0, walker, childtoopen);
+            for (int next = arena.size() - childCount; next < arena.size(); next++) {
+                open.offer(next);
             }
         }else {
-            for (AStarNode next : nodeEnumerator.enumerateNodes(startingNode, walker)) {                
-                if (!disallowedLinks.contains(next)) {                    
-                    open.add(next);
+            childCount = nodeEnumerator.enumerateNodes(arena, 0, walker, null);
+            for (int next = arena.size() - childCount; next < arena.size(); next++) {
+                if (disallowedLinks.isEmpty() || !disallowedLinks.contains(arena.toKey(next))) {
+                    open.offer(next);
                 }
             }
         }
         
         if (open.isEmpty()) {
+            metrics.addSearch(openedNodes, open.closedSize(), prunedNodes, repeatedNodes, replacedNodes, open.getPeakSize(), Termination.exhausted);
             return null;
         }
         //Decide the intermediate goal
-        AStarNode interGoal = startingNode;
+        int interGoal = 0;
 
+        int polledNodes = 0;
+        Termination termination = Termination.exhausted;
         //While we have more things to close
-        while ((curr = open.poll()) != null) {
-            if (closed.contains(curr)) { // we may need to examine the nodes in the closed set because of the bounded relaxation heuristic used
-                continue;
+        while ((curr = open.poll()) >= 0) {
+            if (openedNodes > maxOpenedNodes) {
+                termination = Termination.node_limit;
+                break;
             }
-
-            if (curr.stateNo >= hmm.M()) { //We're at an "end" state
-                curr.partial = false;
-
-                System.err.println(startingNode.kmer + "\t" + openedNodes + "\t" + open.size() + "\t" + closed.size() + "\t" + repeatedNodes + "\t" + replacedNodes + "\t" + prunedNodes + "\t"+ false);
+            if ((++polledNodes & DEADLINE_CHECK_MASK) == 0 && timeIsUp()) {
+                // out of budget, settle for the best partial path so far
+                termination = Termination.time_limit;
+                break;
+            }
+            if (arena.getStateNo(curr) >= hmm.M()) { //We're at an "end" state
+                metrics.addSearch(openedNodes, open.closedSize(), prunedNodes, repeatedNodes, replacedNodes, open.getPeakSize(), Termination.goal);
                 // compare to the partial goal nodes to see which one has higher score                                   
-                if ((curr.realScore + exitProbabilities[curr.length] - HMMScorer.getNull1(curr.length)) / ln2
-                        > (interGoal.realScore + exitProbabilities[interGoal.length] - HMMScorer.getNull1(interGoal.length)) / ln2) {
-                //if (curr.realScore > interGoal.realScore) {    
+                if (exitScore(arena, curr) > exitScore(arena, interGoal)) {
                     interGoal = curr;
                 } 
                 
+                // only the nodes on the path to the goal outlive the arena
+                AStarNode goal = arena.toNode(interGoal);
+                if (interGoal == curr) {
+                    goal.partial = false;
+                }
                 // find the highest scoring node along the path as the returning goal node  
-                return getHighestScoreNode(interGoal);                   
+                return getHighestScoreNode(goal);                   
             }
 
-            closed.add(curr);            
-            
-            if ((curr.realScore + exitProbabilities[curr.length] - HMMScorer.getNull1(curr.length)) / ln2
-                    > (interGoal.realScore + exitProbabilities[interGoal.length] - HMMScorer.getNull1(interGoal.length)) / ln2) {
+            if (exitScore(arena, curr) > exitScore(arena, interGoal)) {
                 interGoal = curr;
             }           
 
-            Set<AStarNode> tempNodesToOpen = null;
             //if the node is already on a previous shortest path, we just need to open the next child node from the saved edge            
-            if(termNodes.containsKey(curr)) {  
-                AStarNode childtoopen = termNodes.get(curr);
-                tempNodesToOpen = nodeEnumerator.enumerateNodes(curr, walker, childtoopen);               
-            }else {
-                tempNodesToOpen = nodeEnumerator.enumerateNodes(curr, walker);
-            }
+            // (a null childtoopen enumerates all the children)
+            childtoopen = termNodes.get(arena, curr);
+            childCount = nodeEnumerator.enumerateNodes(arena, curr, walker, childtoopen);
             
             //Look at the adjacent nodes
-            for (AStarNode next : tempNodesToOpen) {
+            for (int next = arena.size() - childCount; next < arena.size(); next++) {
                 boolean openNode = false;
                 if(heuristicPruning > 0) {
                     // Don't open nodes that fail to pass this heuristic
                     
-                    if((next.length < 5 || next.negativeCount <= heuristicPruning) && next.realScore > 0.0) {
+                    if((arena.getLength(next) < 5 || arena.getNegativeCount(next) <= heuristicPruning) && arena.getRealScore(next) > 0.0) {
                         // check to see if this node has been opened previously
-                        AStarNode old = openHash.get(next);
-                        if(old != null) {
+                        int old = open.get(next);
+                        if(old >= 0) {
                             // if it has, only open it again if its path is better than the old copy's
                             repeatedNodes++;
-                            if (old.compareTo(next) > 0) {
+                            if (arena.compare(old, next) > 0) {
                                 replacedNodes++;
-                                // remove a node from heap is O(n) operation, we don't need to do this because it does not hurt to have multiple entries in the heap
-                                //open.remove(next);
-                                //open.remove(old);
                                 openNode = true;
                             }
                         } else {
@@ -481,13 +602,11 @@ public class HMMGraphSearch {
                         prunedNodes++;
                     }
                 } else {
-                    AStarNode old = openHash.get(next);
-                    if(old != null) {
+                    int old = open.get(next);
+                    if(old >= 0) {
                         repeatedNodes++;
-                        if (old.compareTo(next) > 0) {
+                        if (arena.compare(old, next) > 0) {
                             replacedNodes++;
-                            //open.remove(next);
-                            //open.remove(old);
                             openNode = true;
                         }
                     } else {
@@ -495,18 +614,26 @@ public class HMMGraphSearch {
                     }
                 }
                 
-                if(openNode) {
-                    openHash.put(next, next);
+                // a better copy of a queued node replaces it, closed nodes aren't reopened
+                if(openNode && open.offer(next)) {
                     openedNodes++;
-                    open.add(next);
                 }
             }
         }
         
-        // if the loop exits, then the search failed to reach the end state
-        System.err.println(startingNode.kmer + "\t" + openedNodes + "\t" + open.size() + "\t" + closed.size() + "\t" + repeatedNodes + "\t" + replacedNodes + "\t" + prunedNodes + "\t"+  true);
-        interGoal.partial = true;
-        return getHighestScoreNode(interGoal);
+        // if the loop exits, then the search failed to reach the end state (or ran out of budget)
+        metrics.addSearch(openedNodes, open.closedSize(), prunedNodes, repeatedNodes, replacedNodes, open.getPeakSize(), termination);
+        AStarNode goal = arena.toNode(interGoal);
+        goal.partial = true;
+        return getHighestScoreNode(goal);
+    }
+
+    /**
+     * Bit score of ending the alignment at node
+     */
+    private static double exitScore(AStarNodeArena arena, int node) {
+        int length = arena.getLength(node);
+        return (arena.getRealScore(node) + exitProbabilities[length] - HMMScorer.getNull1(length)) / ln2;
     }
     
     
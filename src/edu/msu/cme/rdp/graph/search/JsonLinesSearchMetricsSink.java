@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes every search direction's metrics as a line of JSON (see
+ * SearchMetrics.toJson), in the order they finish
+ */
+public class JsonLinesSearchMetricsSink implements SearchMetricsSink {
+
+    private final Writer out;
+
+    public JsonLinesSearchMetricsSink(File file) throws IOException {
+        this(new FileWriter(file));
+    }
+
+    public JsonLinesSearchMetricsSink(Writer out) {
+        this.out = new BufferedWriter(out);
+    }
+
+    public void record(SearchMetrics metrics) {
+        String line = metrics.toJson();
+        synchronized (out) {
+            try {
+                out.write(line);
+                out.write('\n');
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (out) {
+            out.close();
+        }
+    }
+}
@@ -19,11 +19,12 @@ package edu.msu.cme.rdp.graph.search;
 
 import edu.msu.cme.rdp.alignment.hmm.MostProbableHCostHMM;
 import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
-import edu.msu.cme.rdp.graph.filter.NextCodon;
+import edu.msu.cme.rdp.graph.filter.NextEmissions;
 import static edu.msu.cme.rdp.alignment.hmm.TSC.*;
 import edu.msu.cme.rdp.graph.filter.CodonWalker;
 import edu.msu.cme.rdp.graph.search.heuristic.weight.HeuristicWeight;
 import edu.msu.cme.rdp.kmer.Kmer;
+import edu.msu.cme.rdp.kmer.NuclKmer;
 import edu.msu.cme.rdp.readseq.SequenceType;
 import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
 import java.util.HashSet;
@@ -36,20 +37,26 @@ import java.util.Set;
 public class NodeEnumerator {
 
     private HeuristicWeight hweight;
-    private AStarNode next;
-    private NextCodon protEmission = null;
-    private Byte nextNucl = null;
+    private int next;
+    private final NextEmissions nextEmissions = new NextEmissions();
     private char emission;
     private double matchTrans;
     private double insTrans;
     private double delTrans;
-    private Kmer nextKmer;
+    private double thisNodeScore;
+    private long[] nextKmer = new long[0];
     private int nextState;
     private final ProfileHMM hmm;
     private final boolean protSearch;
     private final MostProbableHCostHMM hcost;
     private final long mask = (1L << 61) - 1;
 
+    /**
+     * Most nodes one node can lead to, a match and an insert for each of the
+     * 64 codons plus a delete
+     */
+    public static final int MAX_CHILDREN = 64 * 2 + 1;
+
     public NodeEnumerator(ProfileHMM hmm, HeuristicWeight hweight) {
         this.hmm = hmm;
         this.protSearch = hmm.getAlphabet() == SequenceType.Protein;
@@ -69,68 +76,85 @@ public class NodeEnumerator {
      * @return 
      */
     public Set<AStarNode> enumerateNodes(AStarNode curr, CodonWalker walker, AStarNode childNode) {
+        AStarNodeArena arena = new AStarNodeArena(curr, MAX_CHILDREN + 1);
+        int count = enumerateNodes(arena, 0, walker, childNode);
+
         Set<AStarNode> ret = new HashSet();
+        for (int index = arena.size() - count; index < arena.size(); index++) {
+            ret.add(arena.toNode(index));
+        }
+        return ret;
+    }
 
-        nextState = curr.stateNo + 1;
+    /**
+     * Adds the nodes reachable from curr to the arena
+     *
+     * @param arena     holds curr, the children are added to it
+     * @param curr      index of the node to expand
+     * @param walker
+     * @param childNode if child node is not null, only return the node matching the child node
+     * @return the number of nodes added, they are the last ones in the arena
+     */
+    public int enumerateNodes(AStarNodeArena arena, int curr, CodonWalker walker, AStarNode childNode) {
+        int count = 0;
+        final int words = arena.words;
+        final int currOffset = curr * words;
+        final char currState = arena.states[curr];
+        if (nextKmer.length != words) {
+            nextKmer = new long[words];
+        }
+
+        nextState = arena.stateNos[curr] + 1;
 
-        switch (curr.state) {
+        switch (currState) {
             case 'm':
-                matchTrans = hmm.tsc(curr.stateNo, MM);
-                insTrans = hmm.tsc(curr.stateNo, MI);
-                delTrans = hmm.tsc(curr.stateNo, MD);
+                matchTrans = hmm.tsc(arena.stateNos[curr], MM);
+                insTrans = hmm.tsc(arena.stateNos[curr], MI);
+                delTrans = hmm.tsc(arena.stateNos[curr], MD);
                 break;
             case 'd':
-                matchTrans = hmm.tsc(curr.stateNo, DM);
+                matchTrans = hmm.tsc(arena.stateNos[curr], DM);
                 insTrans = Double.NEGATIVE_INFINITY;
-                delTrans = hmm.tsc(curr.stateNo, DD);
+                delTrans = hmm.tsc(arena.stateNos[curr], DD);
                 break;
             case 'i':
-                matchTrans = hmm.tsc(curr.stateNo, IM);
-                insTrans = hmm.tsc(curr.stateNo, II);
+                matchTrans = hmm.tsc(arena.stateNos[curr], IM);
+                insTrans = hmm.tsc(arena.stateNos[curr], II);
                 delTrans = Double.NEGATIVE_INFINITY;
                 break;
             default:
                 throw new RuntimeException("I hate you.");
         }
 
-        walker.jumpTo(curr.kmer, curr.fwdHash, curr.rcHash);
+        walker.jumpTo(arena.kmers, currOffset, arena.fwdHashes[curr], arena.rcHashes[curr]);
 
+        int numEmissions;
         if (protSearch) {
-            protEmission = walker.getNextCodon();
+            numEmissions = walker.getNextCodons(nextEmissions);
         } else {
-            nextNucl = walker.getNextNucl();
+            numEmissions = walker.getNextNucls(nextEmissions);
         }
 
         double maxMatchEmission = hmm.getMaxMatchEmission(nextState);
-        while ((protSearch && protEmission != null) || (!protSearch && nextNucl != null)) {
+        for (int e = 0; e < numEmissions; e++) {
             if (protSearch) {
-                if (protEmission.getAminoAcid() == '*') {
-                    protEmission = walker.getSibCodon();
+                emission = nextEmissions.getAminoAcid(e);
+                if (emission == '*') {
                     continue;
                 }
 
-                int codon = protEmission.getCodon() & 127;
-                byte b1 = (byte) (codon & 0x3);
-                byte b2 = (byte) (codon >> 2 & 0x3);
-                byte b3 = (byte) (codon >> 4 & 0x3);
-                nextKmer = curr.kmer.shiftLeft(b3).shiftLeft(b2).shiftLeft(b1);
-                emission = protEmission.getAminoAcid();
+                shiftLeft(arena.kmers, currOffset, nextKmer, arena.k, 3, nextEmissions.getEmission(e));
             } else {
-                nextKmer = curr.kmer.shiftLeft((byte) (nextNucl & 3));
-                emission = NuclBinMapping.intToChar[nextNucl];
+                shiftLeft(arena.kmers, currOffset, nextKmer, arena.k, 1, nextEmissions.getEmission(e));
+                emission = NuclBinMapping.intToChar[nextEmissions.getEmission(e)];
             }
 
-            if ( childNode != null && !childNode.kmer.equals(nextKmer)){
-                if (protSearch) {
-                    protEmission = walker.getSibCodon();
-                } else {
-                    nextNucl = walker.getSibNucl();
-                }
+            if ( childNode != null && !AStarNodeArena.sameKmer(nextKmer, 0, words, childNode.kmer)){
                 continue;
             }
             
-            final long fwdHash = walker.getFwdHash();
-            final long rcHash = walker.getRcHash();
+            final long fwdHash = nextEmissions.getFwdHash(e);
+            final long rcHash = nextEmissions.getRcHash(e);
 
             /**
              * ************************************
@@ -139,28 +163,25 @@ public class NodeEnumerator {
              *
              *************************************
              */
-            next = new AStarNode(curr, nextKmer, fwdHash, rcHash, nextState, 'm');
+            next = arena.add(curr, nextKmer, fwdHash, rcHash, nextState, 'm');
 
-            next.realScore = curr.realScore + matchTrans + hmm.msc(nextState, emission);
-            if(next.realScore >= curr.maxScore) {
-                next.maxScore = next.realScore;
-                next.negativeCount = 0;
+            arena.realScores[next] = arena.realScores[curr] + matchTrans + hmm.msc(nextState, emission);
+            if(arena.realScores[next] >= arena.maxScores[curr]) {
+                arena.maxScores[next] = arena.realScores[next];
+                arena.negativeCounts[next] = 0;
             } else {
-                next.maxScore = curr.maxScore;
-                next.negativeCount = curr.negativeCount + 1;
+                arena.maxScores[next] = arena.maxScores[curr];
+                arena.negativeCounts[next] = arena.negativeCounts[curr] + 1;
             }
-            next.emission = emission;
-            next.thisNodeScore = matchTrans + hmm.msc(nextState, emission) - maxMatchEmission;
-            next.length = curr.length + 1;
-            next.score = (curr.score + next.thisNodeScore);
-            next.fval = (int) (HMMGraphSearch.INT_SCALE * (next.score + hweight.w(next) * hcost.computeHeuristicCost('m', nextState)));
-            next.indels = curr.indels;
-
-            if ( childNode!= null && childNode.equals(next)){
-                ret.add(next);
-                return ret;
-            }else {
-                ret.add(next);
+            arena.emissions[next] = emission;
+            thisNodeScore = matchTrans + hmm.msc(nextState, emission) - maxMatchEmission;
+            arena.lengths[next] = arena.lengths[curr] + 1;
+            arena.scores[next] = (arena.scores[curr] + thisNodeScore);
+            arena.fvals[next] = (int) (HMMGraphSearch.INT_SCALE * (arena.scores[next] + hweight.w(arena.lengths[next]) * hcost.computeHeuristicCost('m', nextState)));
+
+            count++;
+            if ( childNode!= null && arena.sameNode(next, childNode)){
+                return count;
             }
 
             /**
@@ -170,32 +191,23 @@ public class NodeEnumerator {
              *
              *************************************
              */
-            if (curr.state != 'd') { //Transitions from delete to insert aren't allowed, don't waste time computing stuff
-                next = new AStarNode(curr, nextKmer, fwdHash, rcHash, curr.stateNo /*
+            if (currState != 'd') { //Transitions from delete to insert aren't allowed, don't waste time computing stuff
+                next = arena.add(curr, nextKmer, fwdHash, rcHash, arena.stateNos[curr] /*
                          * Inserts don't advance the state
                          */, 'i');
-                next.realScore = curr.realScore + insTrans + hmm.isc(nextState, emission);
-                next.maxScore = curr.maxScore;
-                next.negativeCount = curr.negativeCount + 1;
-                next.emission = emission;
-                next.thisNodeScore = insTrans + hmm.isc(nextState, emission);
-                next.length = curr.length + 1;
-                next.score = (curr.score + next.thisNodeScore);
-                next.fval = (int) (HMMGraphSearch.INT_SCALE * (next.score + hweight.w(next) * hcost.computeHeuristicCost('i', curr.stateNo)));
-                next.indels = curr.indels + 1;
-
-                if ( childNode!= null && childNode.equals(next)){
-                    ret.add(next);
-                    return ret;
-                }else {
-                    ret.add(next);
-                }
-            }
+                arena.realScores[next] = arena.realScores[curr] + insTrans + hmm.isc(nextState, emission);
+                arena.maxScores[next] = arena.maxScores[curr];
+                arena.negativeCounts[next] = arena.negativeCounts[curr] + 1;
+                arena.emissions[next] = emission;
+                thisNodeScore = insTrans + hmm.isc(nextState, emission);
+                arena.lengths[next] = arena.lengths[curr] + 1;
+                arena.scores[next] = (arena.scores[curr] + thisNodeScore);
+                arena.fvals[next] = (int) (HMMGraphSearch.INT_SCALE * (arena.scores[next] + hweight.w(arena.lengths[next]) * hcost.computeHeuristicCost('i', arena.stateNos[curr])));
 
-            if (protSearch) {
-                protEmission = walker.getSibCodon();
-            } else {
-                nextNucl = walker.getSibNucl();
+                count++;
+                if ( childNode!= null && arena.sameNode(next, childNode)){
+                    return count;
+                }
             }
         }
 
@@ -206,27 +218,77 @@ public class NodeEnumerator {
          *
          *************************************
          */
-        if (curr.state != 'i') {
-            next = new AStarNode(curr, curr.kmer, curr.fwdHash, curr.rcHash, nextState, 'd');
-
-            next.realScore = curr.realScore + delTrans;
-            next.maxScore = curr.maxScore;
-            next.negativeCount = curr.negativeCount + 1;
-            next.emission = '-';
-            next.thisNodeScore = delTrans - maxMatchEmission;
-            next.length = curr.length;
-            next.score = (curr.score + next.thisNodeScore);
-            next.fval = (int) (HMMGraphSearch.INT_SCALE * (next.score + hweight.w(next) * hcost.computeHeuristicCost('d', nextState)));
-            next.indels = curr.indels + 1;
-
-            if ( childNode!= null && childNode.equals(next)){
-                ret.add(next);
-                return ret;
-            }else {
-                ret.add(next);
+        if (currState != 'i') {
+            System.arraycopy(arena.kmers, currOffset, nextKmer, 0, words);
+            next = arena.add(curr, nextKmer, arena.fwdHashes[curr], arena.rcHashes[curr], nextState, 'd');
+
+            arena.realScores[next] = arena.realScores[curr] + delTrans;
+            arena.maxScores[next] = arena.maxScores[curr];
+            arena.negativeCounts[next] = arena.negativeCounts[curr] + 1;
+            arena.emissions[next] = '-';
+            thisNodeScore = delTrans - maxMatchEmission;
+            arena.lengths[next] = arena.lengths[curr];
+            arena.scores[next] = (arena.scores[curr] + thisNodeScore);
+            arena.fvals[next] = (int) (HMMGraphSearch.INT_SCALE * (arena.scores[next] + hweight.w(arena.lengths[next]) * hcost.computeHeuristicCost('d', nextState)));
+
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Shifts one to three bases on to the end of a packed nucleotide kmer in
+     * one step rather than building a Kmer for each base
+     *
+     * @param src       packed kmer, laid out as Kmer.getPart
+     * @param offset    index of the kmer's first long in src
+     * @param dst       receives the shifted kmer
+     * @param k         kmer length
+     * @param bases     number of bases shifted in, at most 3
+     * @param emitted   the bases packed two bits each, first base in the
+     *                  highest bits
+     */
+    static void shiftLeft(long[] src, int offset, long[] dst, int k, int bases, int emitted) {
+        int parts = (k + 31) / 32;
+        int bits = bases * 2;
+
+        // every part holds 32 bases but the last, which holds the remainder right aligned
+        int lastBases = k - (parts - 1) * 32;
+        for (int index = 0; index < parts; index++) {
+            long part = src[offset + index] << bits;
+            if (index + 2 < parts || (index + 1 < parts && lastBases >= bases)) {
+                int nextBases = (index + 2 < parts) ? 32 : lastBases;
+                part |= src[offset + index + 1] >>> ((nextBases - bases) * 2);
+            } else if (index + 1 < parts) {
+                // the last part is shorter than the shift, the rest comes from the new bases
+                part |= (src[offset + index + 1] << ((bases - lastBases) * 2)) | (emitted >>> (lastBases * 2));
+            } else {
+                part |= emitted;
+                if (lastBases < 32) {
+                    part &= (1L << (lastBases * 2)) - 1;
+                }
             }
+            dst[index] = part;
         }
+    }
 
-        return ret;
+    /**
+     * Shifts the three bases of a codon on to the end of a nucleotide kmer
+     *
+     * @param kmer      kmer to extend
+     * @param codon     the three bases packed two bits each, first base in
+     *                  the highest bits
+     * @return the kmer minus its first three bases, plus the codon
+     */
+    static Kmer shiftCodon(Kmer kmer, int codon) {
+        long[] packed = new long[kmer.packedLength()];
+        for (int index = 0; index < packed.length; index++) {
+            packed[index] = kmer.getPart(index);
+        }
+
+        long[] shifted = new long[packed.length];
+        shiftLeft(packed, 0, shifted, kmer.length(), 3, codon);
+        return new NuclKmer(shifted, kmer.length());
     }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.graph.search.SearchResult.SearchDirection;
+import edu.msu.cme.rdp.graph.utils.BloomFilterStats;
+
+/**
+ * Counters of the k-paths search from one starting kmer in one direction,
+ * summed over the A* searches it runs (the best path, then the spurs of
+ * the next best paths). HMMGraphSearch hands them to its SearchMetricsSink
+ * when the direction is done.
+ */
+public class SearchMetrics {
+
+    /**
+     * How the best path's A* search ended, or the budget that stopped a later
+     * one
+     */
+    public static enum Termination {
+
+        /** reached the end of the model */
+        goal,
+        /** ran out of nodes to open, the best partial path is kept */
+        exhausted,
+        /** the time limit ran out */
+        time_limit,
+        /** opened the most nodes allowed */
+        node_limit,
+        /** the starting kmer was already at the end of the model */
+        at_end,
+        /** the thread was interrupted */
+        interrupted
+    };
+    private final String geneName;
+    private final String queryId;
+    private final String kmer;
+    private final int startState;
+    private final SearchDirection direction;
+    private int searches;
+    private int paths;
+    private long openedNodes;
+    private long closedNodes;
+    private long prunedNodes;
+    private long repeatedNodes;
+    private long replacedNodes;
+    private int peakOpen;
+    private long lookups;
+    private long wallNanos;
+    private long cpuNanos = -1;
+    private Termination termination;
+
+    public SearchMetrics(String geneName, String queryId, String kmer, int startState, SearchDirection direction) {
+        this.geneName = geneName;
+        this.queryId = queryId;
+        this.kmer = kmer;
+        this.startState = startState;
+        this.direction = direction;
+    }
+
+    /**
+     * Adds the counters of one A* search
+     */
+    public void addSearch(long opened, long closed, long pruned, long repeated, long replaced, int peakOpen, Termination termination) {
+        this.openedNodes += opened;
+        this.closedNodes += closed;
+        this.prunedNodes += pruned;
+        this.repeatedNodes += repeated;
+        this.replacedNodes += replaced;
+        this.peakOpen = Math.max(this.peakOpen, peakOpen);
+        if (searches == 0 || termination == Termination.time_limit || termination == Termination.node_limit) {
+            this.termination = termination;
+        }
+        searches++;
+    }
+
+    public void setTermination(Termination termination) {
+        this.termination = termination;
+    }
+
+    /**
+     * Sets the totals of the whole direction
+     *
+     * @param cpuNanos  cpu time of the searching thread, -1 if the jvm can't
+     * measure it
+     */
+    public void finish(int paths, long lookups, long wallNanos, long cpuNanos) {
+        this.paths = paths;
+        this.lookups = lookups;
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+    }
+
+    public String getGeneName() {
+        return geneName;
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    public String getKmer() {
+        return kmer;
+    }
+
+    public int getStartState() {
+        return startState;
+    }
+
+    public SearchDirection getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return the number of A* searches run
+     */
+    public int getSearches() {
+        return searches;
+    }
+
+    /**
+     * @return the number of paths found
+     */
+    public int getPaths() {
+        return paths;
+    }
+
+    public long getOpenedNodes() {
+        return openedNodes;
+    }
+
+    public long getClosedNodes() {
+        return closedNodes;
+    }
+
+    /**
+     * @return the children not opened because their score was falling, see
+     * HMMGraphSearch.PRUNE_NODE
+     */
+    public long getPrunedNodes() {
+        return prunedNodes;
+    }
+
+    /**
+     * @return the children already on the open list
+     */
+    public long getRepeatedNodes() {
+        return repeatedNodes;
+    }
+
+    /**
+     * @return the repeated children better than the queued copy they replaced
+     */
+    public long getReplacedNodes() {
+        return replacedNodes;
+    }
+
+    /**
+     * @return the largest open list of any of the A* searches
+     */
+    public int getPeakOpen() {
+        return peakOpen;
+    }
+
+    /**
+     * @return the kmers looked up in the bloom filter
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    public Termination getTermination() {
+        return termination;
+    }
+
+    /**
+     * @return the metrics as a one line JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        BloomFilterStats.appendJson(json, "gene", geneName);
+        BloomFilterStats.appendJson(json, "query", queryId);
+        BloomFilterStats.appendJson(json, "kmer", kmer);
+        BloomFilterStats.appendJson(json, "start_state", startState);
+        BloomFilterStats.appendJson(json, "direction", direction.toString());
+        BloomFilterStats.appendJson(json, "searches", searches);
+        BloomFilterStats.appendJson(json, "paths", paths);
+        BloomFilterStats.appendJson(json, "nodes_opened", openedNodes);
+        BloomFilterStats.appendJson(json, "nodes_closed", closedNodes);
+        BloomFilterStats.appendJson(json, "nodes_pruned", prunedNodes);
+        BloomFilterStats.appendJson(json, "nodes_repeated", repeatedNodes);
+        BloomFilterStats.appendJson(json, "nodes_replaced", replacedNodes);
+        BloomFilterStats.appendJson(json, "peak_open", peakOpen);
+        BloomFilterStats.appendJson(json, "bloom_lookups", lookups);
+        BloomFilterStats.appendJson(json, "wall_ms", wallNanos / 1e6);
+        BloomFilterStats.appendJson(json, "cpu_ms", (cpuNanos < 0) ? null : cpuNanos / 1e6);
+        BloomFilterStats.appendJson(json, "termination", (termination == null) ? null : termination.toString());
+        json.append('}');
+        return json.toString();
+    }
+}
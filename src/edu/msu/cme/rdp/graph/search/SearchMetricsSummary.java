@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Totals and power of two histograms of the nodes opened and time taken by
+ * the search directions, and the slowest of them, to find the starting
+ * kmers that take up most of a run. Passes every metrics on to another sink
+ * (if there is one) as well.
+ */
+public class SearchMetricsSummary implements SearchMetricsSink {
+
+    /**
+     * Slowest search directions kept
+     */
+    public static final int SLOWEST = 10;
+    private static final Comparator<SearchMetrics> BY_WALL_TIME = new Comparator<SearchMetrics>() {
+        public int compare(SearchMetrics o1, SearchMetrics o2) {
+            return (o1.getWallNanos() < o2.getWallNanos()) ? -1 : ((o1.getWallNanos() == o2.getWallNanos()) ? 0 : 1);
+        }
+    };
+    private final SearchMetricsSink next;
+    private long count = 0;
+    private long openedNodes = 0;
+    private long lookups = 0;
+    private long wallNanos = 0;
+    private long cpuNanos = 0;
+    private final long[] terminations = new long[SearchMetrics.Termination.values().length];
+    private final long[] openedHistogram = new long[64];
+    private final long[] wallHistogram = new long[64];
+    private final PriorityQueue<SearchMetrics> slowest = new PriorityQueue<SearchMetrics>(SLOWEST + 1, BY_WALL_TIME);
+
+    public SearchMetricsSummary() {
+        this(null);
+    }
+
+    public SearchMetricsSummary(SearchMetricsSink next) {
+        this.next = next;
+    }
+
+    /**
+     * @return the histogram bucket of value, bucket i holds [2^(i-1), 2^i),
+     * bucket 0 holds 0
+     */
+    static int bucket(long value) {
+        return (value <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    public void record(SearchMetrics metrics) {
+        synchronized (this) {
+            count++;
+            openedNodes += metrics.getOpenedNodes();
+            lookups += metrics.getLookups();
+            wallNanos += metrics.getWallNanos();
+            if (metrics.getCpuNanos() > 0) {
+                cpuNanos += metrics.getCpuNanos();
+            }
+            if (metrics.getTermination() != null) {
+                terminations[metrics.getTermination().ordinal()]++;
+            }
+            openedHistogram[bucket(metrics.getOpenedNodes())]++;
+            wallHistogram[bucket(metrics.getWallNanos() / 1000000)]++;
+
+            slowest.add(metrics);
+            if (slowest.size() > SLOWEST) {
+                slowest.poll();
+            }
+        }
+        if (next != null) {
+            next.record(metrics);
+        }
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getOpenedNodes() {
+        return openedNodes;
+    }
+
+    public synchronized long getTerminations(SearchMetrics.Termination termination) {
+        return terminations[termination.ordinal()];
+    }
+
+    /**
+     * @return the slowest search directions, slowest first
+     */
+    public synchronized List<SearchMetrics> getSlowest() {
+        List<SearchMetrics> ret = new ArrayList<SearchMetrics>(slowest);
+        Collections.sort(ret, Collections.reverseOrder(BY_WALL_TIME));
+        return ret;
+    }
+
+    public void close() throws IOException {
+        if (next != null) {
+            next.close();
+        }
+    }
+
+    private static String bucketRange(int bucket) {
+        if (bucket == 0) {
+            return "0";
+        }
+        long low = 1L << (bucket - 1);
+        return (bucket == 1) ? "1" : low + "-" + ((low << 1) - 1);
+    }
+
+    public synchronized void print(PrintStream out) {
+        out.println("Search directions: " + count + ", nodes opened " + openedNodes + ", bloom lookups " + lookups
+                + ", wall time " + wallNanos / 1e9 + " s, cpu time " + cpuNanos / 1e9 + " s");
+
+        StringBuilder line = new StringBuilder("Terminations:");
+        for (SearchMetrics.Termination termination : SearchMetrics.Termination.values()) {
+            line.append(' ').append(termination).append('=').append(terminations[termination.ordinal()]);
+        }
+        out.println(line);
+
+        int first = -1, last = -1;
+        for (int bucket = 0; bucket < 64; bucket++) {
+            if (openedHistogram[bucket] > 0 || wallHistogram[bucket] > 0) {
+                first = (first < 0) ? bucket : first;
+                last = bucket;
+            }
+        }
+        out.println("#bucket\tnodes opened\tdirections\twall ms\tdirections");
+        for (int bucket = Math.max(first, 0); bucket <= last; bucket++) {
+            out.println(bucket + "\t" + bucketRange(bucket) + "\t" + openedHistogram[bucket] + "\t" + bucketRange(bucket) + "\t" + wallHistogram[bucket]);
+        }
+
+        out.println("#slowest kmer\tquery\tdirection\twall ms\tnodes opened\ttermination");
+        for (SearchMetrics metrics : getSlowest()) {
+            out.println(metrics.getKmer() + "\t" + metrics.getQueryId() + "\t" + metrics.getDirection() + "\t" + metrics.getWallNanos() / 1000000
+                    + "\t" + metrics.getOpenedNodes() + "\t" + metrics.getTermination());
+        }
+    }
+}
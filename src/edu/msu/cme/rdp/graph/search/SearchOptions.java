@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+/**
+ * Limits on the work done for one SearchTarget. When a limit is reached the
+ * A* search stops and returns the best partial path it has found instead of
+ * running to the end of the model.
+ */
+public class SearchOptions {
+
+    public static final SearchOptions UNLIMITED = new SearchOptions(0, 0);
+
+    private final long timeLimit;
+    private final int maxOpenedNodes;
+
+    /**
+     * @param timeLimit         milliseconds for both directions and all k
+     *                          paths of a starting kmer, 0 for no limit
+     * @param maxOpenedNodes    most nodes a single A* search may open, 0 for
+     *                          no limit. Unlike the time limit this doesn't
+     *                          depend on machine load, so results are
+     *                          repeatable.
+     */
+    public SearchOptions(long timeLimit, int maxOpenedNodes) {
+        if (timeLimit < 0 || maxOpenedNodes < 0) {
+            throw new IllegalArgumentException("Search limits can't be negative");
+        }
+        this.timeLimit = timeLimit;
+        this.maxOpenedNodes = maxOpenedNodes;
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    public int getMaxOpenedNodes() {
+        return maxOpenedNodes;
+    }
+}
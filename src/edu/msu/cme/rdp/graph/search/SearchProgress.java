@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.graph.utils.LogHistogram;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the starting kmer searches started and finished and keeps their
+ * latencies in a LogHistogram, nothing is locked so the search threads can
+ * share one.
+ */
+public class SearchProgress implements SearchProgressMBean {
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final LogHistogram latency = new LogHistogram();
+
+    /**
+     * @return the start time to pass to searchFinished
+     */
+    public long searchStarted() {
+        started.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Counts a search as completed whether it succeeded, ran out of time or
+     * failed
+     */
+    public void searchFinished(long startedAt) {
+        latency.record((System.nanoTime() - startedAt) / 1000000);
+        completed.incrementAndGet();
+    }
+
+    public long getSearchesStarted() {
+        return started.get();
+    }
+
+    public long getSearchesCompleted() {
+        return completed.get();
+    }
+
+    public long getSearchesInFlight() {
+        // read completed first so a search finishing in between isn't counted as negative
+        long done = completed.get();
+        return started.get() - done;
+    }
+
+    public double getSearchesPerSecond() {
+        return completed.get() / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    public long getLatencyMillis50() {
+        return latency.getPercentile(50);
+    }
+
+    public long getLatencyMillis90() {
+        return latency.getPercentile(90);
+    }
+
+    public long getLatencyMillis99() {
+        return latency.getPercentile(99);
+    }
+
+    public long getLatencyMillisMax() {
+        return latency.getMax();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+/**
+ * Progress of a run of starting kmer searches, as seen from a JMX client
+ * such as JConsole. Latencies are of a whole starting kmer, both
+ * directions, in milliseconds.
+ */
+public interface SearchProgressMBean {
+
+    public long getSearchesStarted();
+
+    public long getSearchesCompleted();
+
+    public long getSearchesInFlight();
+
+    public double getSearchesPerSecond();
+
+    public long getLatencyMillis50();
+
+    public long getLatencyMillis90();
+
+    public long getLatencyMillis99();
+
+    public long getLatencyMillisMax();
+}
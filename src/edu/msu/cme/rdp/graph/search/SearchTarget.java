@@ -36,8 +36,13 @@ public class SearchTarget {
     private BloomFilter filter;
     private boolean prot;
     private String geneName, querySeqid, refSeqid;
+    private SearchOptions options;
 
     public SearchTarget(String geneName, String querySeqid, String refSeqid, String kmer, int frame, int startState, ProfileHMM forwardHmm, ProfileHMM reverseHmm, BloomFilter filter) {
+        this(geneName, querySeqid, refSeqid, kmer, frame, startState, forwardHmm, reverseHmm, filter, SearchOptions.UNLIMITED);
+    }
+
+    public SearchTarget(String geneName, String querySeqid, String refSeqid, String kmer, int frame, int startState, ProfileHMM forwardHmm, ProfileHMM reverseHmm, BloomFilter filter, SearchOptions options) {
         this.kmer = kmer;
         this.frame = frame;
         this.startState = startState;
@@ -48,6 +53,7 @@ public class SearchTarget {
         this.geneName = geneName;
         this.querySeqid = querySeqid;
         this.refSeqid = refSeqid;
+        this.options = options;
     }
 
     public String getGeneName() {
@@ -89,4 +95,8 @@ public class SearchTarget {
     public boolean isProt() {
         return prot;
     }
+
+    public SearchOptions getOptions() {
+        return options;
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Edges of previously found paths (node -> next node on the path). When the
+ * search reaches a node on a cached path it only opens the cached child.
+ *
+ * By default a cache lives for one kpaths search (one starting kmer, one
+ * direction) and holds the nodes as found. A bounded cache can be shared
+ * across searches: it keeps at most maxEntries edges, evicting the least
+ * recently used, and stores copies of the nodes without their discoveredFrom
+ * links so it doesn't keep whole paths alive.
+ */
+public class TermNodeCache {
+
+    /**
+     * Rough heap size of one cached edge (two detached nodes with their
+     * kmers and the map entry), used to turn a memory cap into an entry count
+     */
+    public static final int BYTES_PER_ENTRY = 350;
+
+    private final Map<AStarNode, AStarNode> edges;
+    private final int maxEntries;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Unbounded cache for a single search
+     */
+    public TermNodeCache() {
+        this.maxEntries = -1;
+        this.edges = new HashMap<AStarNode, AStarNode>();
+    }
+
+    /**
+     * Bounded cache that can be shared by the searches of one thread
+     *
+     * @param maxEntries    maximum number of edges kept
+     */
+    public TermNodeCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one edge");
+        }
+        this.maxEntries = maxEntries;
+        this.edges = new LinkedHashMap<AStarNode, AStarNode>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<AStarNode, AStarNode> eldest) {
+                if (size() > TermNodeCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param maxBytes  approximate heap to use
+     * @return a bounded cache holding about maxBytes worth of edges
+     */
+    public static TermNodeCache withMemoryLimit(long maxBytes) {
+        return new TermNodeCache((int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / BYTES_PER_ENTRY)));
+    }
+
+    /**
+     * @return the next node on a cached path through node, or null
+     */
+    public AStarNode get(AStarNode node) {
+        AStarNode ret = edges.get(node);
+        if (ret == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return ret;
+    }
+
+    /**
+     * Same as get(AStarNode) for a node in an AStarNodeArena, only builds
+     * the lookup key if the cache has any edges
+     */
+    public AStarNode get(AStarNodeArena arena, int node) {
+        if (edges.isEmpty()) {
+            misses++;
+            return null;
+        }
+        return get(arena.toKey(node));
+    }
+
+    public void put(AStarNode node, AStarNode next) {
+        if (maxEntries > 0) {
+            node = detach(node);
+            next = detach(next);
+        }
+        edges.put(node, next);
+    }
+
+    private static AStarNode detach(AStarNode node) {
+        return new AStarNode(null, node.kmer, node.fwdHash, node.rcHash, node.stateNo, node.state);
+    }
+
+    public boolean isBounded() {
+        return maxEntries > 0;
+    }
+
+    public int size() {
+        return edges.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public double getHitRate() {
+        return (hits + misses == 0) ? 0 : hits / (double) (hits + misses);
+    }
+}
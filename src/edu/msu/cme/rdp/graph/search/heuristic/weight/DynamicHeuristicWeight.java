@@ -18,7 +18,6 @@
 package edu.msu.cme.rdp.graph.search.heuristic.weight;
 
 import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
-import edu.msu.cme.rdp.graph.search.AStarNode;
 
 /**
  *
@@ -35,8 +34,8 @@ public class DynamicHeuristicWeight extends HeuristicWeight {
     }
 
     @Override
-    public double w(AStarNode node) {
-        return (1 + epsilon) * (1 - node.length/hmm.M());
+    public double w(int length) {
+        return (1 + epsilon) * (1 - length/hmm.M());
     }
     
 }
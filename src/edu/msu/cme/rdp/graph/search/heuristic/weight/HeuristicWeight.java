@@ -76,6 +76,17 @@ public abstract class HeuristicWeight {
      * @param node  current AStarNode to find the heuristic cost of
      * @return      amount by which to multiply the heuristic cost
      */
-    public abstract double w(AStarNode node);
+    public double w(AStarNode node) {
+        return w(node.length);
+    }
+
+    /**
+     * Same as w(AStarNode) for a node at the given path length, for searches
+     * that don't keep their nodes as AStarNode objects.
+     *
+     * @param length    length of the path to the current node
+     * @return          amount by which to multiply the heuristic cost
+     */
+    public abstract double w(int length);
     
 }
@@ -18,7 +18,6 @@
 package edu.msu.cme.rdp.graph.search.heuristic.weight;
 
 import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
-import edu.msu.cme.rdp.graph.search.AStarNode;
 
 /**
  *
@@ -39,8 +38,8 @@ public class RevisedDynamicHeuristicWeight extends HeuristicWeight {
     }
 
     @Override
-    public double w(AStarNode node) {
-        double dn = hmm.M() - node.length;
+    public double w(int length) {
+        double dn = hmm.M() - length;
         return Math.max(1.0, (1.0+epsilon) * dn / hmm.M());
     }
     
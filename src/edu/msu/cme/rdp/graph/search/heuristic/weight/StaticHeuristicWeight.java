@@ -18,7 +18,6 @@
 package edu.msu.cme.rdp.graph.search.heuristic.weight;
 
 import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
-import edu.msu.cme.rdp.graph.search.AStarNode;
 
 /**
  *
@@ -35,7 +34,7 @@ public class StaticHeuristicWeight extends HeuristicWeight {
     }
 
     @Override
-    public double w(AStarNode node) {
+    public double w(int length) {
         return 1.0 + epsilon;
     }
     
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a BGZF file (blocked gzip, as written by bgzip and samtools)
+ * with a pool of threads. Every block is a gzip member of at most 64k that
+ * records its own compressed size, so blocks can be read off the input
+ * without inflating them and handed to the pool, a few per thread ahead of
+ * the reader. Blocks are returned in file order.
+ */
+public class BgzfInputStream extends InputStream {
+
+    private static final int BLOCK_HEADER_LENGTH = 18;
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final int readAhead;
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private boolean inputDone = false;
+
+    private byte[] current = new byte[0];
+    private int pos = 0;
+
+    /**
+     * @param in        the compressed stream
+     * @param threads   number of threads inflating blocks
+     */
+    public BgzfInputStream(InputStream in, int threads) {
+        this.in = in;
+        this.readAhead = threads * BLOCKS_PER_THREAD;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bgzf-inflater");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == current.length && !nextBlock()) {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == current.length && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - pos;
+    }
+
+    /**
+     * Moves to the next non empty block, queueing more blocks as needed
+     *
+     * @return false at the end of the input
+     */
+    private boolean nextBlock() throws IOException {
+        do {
+            while (!inputDone && pending.size() < readAhead) {
+                final byte[] block = readBlock();
+                if (block == null) {
+                    inputDone = true;
+                } else {
+                    pending.add(executor.submit(new Callable<byte[]>() {
+                        public byte[] call() throws IOException {
+                            return inflate(block);
+                        }
+                    }));
+                }
+            }
+
+            if (pending.isEmpty()) {
+                return false;
+            }
+
+            try {
+                current = pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while inflating", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to inflate block", e.getCause());
+            }
+            pos = 0;
+        } while (current.length == 0);
+
+        return true;
+    }
+
+    /**
+     * @return the next whole block, header to trailer, or null at the end of
+     * the input
+     */
+    private byte[] readBlock() throws IOException {
+        byte[] header = new byte[BLOCK_HEADER_LENGTH];
+        int n = readFully(header, 0, header.length);
+        if (n == 0) {
+            return null;
+        } else if (n < header.length) {
+            throw new EOFException("Truncated BGZF block header");
+        }
+
+        if (!isBgzfHeader(header)) {
+            throw new IOException("Not a BGZF block, the input may be plain gzip");
+        }
+        int blockSize = ((header[16] & 0xff) | ((header[17] & 0xff) << 8)) + 1;
+
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, header.length);
+        if (readFully(block, header.length, blockSize - header.length) < blockSize - header.length) {
+            throw new EOFException("Truncated BGZF block");
+        }
+        return block;
+    }
+
+    /**
+     * @return true if b starts with a gzip header carrying the BGZF extra
+     * field, the only extra subfield, holding the block size
+     */
+    static boolean isBgzfHeader(byte[] b) {
+        return b.length >= BLOCK_HEADER_LENGTH
+                && (b[0] & 0xff) == 0x1f && (b[1] & 0xff) == 0x8b && b[2] == 8 && (b[3] & 4) != 0
+                && b[10] == 6 && b[11] == 0 && b[12] == 'B' && b[13] == 'C' && b[14] == 2 && b[15] == 0;
+    }
+
+    private static byte[] inflate(byte[] block) throws IOException {
+        int cdataLength = block.length - BLOCK_HEADER_LENGTH - 8;
+        int isize = readInt(block, block.length - 4);
+        byte[] ret = new byte[isize];
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, BLOCK_HEADER_LENGTH, cdataLength);
+            int n = 0;
+            while (n < isize) {
+                int inflated = inflater.inflate(ret, n, isize - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != isize) {
+                throw new IOException("BGZF block inflated to " + n + " bytes, expected " + isize);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block", e);
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(ret, 0, ret.length);
+        if ((int) crc.getValue() != readInt(block, block.length - 8)) {
+            throw new IOException("BGZF block failed its CRC check");
+        }
+        return ret;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+    }
+
+    private int readFully(byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(b, off + total, len - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        in.close();
+    }
+}
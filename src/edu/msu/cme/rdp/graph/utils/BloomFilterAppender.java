@@ -18,29 +18,44 @@ package edu.msu.cme.rdp.graph.utils;
 
 import edu.msu.cme.rdp.graph.utils.BloomFilterStats;
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
-import edu.msu.cme.rdp.readseq.readers.Sequence;
-import edu.msu.cme.rdp.readseq.readers.SequenceReader;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.Date;
 
 /**
+ * Adds reads to an existing bloom filter. By default the filter file is
+ * updated in place (see BloomFilter.openForAppend), only the pages holding
+ * bits that change are written, with -c a full copy is written to
+ * <bloomfilter>.appended and the original is left alone. Serialized and
+ * counting filters are always copied.
  *
  * @author wangqion
  */
 public class BloomFilterAppender {
 
     public static void main(String[] args) throws Exception {
-        if (args.length != 2) {
-            System.err.println("USAGE: BloomFilterAppender <bloomfilter> <read_file>");
+        boolean copy = false;
+        if (args.length > 0 && args[0].equals("-c")) {
+            copy = true;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        if (args.length < 2) {
+            System.err.println("USAGE: BloomFilterAppender [-c] <bloomfilter> <read_file> ...");
+            System.err.println("\t-c\n\t\twrite the result to <bloomfilter>.appended instead of updating the filter in place,");
+            System.err.println("\t\tserialized (.ser) and counting filters are always copied");
             System.exit(1);
         }
 
         File bloomFilter = new File(args[0]);
-        BloomFilter filter = BloomFilter.fromFile(bloomFilter);
+        if (!copy && !BloomFilter.isBinaryFile(bloomFilter)) {
+            System.err.println("WARNING: " + bloomFilter + " isn't in the binary format, writing a copy to " + bloomFilter + ".appended");
+            copy = true;
+        } else if (!copy && BloomFilter.readNumBits(bloomFilter) > 1) {
+            System.err.println("WARNING: " + bloomFilter + " is a counting filter, writing a copy to " + bloomFilter + ".appended");
+            copy = true;
+        }
+        BloomFilter filter = copy ? BloomFilter.fromFile(bloomFilter, true) : BloomFilter.openForAppend(bloomFilter);
         BloomFilter.GraphBuilder graphBuilder = filter.new GraphBuilder();
 
         long seqCount = 0;
@@ -48,7 +63,7 @@ public class BloomFilterAppender {
         args = Arrays.copyOfRange(args, 1, args.length);
         System.err.println("Starting to build bloom filter at " + new Date());
         System.err.println("*  reads file(s):       " + Arrays.asList(args));
-        System.err.println("*  bloom output:     " + bloomFilter);
+        System.err.println("*  bloom output:     " + (copy ? bloomFilter + ".appended" : bloomFilter + " (in place)"));
         System.err.println("*  kmer size:        " + filter.getKmerSize());
         System.err.println("*  hash size log2:   " + filter.getHashSizeLog2());
         System.err.println("*  hash count:       " + filter.getHashCount());
@@ -58,29 +73,29 @@ public class BloomFilterAppender {
 
         for (String f : args) {
             File readFile = new File(f);
-            SequenceReader reader = new SequenceReader(readFile);
-            Sequence seq;
+            EncodedSeqReader reader = new EncodedSeqReader(readFile);
 
-            while ((seq = reader.readNextSequence()) != null) {
+            while (reader.next()) {
 
                 seqCount++;
                 if ((seqCount % 1000000) == 0) {
                     System.err.println("p: " + seqCount + " kmers added " + graphBuilder.getKmerAdded());
                 }
 
-                graphBuilder.addString(seq.getSeqString().toCharArray());
+                graphBuilder.addEncoded(reader.getBases(), 0, reader.getLength());
             }
             reader.close();
         }
 
+        if (copy) {
+            filter.writeTo(new File(bloomFilter.getAbsolutePath() + ".appended"));
+        } else {
+            filter.finishAppend();
+        }
+
         BloomFilterStats.printStats(filter, System.out);
         long endTime = System.currentTimeMillis();
 
         System.err.println("time to build BloomFilter: " + (endTime - startTime) / 60000.0 + " minutes");
-
-        ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(bloomFilter.getAbsolutePath() + ".appended")));
-
-        oos.writeObject(filter);
-        oos.close();
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import java.io.File;
+
+/**
+ * Rewrites a serialized (.ser) bloom filter in the binary format so it can be
+ * memory-mapped
+ */
+public class BloomFilterConverter {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("USAGE: BloomFilterConverter <serialized_bloom_filter> <bloom_out>");
+            System.exit(1);
+        }
+
+        File inFile = new File(args[0]);
+        File outFile = new File(args[1]);
+
+        if (BloomFilter.isBinaryFile(inFile)) {
+            System.err.println("Bloom filter " + inFile + " is already in the binary format");
+            System.exit(1);
+        }
+
+        long startTime = System.currentTimeMillis();
+        BloomFilter filter = BloomFilter.fromFile(inFile);
+        System.err.println("Bloom filter loaded in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        startTime = System.currentTimeMillis();
+        filter.writeTo(outFile);
+        System.err.println("Bloom filter written to " + outFile + " in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        BloomFilterStats.printStats(filter, System.out);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Shrinks a bloom filter to a smaller power of two size so it can be searched
+ * on a machine with less memory than the one it was built on, see
+ * BloomFilter.fold. The false positive rate goes up, the predicted rates
+ * before and after are printed.
+ */
+public class BloomFilterFolder {
+
+    public static void main(String[] args) throws Exception {
+        int threads = 1;
+
+        int optCount = 0;
+        while (optCount < args.length && args[optCount].startsWith("-")) {
+            if (args[optCount].equals("-t") && optCount + 1 < args.length) {
+                threads = Integer.parseInt(args[++optCount]);
+            } else {
+                System.err.println("Unknown option " + args[optCount]);
+                System.exit(1);
+            }
+            optCount++;
+        }
+        args = Arrays.copyOfRange(args, optCount, args.length);
+
+        if (args.length != 3 || threads < 1) {
+            System.err.println("USAGE: BloomFilterFolder [-t threads] <bloom_in> <size_log2> <bloom_out>");
+            System.err.println("\t-t threads\n\t\tnumber of threads folding the filter, default 1");
+            System.err.println("\tbloom_in\n\t\tbloom filter to fold");
+            System.err.println("\tsize_log2\n\t\tlog2 of the folded filter's size in buckets, at most the input's size");
+            System.err.println("\tbloom_out\n\t\tfile to write the folded bloom filter to, can't be the input");
+            System.exit(1);
+        }
+
+        File inputFile = new File(args[0]);
+        int sizeLog2 = Integer.parseInt(args[1]);
+        File outputFile = new File(args[2]);
+        if (inputFile.getCanonicalFile().equals(outputFile.getCanonicalFile())) {
+            throw new IllegalArgumentException("Output " + outputFile + " is also the input");
+        }
+
+        System.err.println("Starting to fold bloom filter at " + new Date());
+        System.err.println("*  bloom input:      " + inputFile);
+        System.err.println("*  bloom output:     " + outputFile);
+        System.err.println("*  size log2:        " + sizeLog2);
+        System.err.println("*  threads:          " + threads);
+
+        long startTime = System.currentTimeMillis();
+
+        BloomFilter filter = BloomFilter.fromFile(inputFile);
+        BloomFilter folded = filter.fold(sizeLog2, threads);
+        folded.writeTo(outputFile);
+
+        System.err.println("Predicted false positive rate before folding: " + BloomFilterStats.predictFalsePositiveRate(filter));
+        BloomFilterStats.printStats(folded, System.out);
+        System.err.println("time to fold bloom filter: " + (System.currentTimeMillis() - startTime) / 60000.0 + " minutes");
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Merges bloom filters built from disjoint shards of a read set, e.g. on
+ * different machines, in to one filter of all the reads. The shards have to be
+ * built with the same parameters and hash values (BloomFilterBuilder -H), and
+ * with -k to keep their counts if a cutoff is to be applied to the merged
+ * counts.
+ */
+public class BloomFilterMerger {
+
+    public static void main(String[] args) throws Exception {
+        int threads = 1;
+        int cutoff = 0;
+
+        int optCount = 0;
+        while (optCount < args.length && args[optCount].startsWith("-")) {
+            if (args[optCount].equals("-t") && optCount + 1 < args.length) {
+                threads = Integer.parseInt(args[++optCount]);
+            } else if (args[optCount].equals("-c") && optCount + 1 < args.length) {
+                cutoff = Integer.parseInt(args[++optCount]);
+            } else {
+                System.err.println("Unknown option " + args[optCount]);
+                System.exit(1);
+            }
+            optCount++;
+        }
+        args = Arrays.copyOfRange(args, optCount, args.length);
+
+        if (args.length < 3 || threads < 1) {
+            System.err.println("USAGE: BloomFilterMerger [-t threads] [-c cutoff] <bloom_out> <bloom_in> <bloom_in> ...");
+            System.err.println("\t-t threads\n\t\tnumber of threads merging the filters, default 1");
+            System.err.println("\t-c cutoff\n\t\tfor filters built with counts kept (BloomFilterBuilder -k), collapse the merged counts,");
+            System.err.println("\t\tkeeping kmers seen at least cutoff times. Without it the merged filter keeps its counts");
+            System.err.println("\tbloom_out\n\t\tfile to write the merged bloom filter to, can't be one of the inputs");
+            System.err.println("\tbloom_in\n\t\tbloom filters built with the same parameters and hash values (BloomFilterBuilder -H)");
+            System.exit(1);
+        }
+
+        File outputFile = new File(args[0]);
+        List<File> inputFiles = new ArrayList<File>();
+        for (int index = 1; index < args.length; index++) {
+            File f = new File(args[index]);
+            if (f.getCanonicalFile().equals(outputFile.getCanonicalFile())) {
+                throw new IllegalArgumentException("Output " + outputFile + " is also an input");
+            }
+            inputFiles.add(f);
+        }
+
+        System.err.println("Starting to merge bloom filters at " + new Date());
+        System.err.println("*  input filters:    " + inputFiles);
+        System.err.println("*  bloom output:     " + outputFile);
+        System.err.println("*  threads:          " + threads);
+
+        long startTime = System.currentTimeMillis();
+
+        // the first filter is mapped copy-on-write and the others added to it
+        BloomFilter filter = BloomFilter.fromFile(inputFiles.get(0), true);
+        List<BloomFilter> others = new ArrayList<BloomFilter>();
+        for (File f : inputFiles.subList(1, inputFiles.size())) {
+            others.add(BloomFilter.fromFile(f));
+        }
+        filter.merge(others, threads);
+
+        if (cutoff > 0) {
+            if (filter.getNumBits() == 1) {
+                System.err.println("WARNING: the filters have already been collapsed, ignoring the cutoff");
+            }
+            filter.collapse(cutoff);
+        }
+
+        filter.writeTo(outputFile);
+        BloomFilterStats.printStats(filter, System.out);
+        System.err.println("time to merge bloom filters: " + (System.currentTimeMillis() - startTime) / 60000.0 + " minutes");
+    }
+}
@@ -17,11 +17,9 @@
 package edu.msu.cme.rdp.graph.utils;
 
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.io.PrintStream;
+import java.util.Arrays;
 import org.apache.commons.lang.StringUtils;
 
 /**
@@ -30,6 +28,48 @@ import org.apache.commons.lang.StringUtils;
  */
 public class BloomFilterStats {
 
+    /**
+     * Predicted false positive rate of a bloom filter with m bits and k
+     * hashes after inserting n kmers
+     *
+     * For the blocked layout each block is a small standard bloom filter
+     * holding a Poisson distributed number of kmers, the rate is the
+     * average over that distribution (Putze, Sanders and Singler 2007)
+     */
+    public static double predictFalsePositiveRate(long n, long m, int k, int layout) {
+        if (layout != BloomFilter.LAYOUT_BLOCKED) {
+            //(1-e^(-k*((n+.5)/(m-1))))^k
+            return Math.pow((1 - Math.pow(Math.E, -k * ((n + .5) / (m - 1)))), k);
+        }
+
+        double blockSize = 1 << BloomFilter.BLOCK_SIZE_LOG2;
+        double lambda = n * blockSize / m;
+        long maxKmers = (long) (lambda + 10 * Math.sqrt(lambda) + 10);
+
+        double fpr = 0;
+        double logP = -lambda;  // log of the poisson probability of i kmers in a block
+        for (long i = 0; i <= maxKmers; i++) {
+            if (i > 0) {
+                logP += Math.log(lambda) - Math.log(i);
+            }
+            fpr += Math.exp(logP) * Math.pow(1 - Math.pow(1 - 1 / blockSize, k * i), k);
+        }
+
+        return fpr;
+    }
+
+    /**
+     * @return predicted false positive rate of the filter for the unique
+     * kmers it holds
+     */
+    public static double predictFalsePositiveRate(BloomFilter filter) {
+        return predictFalsePositiveRate(filter.getUniqueKmers(), 1L << filter.getHashSizeLog2(), filter.getHashCount(), filter.getLayout());
+    }
+
+    public static String getLayoutName(int layout) {
+        return (layout == BloomFilter.LAYOUT_BLOCKED) ? "blocked (" + (1 << BloomFilter.BLOCK_SIZE_LOG2) + " bit blocks)" : "standard";
+    }
+
     public static void printStats(BloomFilter filter, PrintStream out) {
 
 
@@ -37,8 +77,7 @@ public class BloomFilterStats {
         long m = (long) Math.pow(2, filter.getHashSizeLog2());
         int k = filter.getHashCount();
 
-        //(1-e^(-k*((n+.5)/(m-1))))^k
-        double falsePositiveRate = Math.pow((1 - Math.pow(Math.E, -k * ((n + .5) / (m - 1)))), k);
+        double falsePositiveRate = predictFalsePositiveRate(n, m, k, filter.getLayout());
 
         out.println("Bloom filter created on:       " + filter.getCreatedOn());
         out.println("Serializable id:               " + BloomFilter.serialVersionUID);
@@ -51,7 +90,9 @@ public class BloomFilterStats {
         out.println("Bitset size log2:              " + filter.getBitsetSizeLog2());
         out.println();
         out.println("Number of hashes (k):          " + filter.getHashCount());
+        out.println("Layout:                        " + getLayoutName(filter.getLayout()));
         out.println("Hash function name:            " + filter.getHasherClassName());
+        out.println("Checksum:                      " + ((filter.getChecksum() == 0) ? "not computed" : Long.toHexString(filter.getChecksum())));
         out.println();
         out.println("Bitset Mask:                   " + StringUtils.leftPad(Long.toBinaryString(filter.getBitsetMask()), 64, '0'));
         out.println("Hash mask:                     " + StringUtils.leftPad(Long.toBinaryString(filter.getHashMask()), 64, '0'));
@@ -68,18 +109,225 @@ public class BloomFilterStats {
         out.println("Predicted false positive rate: " + falsePositiveRate);
     }
 
+    /**
+     * Values measured from the words of a filter rather than predicted from
+     * its header, see measure
+     */
+    public static class Measurement {
+
+        /**
+         * Non-empty buckets in each bitset
+         */
+        public final long[] occupied;
+        public final long totalOccupied;
+        public final long minOccupied;
+        public final long maxOccupied;
+        /**
+         * Random kmers looked up and how many were found, 0 if not sampled
+         */
+        public final long samples;
+        public final long hits;
+
+        public Measurement(long[] occupied, long samples, long hits) {
+            this.occupied = occupied;
+            long total = 0;
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (long o : occupied) {
+                total += o;
+                min = Math.min(min, o);
+                max = Math.max(max, o);
+            }
+            this.totalOccupied = total;
+            this.minOccupied = min;
+            this.maxOccupied = max;
+            this.samples = samples;
+            this.hits = hits;
+        }
+
+        public double getMeanOccupied() {
+            return (double) totalOccupied / occupied.length;
+        }
+
+        /**
+         * @return standard deviation over mean of the bitset occupancies, 0
+         * when the buckets are spread evenly over the bitsets
+         */
+        public double getOccupancySkew() {
+            double mean = getMeanOccupied();
+            if (mean == 0) {
+                return 0;
+            }
+            double sumSq = 0;
+            for (long o : occupied) {
+                sumSq += (o - mean) * (o - mean);
+            }
+            return Math.sqrt(sumSq / occupied.length) / mean;
+        }
+
+        public double getEmpiricalFalsePositiveRate() {
+            return (samples == 0) ? Double.NaN : (double) hits / samples;
+        }
+    }
+
+    /**
+     * Counts the non-empty buckets and looks up random kmers, see
+     * BloomFilter.countOccupied and BloomFilter.countRandomHits
+     *
+     * @param samples   random kmers to look up, 0 to skip
+     */
+    public static Measurement measure(BloomFilter filter, int threads, long samples, long seed) throws InterruptedException {
+        long[] occupied = filter.countOccupied(threads);
+        long hits = (samples > 0) ? filter.countRandomHits(samples, seed, threads) : 0;
+        return new Measurement(occupied, samples, hits);
+    }
+
+    /**
+     * Predicted false positive rate of a standard layout filter with the
+     * given fraction of buckets set, the chance all k probes of a kmer land
+     * on set buckets. Blocked filters fill unevenly so this would understate
+     * their rate, NaN is returned for them.
+     */
+    public static double fillFalsePositiveRate(BloomFilter filter, long occupied) {
+        if (filter.getLayout() == BloomFilter.LAYOUT_BLOCKED) {
+            return Double.NaN;
+        }
+        return Math.pow((double) occupied / (1L << filter.getHashSizeLog2()), filter.getHashCount());
+    }
+
+    /**
+     * Prints the values measured from the words, to follow printStats
+     */
+    public static void printMeasurement(BloomFilter filter, Measurement measured, PrintStream out) {
+        long m = 1L << filter.getHashSizeLog2();
+        double mean = measured.getMeanOccupied();
+
+        out.println();
+        out.println("Occupied buckets:              " + measured.totalOccupied);
+        out.println("Fill ratio:                    " + (double) measured.totalOccupied / m);
+        out.println("Bitset occupancy min/mean/max: " + measured.minOccupied + " / " + mean + " / " + measured.maxOccupied);
+        out.println("Bitset occupancy max/mean:     " + ((mean == 0) ? 0 : measured.maxOccupied / mean));
+        out.println("Bitset occupancy stddev/mean:  " + measured.getOccupancySkew());
+        out.println("Unique kmers from occupancy:   " + filter.estimateKmers(measured.totalOccupied));
+        if (filter.getLayout() != BloomFilter.LAYOUT_BLOCKED) {
+            out.println("False positive rate from fill: " + fillFalsePositiveRate(filter, measured.totalOccupied));
+        }
+        if (measured.samples > 0) {
+            out.println("Empirical false positive rate: " + measured.getEmpiricalFalsePositiveRate() + " (" + measured.hits + " of " + measured.samples + " random kmers)");
+        }
+    }
+
+    /**
+     * Prints the header stats, and the measured values if measured isn't
+     * null, as one JSON object
+     */
+    public static void printJson(BloomFilter filter, Measurement measured, PrintStream out) {
+        long m = 1L << filter.getHashSizeLog2();
+        StringBuilder json = new StringBuilder("{");
+        appendJson(json, "created_on", filter.getCreatedOn().getTime());
+        appendJson(json, "hash_size_log2", filter.getHashSizeLog2());
+        appendJson(json, "size_bits", m);
+        appendJson(json, "num_bitsets", filter.getNumBitsets());
+        appendJson(json, "bitset_size_log2", filter.getBitsetSizeLog2());
+        appendJson(json, "bits_per_bucket", filter.getNumBits());
+        appendJson(json, "hash_count", filter.getHashCount());
+        appendJson(json, "layout", (filter.getLayout() == BloomFilter.LAYOUT_BLOCKED) ? "blocked" : "standard");
+        appendJson(json, "hash_function", filter.getHasherClassName());
+        appendJson(json, "checksum", (filter.getChecksum() == 0) ? null : Long.toHexString(filter.getChecksum()));
+        appendJson(json, "kmer_size", filter.getKmerSize());
+        appendJson(json, "total_kmers", filter.getTotalKmers());
+        appendJson(json, "total_strings", filter.getTotalStrings());
+        appendJson(json, "unique_kmers", filter.getUniqueKmers());
+        if (filter.getSingltonKmers() > -1) {
+            appendJson(json, "mercy_kmers", filter.getMercyKmers());
+            appendJson(json, "singleton_kmers", filter.getSingltonKmers());
+        }
+        appendJson(json, "predicted_fpr", predictFalsePositiveRate(filter));
+
+        if (measured != null) {
+            appendJson(json, "occupied_buckets", measured.totalOccupied);
+            appendJson(json, "fill_ratio", (double) measured.totalOccupied / m);
+            appendJson(json, "bitset_occupied_min", measured.minOccupied);
+            appendJson(json, "bitset_occupied_mean", measured.getMeanOccupied());
+            appendJson(json, "bitset_occupied_max", measured.maxOccupied);
+            appendJson(json, "bitset_occupied_cv", measured.getOccupancySkew());
+            appendJson(json, "estimated_unique_kmers", filter.estimateKmers(measured.totalOccupied));
+            appendJson(json, "fill_fpr", fillFalsePositiveRate(filter, measured.totalOccupied));
+            appendJson(json, "fpr_samples", measured.samples);
+            appendJson(json, "fpr_hits", measured.hits);
+            appendJson(json, "empirical_fpr", measured.getEmpiricalFalsePositiveRate());
+        }
+        json.append('}');
+        out.println(json);
+    }
+
+    /**
+     * Adds a field to a JSON object being written to a single line, the
+     * object's opening brace must already be in json
+     */
+    public static void appendJson(StringBuilder json, String name, Object value) {
+        if (json.length() > 1) {
+            json.append(", ");
+        }
+        json.append('"').append(name).append("\": ");
+        if (value == null || (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite()))) {
+            json.append("null");
+        } else if (value instanceof String) {
+            json.append('"').append(((String) value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        } else {
+            json.append(value);
+        }
+    }
+
     public static void main(String[] args) throws Exception {
-        if (args.length != 1) {
-            System.err.println("USAGE: BloomFilterStats <bloom_filter>");
+        int threads = 1;
+        long samples = 1000000;
+        long seed = 1;
+        boolean json = false;
+        boolean headerOnly = false;
+
+        int optCount = 0;
+        while (optCount < args.length && args[optCount].startsWith("-")) {
+            if (args[optCount].equals("-t") && optCount + 1 < args.length) {
+                threads = Integer.parseInt(args[++optCount]);
+            } else if (args[optCount].equals("-s") && optCount + 1 < args.length) {
+                samples = Long.parseLong(args[++optCount]);
+            } else if (args[optCount].equals("-r") && optCount + 1 < args.length) {
+                seed = Long.parseLong(args[++optCount]);
+            } else if (args[optCount].equals("-j")) {
+                json = true;
+            } else if (args[optCount].equals("-q")) {
+                headerOnly = true;
+            } else {
+                System.err.println("Unknown option " + args[optCount]);
+                System.exit(1);
+            }
+            optCount++;
+        }
+        args = Arrays.copyOfRange(args, optCount, args.length);
+
+        if (args.length != 1 || threads < 1 || samples < 0) {
+            System.err.println("USAGE: BloomFilterStats [-t threads] [-s samples] [-r seed] [-j] [-q] <bloom_filter>");
+            System.err.println("\t-t threads\n\t\tnumber of threads reading the filter, default 1");
+            System.err.println("\t-s samples\n\t\tnumber of random kmers looked up to measure the false positive rate, default 1000000, 0 to skip");
+            System.err.println("\t-r seed\n\t\tseed of the random kmers, default 1, the same seed and threads give the same rate for a filter");
+            System.err.println("\t-j\n\t\tprint the stats as a JSON object");
+            System.err.println("\t-q\n\t\tonly print the values stored in the header, don't read the filter");
             System.exit(1);
         }
 
         File bloomFile = new File(args[0]);
 
-        ObjectInputStream ois = ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        BloomFilter filter = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter filter = BloomFilter.fromFile(bloomFile);
+        Measurement measured = headerOnly ? null : measure(filter, threads, samples, seed);
 
-        printStats(filter, System.out);
+        if (json) {
+            printJson(filter, measured, System.out);
+        } else {
+            printStats(filter, System.out);
+            if (measured != null) {
+                printMeasurement(filter, measured, System.out);
+            }
+        }
     }
 }
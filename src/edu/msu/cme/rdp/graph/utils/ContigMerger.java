@@ -34,9 +34,17 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
@@ -63,77 +71,92 @@ public class ContigMerger {
         }
     }
 
-    private static List<MergedContig> mergeAllContigs(Map<String, Sequence> leftContigs, Map<String, Sequence> rightContigs, String kmer, String gene, ProfileHMM hmm) {
-        List<MergedContig> ret = new ArrayList();
+    /**
+     * Scores every left and right contig combination of a starting kmer, in
+     * the order of the left then right contigs. With an executor the
+     * combinations are scored on its threads, which only read the hmm,
+     * otherwise they are scored before this returns.
+     *
+     * @return the scored combinations in order, see getScored
+     */
+    private static List<Future<MergedContig>> scoreCombinations(Map<String, Sequence> leftContigs, Map<String, Sequence> rightContigs, String kmer, final String gene, final ProfileHMM hmm, ExecutorService executor) {
+        List<Future<MergedContig>> ret = new ArrayList();
         int k = kmer.length();
 
+        if (hmm.getAlphabet() != SequenceType.Protein && hmm.getAlphabet() != SequenceType.Nucleotide) {
+            throw new IllegalStateException("Cannot handle hmm alpha " + hmm.getAlphabet());
+        }
+
         for (Sequence leftContig : leftContigs.values()) {
             String leftSeq = leftContig.getSeqString();
             leftSeq = leftSeq.substring(0, leftSeq.length() - k);
 
             for (Sequence rightContig : rightContigs.values()) {
-                String seq = leftSeq + rightContig.getSeqString();
-
-                MergedContig mergedContig = new MergedContig();
-                if (hmm.getAlphabet() == SequenceType.Protein) {
-                    mergedContig.nuclSeq = seq;
-                    seq = mergedContig.protSeq = ProteinUtils.getInstance().translateToProtein(seq, true, 11);
-                } else if (hmm.getAlphabet() == SequenceType.Nucleotide) {
-                    mergedContig.nuclSeq = seq;
+                final String seq = leftSeq + rightContig.getSeqString();
+                final String leftName = leftContig.getSeqName();
+                final String rightName = rightContig.getSeqName();
+
+                FutureTask<MergedContig> task = new FutureTask<MergedContig>(new Callable<MergedContig>() {
+                    public MergedContig call() {
+                        MergedContig mergedContig = new MergedContig();
+                        String scoredSeq = mergedContig.nuclSeq = seq;
+                        if (hmm.getAlphabet() == SequenceType.Protein) {
+                            scoredSeq = mergedContig.protSeq = ProteinUtils.getInstance().translateToProtein(seq, true, 11);
+                        }
+                        mergedContig.score = ForwardScorer.scoreSequence(hmm, scoredSeq);
+                        mergedContig.leftContig = leftName;
+                        mergedContig.rightContig = rightName;
+                        mergedContig.length = scoredSeq.length();
+                        mergedContig.gene = gene;
+                        return mergedContig;
+                    }
+                });
+                if (executor == null) {
+                    task.run();
                 } else {
-                    throw new IllegalStateException("Cannot handle hmm alpha " + hmm.getAlphabet());
+                    executor.execute(task);
                 }
-                mergedContig.score = ForwardScorer.scoreSequence(hmm, seq);
-                mergedContig.leftContig = leftContig.getSeqName();
-                mergedContig.rightContig = rightContig.getSeqName();
-                mergedContig.length = seq.length();
-                mergedContig.gene = gene;
-
-                ret.add(mergedContig);
+                ret.add(task);
             }
         }
 
         return ret;
     }
 
-    private static List<MergedContig> mergeContigs(Map<String, Sequence> leftContigs, Map<String, Sequence> rightContigs, String kmer, String gene, ProfileHMM hmm) {
+    /**
+     * Waits for the combinations of a starting kmer to be scored
+     */
+    private static List<MergedContig> getScored(List<Future<MergedContig>> scored) {
+        List<MergedContig> ret = new ArrayList<MergedContig>(scored.size());
+        try {
+            for (Future<MergedContig> future : scored) {
+                ret.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while merging contigs", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to score merged contig", e.getCause());
+        }
+        return ret;
+    }
+
+    /**
+     * Keeps the best scoring combinations, highest first, such that no left
+     * or right contig is used twice
+     */
+    private static List<MergedContig> mergeContigs(List<MergedContig> candidates) {
         List<MergedContig> finalized = new ArrayList();
-        List<MergedContig> candidates = new ArrayList();
-        int k = kmer.length();
+        candidates = new ArrayList(candidates);
 
         Map<String, Set<MergedContig>> contigToMerges = new HashMap();
 
-        for (Sequence leftContig : leftContigs.values()) {
-            String leftSeq = leftContig.getSeqString();
-            leftSeq = leftSeq.substring(0, leftSeq.length() - k);
-
-            for (Sequence rightContig : rightContigs.values()) {
-                String seq = leftSeq + rightContig.getSeqString();
-
-                MergedContig mergedContig = new MergedContig();
-                if (hmm.getAlphabet() == SequenceType.Protein) {
-                    mergedContig.nuclSeq = seq;
-                    seq = mergedContig.protSeq = ProteinUtils.getInstance().translateToProtein(seq, true, 11);
-                } else if (hmm.getAlphabet() == SequenceType.Nucleotide) {
-                    mergedContig.nuclSeq = seq;
-                } else {
-                    throw new IllegalStateException("Cannot handle hmm alpha " + hmm.getAlphabet());
+        for (MergedContig mergedContig : candidates) {
+            for (String seqid : new String[]{mergedContig.leftContig, mergedContig.rightContig}) {
+                if (!contigToMerges.containsKey(seqid)) {
+                    contigToMerges.put(seqid, new HashSet());
                 }
-                mergedContig.score = ForwardScorer.scoreSequence(hmm, seq);
-                mergedContig.leftContig = leftContig.getSeqName();
-                mergedContig.rightContig = rightContig.getSeqName();
-                mergedContig.length = seq.length();
-                mergedContig.gene = gene;
-
-                candidates.add(mergedContig);
-
-                for (String seqid : new String[]{mergedContig.leftContig, mergedContig.rightContig}) {
-                    if (!contigToMerges.containsKey(seqid)) {
-                        contigToMerges.put(seqid, new HashSet());
-                    }
 
-                    contigToMerges.get(seqid).add(mergedContig);
-                }
+                contigToMerges.get(seqid).add(mergedContig);
             }
         }
 
@@ -152,6 +175,32 @@ public class ContigMerger {
         return finalized;
     }
 
+    /**
+     * Writes the merges of a starting kmer, waiting for them to be scored
+     *
+     * @return the number of merges written to the fasta files
+     */
+    private static int writeMerges(List<Future<MergedContig>> scored, boolean all, String shortSampleName, double minBits, int minProtLength,
+            PrintStream out, FastaWriter protSeqOut, FastaWriter nuclSeqOut) throws IOException {
+        List<MergedContig> candidates = getScored(scored);
+        List<MergedContig> mergedContigs = all ? candidates : mergeContigs(candidates);
+        int written = 0;
+
+        for (MergedContig mc : mergedContigs) {
+            String mergedId = shortSampleName + mc.gene + "_" + mc.leftContig + "_" + mc.rightContig;
+            out.println(mergedId + "\t" + mc.length + "\t" + mc.score);
+
+            if (mc.score > minBits && mc.length > minProtLength) {
+                if (protSeqOut != null) {
+                    protSeqOut.writeSeq(mergedId, mc.protSeq);
+                }
+                nuclSeqOut.writeSeq(mergedId, mc.nuclSeq);
+                written++;
+            }
+        }
+        return written;
+    }
+
     public static void main(String[] args) throws IOException {
         final BufferedReader hmmgsResultReader;
         final IndexedSeqReader nuclContigReader;
@@ -165,12 +214,14 @@ public class ContigMerger {
         final boolean prot;
         final boolean all;
         final String shortSampleName;
+        final int threads;
 
         options.addOption("a", "all", false, "Generate all combinations for multiple paths, instead of just the best");
         options.addOption("b", "min-bits", true, "Minimum bits score");
         options.addOption("l", "min-length", true, "Minimum length");
         options.addOption("s", "short_samplename", true, "short sample name, to be used as part of contig identifiers. This allow analyzing contigs together from different samples in downstream analysis ");
         options.addOption("o", "out", true, "Write output to file instead of stdout");
+        options.addOption("t", "threads", true, "Number of threads scoring the merged contigs (default 1), output is in the same order as with one thread");
 
         try {
             CommandLine line = new PosixParser().parse(options, args);
@@ -201,6 +252,15 @@ public class ContigMerger {
 
             all = line.hasOption("all");
 
+            if (line.hasOption("threads")) {
+                threads = Integer.valueOf(line.getOptionValue("threads"));
+                if (threads < 1) {
+                    throw new Exception("Number of threads must be at least 1");
+                }
+            } else {
+                threads = 1;
+            }
+
             args = line.getArgs();
 
             if (args.length != 3) {
@@ -242,7 +302,24 @@ public class ContigMerger {
         long startTime = System.currentTimeMillis();
         String kmer = null;
         String geneName = null;
-        
+
+        /*
+         * The combinations of a starting kmer are scored on the pool while
+         * the next starting kmers are read and queued, the merges are written
+         * a starting kmer at a time in input order
+         */
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                // daemon threads don't keep the jvm running if reading the input fails
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        }) : null;
+        LinkedList<List<Future<MergedContig>>> pending = new LinkedList<List<Future<MergedContig>>>();
+        int pendingCombinations = 0;
+        int maxPendingCombinations = threads * 256;
+
         while ((line = hmmgsResultReader.readLine()) != null) {
             if (line.startsWith("#")) {
                 continue;
@@ -269,22 +346,16 @@ public class ContigMerger {
             SearchDirection dir = SearchDirection.valueOf(lexemes[8]);
             if (dir != lastDir) {
                 if (dir == SearchDirection.left) {                    
-                    List<MergedContig> mergedContigs = all? mergeAllContigs(leftContigs, rightContigs, kmer, geneName, hmm): mergeContigs(leftContigs, rightContigs, kmer, geneName, hmm);
+                    List<Future<MergedContig>> scored = scoreCombinations(leftContigs, rightContigs, kmer, geneName, hmm, executor);
+                    pending.add(scored);
+                    pendingCombinations += scored.size();
                     
                     contigsMerged++;
 
-                    for (MergedContig mc : mergedContigs) {
-                        String mergedId = shortSampleName + geneName + "_" + mc.leftContig + "_" + mc.rightContig;
-                        out.println( mergedId + "\t" + mc.length + "\t" + mc.score);
-
-                        if (mc.score > minBits && mc.length > minProtLength) {
-                            if (prot) {
-                                protSeqOut.writeSeq(mergedId, mc.protSeq);
-                            }
-                            nuclSeqOut.writeSeq(mergedId, mc.nuclSeq);
-
-                            writtenMerges++;
-                        }
+                    while (pendingCombinations > maxPendingCombinations) {
+                        scored = pending.removeFirst();
+                        pendingCombinations -= scored.size();
+                        writtenMerges += writeMerges(scored, all, shortSampleName, minBits, minProtLength, out, protSeqOut, nuclSeqOut);
                     }
                     leftContigs.clear();
                     rightContigs.clear();
@@ -305,21 +376,14 @@ public class ContigMerger {
         }
 
         if (!leftContigs.isEmpty() || !rightContigs.isEmpty()) {
-            List<MergedContig> mergedContigs = all? mergeAllContigs(leftContigs, rightContigs, kmer, geneName, hmm): mergeContigs(leftContigs, rightContigs, kmer, geneName, hmm);
-           
-            for (MergedContig mc : mergedContigs) {
-                String mergedId = shortSampleName + mc.gene + "_" + mc.leftContig + "_" + mc.rightContig;
-                out.println(mergedId + "\t" + mc.length + "\t" + mc.score);
-                contigsMerged++;
-
-                if (mc.score > minBits && mc.length > minProtLength) {
-                    if (prot) {
-                        protSeqOut.writeSeq(mergedId, mc.protSeq);
-                    }
-                    nuclSeqOut.writeSeq(mergedId, mc.nuclSeq);
-                    writtenMerges++;
-                }
-            }
+            pending.add(scoreCombinations(leftContigs, rightContigs, kmer, geneName, hmm, executor));
+            contigsMerged++;
+        }
+        while (!pending.isEmpty()) {
+            writtenMerges += writeMerges(pending.removeFirst(), all, shortSampleName, minBits, minProtLength, out, protSeqOut, nuclSeqOut);
+        }
+        if (executor != null) {
+            executor.shutdown();
         }
 
         out.close();
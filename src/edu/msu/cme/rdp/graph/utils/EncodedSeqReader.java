@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Streaming fasta/fastq reader for building bloom filters. Records are parsed
+ * straight from a large byte buffer filled from a channel, and the bases are
+ * written, already 2-bit encoded (see NuclBinMapping), to a byte array reused
+ * for every record, ready for GraphBuilder.addEncoded. Bases that aren't
+ * nucleotides are encoded as -1, headers and quality scores are skipped.
+ *
+ * SequenceReader builds a Sequence, a String and a char[] per read, this
+ * reader builds nothing per read.
+ */
+public class EncodedSeqReader {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 22;
+    /**
+     * 2-bit code of each byte, -1 for anything that isn't a nucleotide
+     */
+    private static final byte[] encoding = new byte[256];
+
+    static {
+        for (int c = 0; c < encoding.length; c++) {
+            encoding[c] = (c < NuclBinMapping.validateLookup.length) ? NuclBinMapping.validateLookup[c] : -1;
+        }
+    }
+
+    private final ReadableByteChannel channel;
+    private final byte[] buf;
+    private final ByteBuffer byteBuffer;
+    private int pos = 0;
+    private int limit = 0;
+    private long position = 0;
+    private boolean eof = false;
+
+    private byte[] bases = new byte[1024];
+    private int length = 0;
+
+    /**
+     * Reads a fasta or fastq file, possibly gzipped
+     */
+    public EncodedSeqReader(File f) throws IOException {
+        this(f, 1);
+    }
+
+    /**
+     * @param threads   number of threads decompressing the file if it's
+     *                  BGZF, see SeqInput
+     */
+    public EncodedSeqReader(File f, int threads) throws IOException {
+        this(open(f, threads));
+    }
+
+    public EncodedSeqReader(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public EncodedSeqReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buf = new byte[bufferSize];
+        this.byteBuffer = ByteBuffer.wrap(buf);
+    }
+
+    private static ReadableByteChannel open(File f, int threads) throws IOException {
+        if (SeqInput.isGzip(f)) {
+            return Channels.newChannel(SeqInput.open(f, threads));
+        }
+        return new FileInputStream(f).getChannel();
+    }
+
+    /**
+     * Encoded bases of the current record, only the first getLength() are
+     * valid and the array is overwritten by the next call to next
+     */
+    public byte[] getBases() {
+        return bases;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return number of bytes of the input parsed so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the current record's bases as a new char array, anything that
+     * wasn't a nucleotide becomes 'n'
+     */
+    public char[] toCharArray() {
+        return toCharArray(bases, 0, length);
+    }
+
+    /**
+     * @return len encoded bases starting at off as a new char array, anything
+     * that wasn't a nucleotide becomes 'n'
+     */
+    public static char[] toCharArray(byte[] bases, int off, int len) {
+        char[] ret = new char[len];
+        for (int index = 0; index < len; index++) {
+            byte b = bases[off + index];
+            ret[index] = (b < 0) ? 'n' : NuclBinMapping.intToChar[b];
+        }
+        return ret;
+    }
+
+    /**
+     * Moves to the next record
+     *
+     * @return false if there are no more records
+     */
+    public boolean next() throws IOException {
+        length = 0;
+
+        int b;
+        while ((b = read()) == '\n' || b == '\r') {
+        }
+
+        if (b == -1) {
+            return false;
+        } else if (b == '>') {
+            skipLine();
+            readSequence('>');
+        } else if (b == '@') {
+            skipLine();
+            readSequence('+');
+            if (read() != '+') {
+                throw new IOException("Unexpected end of fastq file, no quality line");
+            }
+            skipLine();
+            skipQuality();
+        } else {
+            throw new IOException("Expected '>' or '@' at the start of a record, found '" + (char) b + "'");
+        }
+
+        return true;
+    }
+
+    /**
+     * Encodes sequence lines up to the end of the input or the next line
+     * starting with end
+     */
+    private void readSequence(int end) throws IOException {
+        int b;
+        while ((b = peek()) != -1 && b != end) {
+            while ((b = read()) != -1 && b != '\n') {
+                if (b == '\r' || b == ' ' || b == '\t') {
+                    continue;
+                }
+                if (length == bases.length) {
+                    bases = Arrays.copyOf(bases, length << 1);
+                }
+                bases[length++] = encoding[b];
+            }
+        }
+    }
+
+    /**
+     * Skips as many quality characters as there were bases, they can span
+     * lines and start with '@', so they can't be told apart from a header
+     * any other way
+     */
+    private void skipQuality() throws IOException {
+        int count = 0;
+        while (count < length) {
+            int b = read();
+            if (b == -1) {
+                throw new IOException("Unexpected end of fastq file, quality shorter than sequence");
+            }
+            if (b != '\n' && b != '\r') {
+                count++;
+            }
+        }
+        skipLine();
+    }
+
+    private void skipLine() throws IOException {
+        int b;
+        while ((b = read()) != -1 && b != '\n') {
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        position++;
+        return buf[pos++] & 0xff;
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        byteBuffer.clear();
+        int n;
+        while ((n = channel.read(byteBuffer)) == 0) {
+        }
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non negative values that any number of threads can record
+ * into without locking. Every power of two is split into SUB_BUCKETS equal
+ * buckets, so a percentile is at most 1/SUB_BUCKETS off the value recorded,
+ * values below SUB_BUCKETS are exact.
+ */
+public class LogHistogram {
+
+    private static final int SUB_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * @return the bucket of value, negative values go in bucket 0
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (value < 0) ? 0 : (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return the smallest value that goes in bucket
+     */
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BITS) - 1;
+        return ((long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1)))) << shift;
+    }
+
+    /**
+     * @return the largest value that goes in bucket
+     */
+    static long highestValue(int bucket) {
+        return (bucket == BUCKETS - 1) ? Long.MAX_VALUE : lowestValue(bucket + 1) - 1;
+    }
+
+    public void record(long value) {
+        counts.incrementAndGet(bucket(value));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            count += counts.get(bucket);
+        }
+        return count;
+    }
+
+    /**
+     * Values recorded while this runs may or may not be counted, so the
+     * percentiles of a histogram still being written to are approximate
+     *
+     * @param percentile between 0 and 100
+     * @return the highest value of the bucket holding the given percentile of
+     * the values recorded, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+            count += snapshot[bucket];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        int bucket = 0;
+        for (; bucket < BUCKETS - 1; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                break;
+            }
+        }
+        return highestValue(bucket);
+    }
+
+    /**
+     * @return the highest value of the highest bucket with a value in it, 0
+     * if nothing was recorded
+     */
+    public long getMax() {
+        for (int bucket = BUCKETS - 1; bucket >= 0; bucket--) {
+            if (counts.get(bucket) > 0) {
+                return highestValue(bucket);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Temporary store for reads that need a second pass, such as the reads the
+ * mercy kmer pass of BloomFilterBuilder has to look at again. Reads are
+ * written to a temporary file 2-bits per base, with the positions of any
+ * bases that weren't nucleotides listed before them, and are read back
+ * encoded the same way as from EncodedSeqReader, without parsing the input
+ * again.
+ *
+ * Reads are added through Writers, each packs reads in to a buffer of its own
+ * and appends the buffer to the file when it fills up, so threads adding
+ * reads should each have their own Writer.
+ */
+public class PackedReadCache {
+
+    private static final int FLUSH_SIZE = 1 << 20;
+
+    private final File file;
+    private OutputStream out;
+    private long numReads = 0;
+    private long numBases = 0;
+
+    /**
+     * @param dir   directory to create the temporary file in, null for the
+     *              default temporary directory
+     */
+    public PackedReadCache(File dir) throws IOException {
+        file = File.createTempFile("reads", ".packed", dir);
+        file.deleteOnExit();
+        out = new BufferedOutputStream(new FileOutputStream(file), FLUSH_SIZE);
+    }
+
+    public Writer newWriter() {
+        return new Writer();
+    }
+
+    public class Writer {
+
+        private byte[] buf = new byte[FLUSH_SIZE];
+        private int size = 0;
+        private long reads = 0;
+        private long bases = 0;
+
+        /**
+         * Adds a read encoded as by EncodedSeqReader
+         *
+         * @param bases encoded read, negative values are non nucleotides
+         * @param off   index of the first base
+         * @param len   number of bases
+         */
+        public void add(byte[] bases, int off, int len) throws IOException {
+            int end = off + len;
+            int invalid = 0;
+            for (int index = off; index < end; index++) {
+                if (bases[index] < 0) {
+                    invalid++;
+                }
+            }
+
+            int recordSize = 8 + 4 * invalid + (len + 3) / 4;
+            if (size + recordSize > buf.length) {
+                if (size > 0) {
+                    flush();
+                }
+                if (recordSize > buf.length) {
+                    buf = new byte[recordSize];
+                }
+            }
+
+            putInt(len);
+            putInt(invalid);
+            for (int index = off; index < end; index++) {
+                if (bases[index] < 0) {
+                    putInt(index - off);
+                }
+            }
+            for (int index = off; index < end; index += 4) {
+                int packed = 0;
+                for (int b = index; b < index + 4; b++) {
+                    packed <<= 2;
+                    if (b < end) {
+                        packed |= bases[b] & 3;
+                    }
+                }
+                buf[size++] = (byte) packed;
+            }
+
+            reads++;
+            this.bases += len;
+        }
+
+        private void putInt(int v) {
+            buf[size++] = (byte) (v >>> 24);
+            buf[size++] = (byte) (v >>> 16);
+            buf[size++] = (byte) (v >>> 8);
+            buf[size++] = (byte) v;
+        }
+
+        /**
+         * Writes the reads added since the last flush to the cache, has to be
+         * called once a writer is done
+         */
+        public void flush() throws IOException {
+            synchronized (PackedReadCache.this) {
+                if (out == null) {
+                    throw new IOException("Read cache has already been opened for reading");
+                }
+                out.write(buf, 0, size);
+                numReads += reads;
+                numBases += bases;
+            }
+            size = 0;
+            reads = 0;
+            bases = 0;
+        }
+    }
+
+    public synchronized long getNumReads() {
+        return numReads;
+    }
+
+    public synchronized long getNumBases() {
+        return numBases;
+    }
+
+    /**
+     * @return size of the temporary file in bytes
+     */
+    public synchronized long getSize() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+        return file.length();
+    }
+
+    /**
+     * Finishes writing, every writer has to have been flushed, and returns a
+     * reader over the reads in the order they were flushed. Can be called
+     * more than once to read the reads again.
+     */
+    public synchronized Reader open() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader(numReads);
+    }
+
+    /**
+     * Removes the temporary file
+     */
+    public synchronized void delete() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        file.delete();
+    }
+
+    public class Reader {
+
+        private final DataInputStream in;
+        private long remaining;
+        private int[] invalid = new int[16];
+        private byte[] packed = new byte[256];
+        private byte[] bases = new byte[1024];
+        private int length = 0;
+
+        private Reader(long numReads) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), FLUSH_SIZE));
+            this.remaining = numReads;
+        }
+
+        /**
+         * Encoded bases of the current read, only the first getLength() are
+         * valid and the array is overwritten by the next call to next
+         */
+        public byte[] getBases() {
+            return bases;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return the current read's bases as a new char array, anything that
+         * wasn't a nucleotide becomes 'n'
+         */
+        public char[] toCharArray() {
+            return EncodedSeqReader.toCharArray(bases, 0, length);
+        }
+
+        /**
+         * Moves to the next read
+         *
+         * @return false if there are no more reads
+         */
+        public boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+
+            length = in.readInt();
+            int numInvalid = in.readInt();
+            if (numInvalid > invalid.length) {
+                invalid = new int[numInvalid];
+            }
+            for (int index = 0; index < numInvalid; index++) {
+                invalid[index] = in.readInt();
+            }
+
+            int packedLength = (length + 3) / 4;
+            if (packedLength > packed.length) {
+                packed = new byte[packedLength];
+            }
+            if (packedLength * 4 > bases.length) {
+                bases = new byte[packedLength * 4];
+            }
+            in.readFully(packed, 0, packedLength);
+
+            for (int index = 0; index < packedLength; index++) {
+                int p = packed[index];
+                int b = index << 2;
+                bases[b] = (byte) ((p >>> 6) & 3);
+                bases[b + 1] = (byte) ((p >>> 4) & 3);
+                bases[b + 2] = (byte) ((p >>> 2) & 3);
+                bases[b + 3] = (byte) (p & 3);
+            }
+            for (int index = 0; index < numInvalid; index++) {
+                bases[invalid[index]] = -1;
+            }
+
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts the reads and kmers a tool has gone through. Every thread adds to
+ * its own Counter, which only it writes, and the counters are only summed
+ * when a JMX client asks, so counting costs two ordered stores and no lock
+ * or fence. Add once per read or per batch, never per kmer.
+ */
+public class ProgressMonitor implements ProgressMonitorMBean {
+
+    public static final String DOMAIN = "edu.msu.cme.rdp.graph";
+
+    /**
+     * Reads and kmers added by a single thread
+     */
+    public static final class Counter {
+
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong kmers = new AtomicLong();
+
+        private Counter() {
+        }
+
+        /**
+         * Only the thread that owns the counter may call this
+         */
+        public void add(long reads, long kmers) {
+            // single writer, so there's no need for a read-modify-write
+            this.reads.lazySet(this.reads.get() + reads);
+            this.kmers.lazySet(this.kmers.get() + kmers);
+        }
+    }
+    private final long startNanos = System.nanoTime();
+    private final List<Counter> counters = new CopyOnWriteArrayList<Counter>();
+    private final ThreadLocal<Counter> threadCounter = new ThreadLocal<Counter>() {
+        @Override
+        protected Counter initialValue() {
+            return newCounter();
+        }
+    };
+    private volatile String phase = "starting";
+    private volatile Collection<?> queue;
+    private long sampleNanos = startNanos;
+    private long sampleReads = 0;
+    private long sampleKmers = 0;
+    private double readRate = 0;
+    private double kmerRate = 0;
+
+    /**
+     * @return a new counter, to hand to a thread that isn't the one using it
+     * yet
+     */
+    public Counter newCounter() {
+        Counter counter = new Counter();
+        counters.add(counter);
+        return counter;
+    }
+
+    /**
+     * @return the calling thread's counter
+     */
+    public Counter counter() {
+        return threadCounter.get();
+    }
+
+    public void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * @param queue the reads or tasks waiting for a worker, its size is
+     * reported as the queue depth
+     */
+    public void setQueue(Collection<?> queue) {
+        this.queue = queue;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getReads() {
+        long ret = 0;
+        for (Counter counter : counters) {
+            ret += counter.reads.get();
+        }
+        return ret;
+    }
+
+    public long getKmers() {
+        long ret = 0;
+        for (Counter counter : counters) {
+            ret += counter.kmers.get();
+        }
+        return ret;
+    }
+
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    private synchronized void sample() {
+        long now = System.nanoTime();
+        if (now - sampleNanos < 1000000000L) {
+            return;
+        }
+        long reads = getReads();
+        long kmers = getKmers();
+        double seconds = (now - sampleNanos) / 1e9;
+        readRate = (reads - sampleReads) / seconds;
+        kmerRate = (kmers - sampleKmers) / seconds;
+        sampleNanos = now;
+        sampleReads = reads;
+        sampleKmers = kmers;
+    }
+
+    public synchronized double getReadsPerSecond() {
+        sample();
+        return readRate;
+    }
+
+    public synchronized double getKmersPerSecond() {
+        sample();
+        return kmerRate;
+    }
+
+    public double getAverageReadsPerSecond() {
+        return getReads() / getElapsedSeconds();
+    }
+
+    public double getAverageKmersPerSecond() {
+        return getKmers() / getElapsedSeconds();
+    }
+
+    public int getQueueDepth() {
+        Collection<?> q = queue;
+        return (q == null) ? -1 : q.size();
+    }
+
+    public long getHeapUsedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Registers an MBean with the platform MBean server as
+     * DOMAIN:type=&lt;type&gt;, replacing one registered before under the
+     * same name. Monitoring is optional, so failures are only reported.
+     */
+    public static void register(Object mbean, String type) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + type);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+        } catch (JMException e) {
+            System.err.println("Failed to register the " + type + " MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return a monitor registered as DOMAIN:type=&lt;type&gt;
+     */
+    public static ProgressMonitor register(String type) {
+        ProgressMonitor ret = new ProgressMonitor();
+        register(ret, type);
+        return ret;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+/**
+ * Progress of a tool reading through a set of reads, as seen from a JMX
+ * client such as JConsole
+ */
+public interface ProgressMonitorMBean {
+
+    public String getPhase();
+
+    public long getReads();
+
+    public long getKmers();
+
+    public double getElapsedSeconds();
+
+    /**
+     * @return reads per second since the previous sample, taken at most
+     * once a second by whichever client asks
+     */
+    public double getReadsPerSecond();
+
+    public double getKmersPerSecond();
+
+    public double getAverageReadsPerSecond();
+
+    public double getAverageKmersPerSecond();
+
+    /**
+     * @return batches or tasks waiting for a worker, -1 if the tool has no
+     * queue
+     */
+    public int getQueueDepth();
+
+    public long getHeapUsedBytes();
+}
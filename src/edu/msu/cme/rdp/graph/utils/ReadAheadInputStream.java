@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a stream on its own thread, a few chunks ahead of the caller. Used
+ * for plain gzip input, which can only be inflated from start to end, so the
+ * inflating at least overlaps with parsing the reads.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int CHUNKS_AHEAD = 8;
+    private static final byte[] END_OF_STREAM = new byte[0];
+    /**
+     * How long close waits for the read-ahead thread to finish the chunk it is
+     * reading, in milliseconds
+     */
+    private static final long CLOSE_WAIT_MS = 10000;
+
+    private final InputStream in;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(CHUNKS_AHEAD);
+    private final Thread reader;
+    private volatile IOException error;
+
+    private byte[] current = new byte[0];
+    private int pos = 0;
+
+    public ReadAheadInputStream(InputStream in) {
+        this.in = in;
+        this.reader = new Thread(new Runnable() {
+            public void run() {
+                fillChunks();
+            }
+        }, "read-ahead");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void fillChunks() {
+        try {
+            while (true) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int len = 0;
+                int n;
+                while (len < chunk.length && (n = in.read(chunk, len, chunk.length - len)) >= 0) {
+                    len += n;
+                }
+                if (len == 0) {
+                    break;
+                }
+                chunks.put((len == chunk.length) ? chunk : Arrays.copyOf(chunk, len));
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        try {
+            chunks.put(END_OF_STREAM);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /**
+     * @return false at the end of the stream
+     */
+    private boolean nextChunk() throws IOException {
+        if (current == END_OF_STREAM) {
+            return false;
+        }
+        try {
+            current = chunks.take();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while reading ahead", e);
+        }
+        pos = 0;
+        if (current == END_OF_STREAM) {
+            if (error != null) {
+                throw error;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == current.length && !nextChunk()) {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == current.length && !nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // closing the stream under a read in progress would corrupt the inflater state
+        reader.interrupt();
+        try {
+            reader.join(CLOSE_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        in.close();
+    }
+}
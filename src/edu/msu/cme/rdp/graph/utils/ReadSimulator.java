@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import edu.msu.cme.rdp.alignment.hmm.HMMER3bParser;
+import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.kmer.io.KmerStart;
+import edu.msu.cme.rdp.kmer.io.KmerStartsWriter;
+import edu.msu.cme.rdp.readseq.SequenceType;
+import edu.msu.cme.rdp.readseq.readers.Sequence;
+import edu.msu.cme.rdp.readseq.readers.SequenceReader;
+import edu.msu.cme.rdp.readseq.utils.ProteinUtils;
+import edu.msu.cme.rdp.readseq.writers.FastaWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+
+/**
+ * Simulates a metagenome from reference genes so searches can be benchmarked
+ * and checked against known answers without real read sets.
+ *
+ * The references are nucleotide sequences aligned to the hmm, the same form
+ * KmerStartsFromKnown takes: upper case bases and '-' are model (match)
+ * columns, lower case bases and '.' are inserts. Every reference is diverged
+ * into a number of strains by random substitutions, which keep the model
+ * positions, each strain is put between random flanks and sampled into reads
+ * with substitution errors on either strand, and random background reads are
+ * mixed in. The output directory gets
+ *
+ * reads.fa          the simulated reads
+ * starts.txt        one starting kmer per strain, error free, in the format
+ *                   KmerStartsReader reads
+ * genes.fa          the strain genes (unaligned), the known answers
+ * dataset.properties the simulation parameters and totals
+ */
+public class ReadSimulator {
+
+    public static final String READS_FILE = "reads.fa";
+    public static final String STARTS_FILE = "starts.txt";
+    public static final String GENES_FILE = "genes.fa";
+    public static final String PROPERTIES_FILE = "dataset.properties";
+    private static final char[] BASES = {'a', 'c', 'g', 't'};
+    private static final int TRANSL_TABLE = 11;
+    private final Random rand;
+    private final int readLength;
+    private final double errorRate;
+
+    public ReadSimulator(long seed, int readLength, double errorRate) {
+        this.rand = new Random(seed);
+        this.readLength = readLength;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Model position (1 based, in bases) of every base of an aligned
+     * sequence, 0 for inserted bases
+     */
+    public static int[] getModelPositions(String aligned) {
+        int[] ret = new int[aligned.length()];
+        int length = 0;
+        int column = 0;
+        for (int index = 0; index < aligned.length(); index++) {
+            char c = aligned.charAt(index);
+            if (c == '-') {
+                column++;
+            } else if (Character.isUpperCase(c)) {
+                ret[length++] = ++column;
+            } else if (Character.isLowerCase(c)) {
+                ret[length++] = 0;
+            }
+        }
+        int[] trimmed = new int[length];
+        System.arraycopy(ret, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    /**
+     * Number of model columns in an aligned sequence
+     */
+    public static int countModelColumns(String aligned) {
+        int ret = 0;
+        for (int index = 0; index < aligned.length(); index++) {
+            char c = aligned.charAt(index);
+            if (c == '-' || Character.isUpperCase(c)) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    public static String unalign(String aligned) {
+        StringBuilder ret = new StringBuilder(aligned.length());
+        for (int index = 0; index < aligned.length(); index++) {
+            char c = aligned.charAt(index);
+            if (Character.isLetter(c)) {
+                ret.append(Character.toLowerCase(c));
+            }
+        }
+        return ret.toString();
+    }
+
+    public static String reverseComplement(String seq) {
+        char[] ret = new char[seq.length()];
+        for (int index = 0; index < ret.length; index++) {
+            char c = seq.charAt(seq.length() - index - 1);
+            switch (c) {
+                case 'a':
+                    c = 't';
+                    break;
+                case 'c':
+                    c = 'g';
+                    break;
+                case 'g':
+                    c = 'c';
+                    break;
+                case 't':
+                    c = 'a';
+                    break;
+                default:
+                    c = 'n';
+            }
+            ret[index] = c;
+        }
+        return new String(ret);
+    }
+
+    private static boolean isStop(char[] seq, int codon) {
+        char c1 = seq[codon], c2 = seq[codon + 1], c3 = seq[codon + 2];
+        return c1 == 't' && ((c2 == 'a' && (c3 == 'a' || c3 == 'g')) || (c2 == 'g' && c3 == 'a'));
+    }
+
+    /**
+     * Substitutes every base with the given probability, without creating
+     * stop codons in a coding sequence
+     */
+    public String diverge(String gene, double divergence, boolean coding) {
+        char[] ret = gene.toCharArray();
+        for (int index = 0; index < ret.length; index++) {
+            if (rand.nextDouble() >= divergence) {
+                continue;
+            }
+            char old = ret[index];
+            int codon = index - index % 3;
+            for (int tries = 0; tries < 4; tries++) {
+                ret[index] = BASES[rand.nextInt(BASES.length)];
+                if (!coding || codon + 3 > ret.length || !isStop(ret, codon)) {
+                    break;
+                }
+                ret[index] = old;
+            }
+        }
+        return new String(ret);
+    }
+
+    public String randomSeq(int length) {
+        char[] ret = new char[length];
+        for (int index = 0; index < length; index++) {
+            ret[index] = BASES[rand.nextInt(BASES.length)];
+        }
+        return new String(ret);
+    }
+
+    /**
+     * A read from a random position on either strand of the genome, with
+     * substitution errors
+     */
+    public String sampleRead(String genome) {
+        int start = rand.nextInt(genome.length() - readLength + 1);
+        char[] read = genome.substring(start, start + readLength).toCharArray();
+        for (int index = 0; index < read.length; index++) {
+            if (rand.nextDouble() < errorRate) {
+                char old = read[index];
+                while (read[index] == old) {
+                    read[index] = BASES[rand.nextInt(BASES.length)];
+                }
+            }
+        }
+        String ret = new String(read);
+        return rand.nextBoolean() ? reverseComplement(ret) : ret;
+    }
+
+    /**
+     * Offset of the kmer starting closest to the middle of the model whose
+     * bases are all at consecutive model columns, starting at a codon for
+     * protein models, or -1 if there is none
+     */
+    public static int findStartKmer(int[] modelPos, int k, int unitsPerState) {
+        int best = -1;
+        int bestDist = Integer.MAX_VALUE;
+        int middle = modelPos.length == 0 ? 0 : (modelPos[0] + modelPos[modelPos.length - 1]) / 2;
+        for (int start = 0; start + k <= modelPos.length; start++) {
+            if (modelPos[start] == 0 || (modelPos[start] - 1) % unitsPerState != 0) {
+                continue;
+            }
+            boolean consecutive = true;
+            for (int index = 1; index < k && consecutive; index++) {
+                consecutive = modelPos[start + index] == modelPos[start] + index;
+            }
+            if (consecutive && Math.abs(modelPos[start] - middle) < bestDist) {
+                best = start;
+                bestDist = Math.abs(modelPos[start] - middle);
+            }
+        }
+        return best;
+    }
+
+    private static String geneName(File refFile) {
+        String name = refFile.getName();
+        return name.contains(".") ? name.substring(0, name.lastIndexOf(".")) : name;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new Options();
+        options.addOption("c", "coverage", true, "Read coverage of every strain (default 20)");
+        options.addOption("e", "error-rate", true, "Substitution error rate per read base (default 0.005)");
+        options.addOption("d", "divergence", true, "Substitution rate of the strains from their reference (default 0.02)");
+        options.addOption("s", "strains", true, "Strains simulated from every reference (default 1)");
+        options.addOption("n", "noise", true, "Fraction of the reads that are random background sequence (default 0.5)");
+        options.addOption("l", "read-length", true, "Read length (default 150)");
+        options.addOption("f", "flank", true, "Random sequence added to both ends of every strain (default 300)");
+        options.addOption("k", "kmer", true, "Starting kmer length, a multiple of 3 (default 45)");
+        options.addOption("r", "seed", true, "Random seed (default 1)");
+
+        final File hmmFile;
+        final File refFile;
+        final File outDir;
+        final double coverage, errorRate, divergence, noise;
+        final int strains, readLength, flank, k;
+        final long seed;
+
+        try {
+            CommandLine line = new PosixParser().parse(options, args);
+            args = line.getArgs();
+            if (args.length != 3) {
+                throw new Exception("Unexpected number of arguments");
+            }
+
+            coverage = Double.valueOf(line.getOptionValue("coverage", "20"));
+            errorRate = Double.valueOf(line.getOptionValue("error-rate", "0.005"));
+            divergence = Double.valueOf(line.getOptionValue("divergence", "0.02"));
+            noise = Double.valueOf(line.getOptionValue("noise", "0.5"));
+            strains = Integer.valueOf(line.getOptionValue("strains", "1"));
+            readLength = Integer.valueOf(line.getOptionValue("read-length", "150"));
+            flank = Integer.valueOf(line.getOptionValue("flank", "300"));
+            k = Integer.valueOf(line.getOptionValue("kmer", "45"));
+            seed = Long.valueOf(line.getOptionValue("seed", "1"));
+
+            if (coverage <= 0 || errorRate < 0 || errorRate >= 1 || divergence < 0 || divergence >= 1 || noise < 0 || noise >= 1
+                    || strains < 1 || readLength < k || flank < 0 || k < 3 || k % 3 != 0) {
+                throw new Exception("Option out of range");
+            }
+
+            hmmFile = new File(args[0]);
+            refFile = new File(args[1]);
+            outDir = new File(args[2]);
+        } catch (Exception e) {
+            new HelpFormatter().printHelp("ReadSimulator [options] <hmm> <aligned_nucl_refs> <out_dir>", options);
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            throw new RuntimeException("Stupid jvm");
+        }
+
+        ProfileHMM hmm = HMMER3bParser.readModel(hmmFile);
+        boolean prot = (hmm.getAlphabet() == SequenceType.Protein);
+        int unitsPerState = prot ? 3 : 1;
+        String gene = geneName(refFile);
+
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("Couldn't create " + outDir);
+        }
+
+        System.err.println("Starting read simulation at " + new Date());
+        System.err.println("*  hmm:                 " + hmmFile + " (" + hmm.M() + " states)");
+        System.err.println("*  references:          " + refFile);
+        System.err.println("*  output directory:    " + outDir);
+        System.err.println("*  coverage:            " + coverage);
+        System.err.println("*  error rate:          " + errorRate);
+        System.err.println("*  divergence:          " + divergence);
+        System.err.println("*  strains:             " + strains);
+        System.err.println("*  noise:               " + noise);
+        System.err.println("*  read length:         " + readLength);
+        System.err.println("*  kmer length:         " + k);
+        System.err.println("*  seed:                " + seed);
+
+        ReadSimulator sim = new ReadSimulator(seed, readLength, errorRate);
+        FastaWriter readsOut = new FastaWriter(new File(outDir, READS_FILE));
+        FastaWriter genesOut = new FastaWriter(new File(outDir, GENES_FILE));
+        KmerStartsWriter startsOut = new KmerStartsWriter(new File(outDir, STARTS_FILE).getPath());
+
+        int refs = 0, genes = 0, starts = 0;
+        long geneReads = 0, bases = 0;
+        SequenceReader refReader = new SequenceReader(refFile);
+        Sequence ref;
+        while ((ref = refReader.readNextSequence()) != null) {
+            if (ref.getSeqName().startsWith("#")) {
+                continue;
+            }
+            String aligned = ref.getSeqString();
+            if (countModelColumns(aligned) != hmm.M() * unitsPerState) {
+                throw new IOException("Reference " + ref.getSeqName() + " has " + countModelColumns(aligned) + " model columns, expected "
+                        + hmm.M() * unitsPerState + ", is it aligned to " + hmmFile + "?");
+            }
+            refs++;
+
+            String refSeq = unalign(aligned);
+            int[] modelPos = getModelPositions(aligned);
+            for (int strain = 0; strain < strains; strain++) {
+                String strainId = ref.getSeqName() + "_s" + strain;
+                String strainSeq = sim.diverge(refSeq, divergence, prot);
+                genesOut.writeSeq(strainId, strainSeq);
+                genes++;
+
+                int kmerStart = findStartKmer(modelPos, k, unitsPerState);
+                if (kmerStart < 0) {
+                    System.err.println("No starting kmer without inserts or gaps in " + strainId);
+                } else {
+                    String kmer = strainSeq.substring(kmerStart, kmerStart + k);
+                    int mpos = (modelPos[kmerStart] - 1) / unitsPerState + 1;
+                    startsOut.write(new KmerStart(gene, strainId, ref.getSeqName(), kmer, 1, mpos, prot,
+                            (prot ? ProteinUtils.getInstance().translateToProtein(kmer, true, TRANSL_TABLE) : null)));
+                    starts++;
+                }
+
+                String genome = sim.randomSeq(flank) + strainSeq + sim.randomSeq(flank);
+                if (genome.length() < readLength) {
+                    continue;
+                }
+                long reads = Math.round(coverage * genome.length() / readLength);
+                for (long read = 0; read < reads; read++) {
+                    readsOut.writeSeq(strainId + "_" + read, sim.sampleRead(genome));
+                }
+                geneReads += reads;
+                bases += reads * readLength;
+            }
+        }
+        refReader.close();
+
+        long noiseReads = Math.round(geneReads * noise / (1 - noise));
+        for (long read = 0; read < noiseReads; read++) {
+            readsOut.writeSeq("noise_" + read, sim.randomSeq(readLength));
+        }
+        bases += noiseReads * readLength;
+
+        readsOut.close();
+        genesOut.close();
+        startsOut.close();
+
+        Properties props = new Properties();
+        props.setProperty("gene", gene);
+        props.setProperty("hmm", hmmFile.getPath());
+        props.setProperty("references", refFile.getPath());
+        props.setProperty("coverage", String.valueOf(coverage));
+        props.setProperty("error_rate", String.valueOf(errorRate));
+        props.setProperty("divergence", String.valueOf(divergence));
+        props.setProperty("strains", String.valueOf(strains));
+        props.setProperty("noise", String.valueOf(noise));
+        props.setProperty("read_length", String.valueOf(readLength));
+        props.setProperty("kmer_size", String.valueOf(k));
+        props.setProperty("seed", String.valueOf(seed));
+        props.setProperty("genes", String.valueOf(genes));
+        props.setProperty("starts", String.valueOf(starts));
+        props.setProperty("reads", String.valueOf(geneReads + noiseReads));
+        props.setProperty("bases", String.valueOf(bases));
+        OutputStream propsOut = new FileOutputStream(new File(outDir, PROPERTIES_FILE));
+        props.store(propsOut, "ReadSimulator");
+        propsOut.close();
+
+        System.err.println("Simulated " + genes + " genes from " + refs + " references, " + (geneReads + noiseReads) + " reads ("
+                + noiseReads + " background), " + starts + " starting kmers");
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import edu.msu.cme.rdp.readseq.readers.Sequence;
+import edu.msu.cme.rdp.readseq.readers.SequenceReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads sequences on a background thread and hands them to the caller in
+ * batches through a bounded queue, so decompressing (see SeqInput) and
+ * parsing the reads overlaps with processing them.
+ */
+public class SeqBatchReader {
+
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final int BATCHES_AHEAD = 4;
+    private static final List<Sequence> END_OF_READS = new ArrayList<Sequence>();
+    /**
+     * Longest close waits for the background thread to finish its current
+     * read, in milliseconds
+     */
+    private static final long CLOSE_WAIT_MS = 10000;
+
+    private final BlockingQueue<List<Sequence>> queue = new ArrayBlockingQueue<List<Sequence>>(BATCHES_AHEAD);
+    private final SequenceReader reader;
+    private final Thread thread;
+    private volatile Exception error;
+    private boolean done = false;
+
+    /**
+     * @param threads   number of threads decompressing the input, see
+     *                  SeqInput.open
+     */
+    public SeqBatchReader(File f, int threads) throws IOException {
+        this(f, threads, DEFAULT_BATCH_SIZE);
+    }
+
+    public SeqBatchReader(File f, int threads, final int batchSize) throws IOException {
+        this.reader = new SequenceReader(SeqInput.open(f, threads));
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                readBatches(batchSize);
+            }
+        }, "seq-batch-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readBatches(int batchSize) {
+        try {
+            List<Sequence> batch = new ArrayList<Sequence>(batchSize);
+            Sequence seq;
+            while ((seq = reader.readNextSequence()) != null) {
+                batch.add(seq);
+                if (batch.size() == batchSize) {
+                    queue.put(batch);
+                    batch = new ArrayList<Sequence>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                queue.put(batch);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (Exception e) {
+            error = e;
+        }
+
+        try {
+            queue.put(END_OF_READS);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /**
+     * @return the next batch of sequences, in file order, or null once all
+     * have been returned
+     */
+    public List<Sequence> nextBatch() throws IOException {
+        if (done) {
+            return null;
+        }
+
+        List<Sequence> batch;
+        try {
+            batch = queue.take();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while reading sequences", e);
+        }
+
+        if (batch == END_OF_READS) {
+            done = true;
+            if (error != null) {
+                throw new IOException("Failed to read sequences", error);
+            }
+            return null;
+        }
+        return batch;
+    }
+
+    public void close() throws IOException {
+        // the thread may be inside a read of the sequence reader, wait for it to stop before closing it
+        thread.interrupt();
+        try {
+            thread.join(CLOSE_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reader.close();
+    }
+}
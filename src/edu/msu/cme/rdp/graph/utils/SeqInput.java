@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens sequence files for reading, decompressing gzipped files off the
+ * calling thread. The format is detected from the first bytes, not the file
+ * name:
+ *
+ * <ul>
+ * <li>BGZF is inflated a block at a time by a pool of threads, see
+ * BgzfInputStream</li>
+ * <li>other gzip files, including concatenated members, are inflated on a
+ * dedicated thread reading ahead of the caller, see ReadAheadInputStream</li>
+ * <li>anything else is read as is</li>
+ * </ul>
+ */
+public class SeqInput {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * @param threads   number of threads inflating BGZF blocks
+     */
+    public static InputStream open(File f, int threads) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(f), BUFFER_SIZE);
+
+        byte[] header = new byte[18];
+        in.mark(header.length);
+        int n = readHeader(in, header);
+        in.reset();
+
+        if (isGzip(header, n)) {
+            if (BgzfInputStream.isBgzfHeader(header)) {
+                return new BgzfInputStream(in, threads);
+            }
+            return new ReadAheadInputStream(new GZIPInputStream(in, BUFFER_SIZE));
+        }
+        return in;
+    }
+
+    /**
+     * @return true if f starts with the gzip magic number
+     */
+    public static boolean isGzip(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] header = new byte[2];
+            return isGzip(header, readHeader(in, header));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean isGzip(byte[] header, int n) {
+        return n >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+    }
+
+    private static int readHeader(InputStream in, byte[] header) throws IOException {
+        int n = 0;
+        int read;
+        while (n < header.length && (read = in.read(header, n, header.length - n)) >= 0) {
+            n += read;
+        }
+        return n;
+    }
+}
@@ -119,9 +119,7 @@ public class ExtractGraph {
         long startTime = System.currentTimeMillis();
 
         BloomFilter filter;
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomInFile)));
-        filter = (BloomFilter) ois.readObject();
-        ois.close();
+        filter = BloomFilter.fromFile(bloomInFile);
         System.err.println("Bloomfilter loaded in " + (System.currentTimeMillis() - startTime) / 1000.0f + "s");
 
         int k = filter.getKmerSize();
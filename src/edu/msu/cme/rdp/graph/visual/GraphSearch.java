@@ -27,10 +27,7 @@ import edu.msu.cme.rdp.graph.search.SearchTarget;
 import edu.msu.cme.rdp.kmer.io.KmerStart;
 import edu.msu.cme.rdp.kmer.io.KmerStartsReader;
 import edu.msu.cme.rdp.readseq.SequenceType;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
@@ -145,9 +142,7 @@ public class GraphSearch {
         long startTime;
 
         startTime = System.currentTimeMillis();
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        BloomFilter bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter bloom = BloomFilter.fromFile(bloomFile);
         System.err.println("Bloom filter loaded in " + (System.currentTimeMillis() - startTime) + " ms");
 
         System.err.println("Starting hmmgs search at " + new Date());
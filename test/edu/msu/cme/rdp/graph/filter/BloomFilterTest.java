@@ -17,6 +17,7 @@
 package edu.msu.cme.rdp.graph.filter;
 
 import edu.msu.cme.rdp.graph.filter.BloomFilter.GraphState;
+import edu.msu.cme.rdp.graph.hash.NucleotideHash;
 import edu.msu.cme.rdp.kmer.Kmer;
 import edu.msu.cme.rdp.kmer.NuclKmer;
 import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
@@ -28,6 +29,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -432,6 +439,624 @@ public class BloomFilterTest {
 
     }
 
+    /**
+     * Test of writeTo and fromFile, binary and serialized filters should load
+     * the same
+     */
+    @Test
+    public void testBinaryFormat() throws IOException {
+        int hashSizeLog2 = 20;
+        int hashCount = 3;
+        int kmerSize = 10;
+        int bitsetSizeLog2 = 16;
+        BloomFilter filter = new BloomFilter(hashSizeLog2, hashCount, kmerSize, bitsetSizeLog2, numBits);
+        BloomFilter.GraphBuilder graphBuilder = filter.new GraphBuilder();
+        String seq1 = "aaattgaagagtttgatcatggct";
+        String seq2 = "aaattgaagaaatgcat";
+        graphBuilder.addString(seq1.toCharArray());
+        graphBuilder.addString(seq2.toCharArray());
+
+        File binFile = new File("xx.bloom");
+        File serFile = new File("xx.ser");
+        try {
+            filter.writeTo(binFile);
+            assertTrue(BloomFilter.isBinaryFile(binFile));
+            assertEquals(4096 + (1 << hashSizeLog2) / 8, binFile.length());
+
+            // the hash values are per JVM, they have to be in the header
+            byte[] header = new byte[120];
+            RandomAccessFile in = new RandomAccessFile(binFile, "r");
+            in.readFully(header);
+            in.close();
+            ByteBuffer buf = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(NucleotideHash.getInstance().hashvalues[i], buf.getLong(88 + i * 8));
+            }
+
+            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(serFile)));
+            oos.writeObject(filter);
+            oos.close();
+            assertFalse(BloomFilter.isBinaryFile(serFile));
+
+            for (File f : new File[]{binFile, serFile}) {
+                BloomFilter newFilter = BloomFilter.fromFile(f);
+                assertEquals(filter.getKmerSize(), newFilter.getKmerSize());
+                assertEquals(filter.getHashCount(), newFilter.getHashCount());
+                assertEquals(filter.getHashSizeLog2(), newFilter.getHashSizeLog2());
+                assertEquals(filter.getBitsetSizeLog2(), newFilter.getBitsetSizeLog2());
+                assertEquals(filter.getNumBitsets(), newFilter.getNumBitsets());
+                assertEquals(filter.getUniqueKmers(), newFilter.getUniqueKmers());
+                assertEquals(filter.getTotalKmers(), newFilter.getTotalKmers());
+                assertEquals(filter.getTotalStrings(), newFilter.getTotalStrings());
+                assertEquals(filter.getCreatedOn(), newFilter.getCreatedOn());
+
+                GraphState state = newFilter.new GraphState();
+                for (int i = 0; i + kmerSize <= seq1.length(); i++) {
+                    state.setState(seq1.substring(i, i + kmerSize).toCharArray());
+                    assertTrue(state.hasCurrent());
+                }
+                state.setState("aaattgaagg".toCharArray());
+                assertFalse(state.hasCurrent());
+            }
+        } finally {
+            binFile.delete();
+            serFile.delete();
+        }
+    }
+
+    /**
+     * Test of the blocked layout, it has to behave like the standard layout
+     * and survive a round trip through the binary format
+     */
+    @Test
+    public void testBlockedLayout() throws IOException {
+        int hashSizeLog2 = 20;
+        int hashCount = 4;
+        int kmerSize = 10;
+        int bitsetSizeLog2 = 16;
+        BloomFilter filter = new BloomFilter(hashSizeLog2, hashCount, kmerSize, bitsetSizeLog2, numBits, BloomFilter.LAYOUT_BLOCKED);
+        BloomFilter.GraphBuilder graphBuilder = filter.new GraphBuilder();
+        String seq1 = "aaattgaagagtttgatcatggct";
+        String seq2 = "aaattgaagaaatgcat";
+        String seq3 = "aaattgaagagttagtat";
+        graphBuilder.addString(seq1.toCharArray());
+        graphBuilder.addString(seq2.toCharArray());
+        graphBuilder.addString(seq3.toCharArray());
+
+        File binFile = new File("xx.bloom");
+        try {
+            filter.writeTo(binFile);
+            BloomFilter newFilter = BloomFilter.fromFile(binFile);
+            assertEquals(BloomFilter.LAYOUT_BLOCKED, newFilter.getLayout());
+
+            for (BloomFilter f : new BloomFilter[]{filter, newFilter}) {
+                GraphState state = f.new GraphState();
+                for (int i = 0; i + kmerSize <= seq1.length(); i++) {
+                    state.setState(seq1.substring(i, i + kmerSize).toCharArray());
+                    assertTrue(state.hasCurrent());
+                    assertEquals(1, state.getMinCurrentCount());
+                }
+
+                BloomFilter.RightCodonFacade codonFacade = f.new RightCodonFacade(seq1.substring(0, kmerSize));
+                assertEquals('k', codonFacade.getNextCodon().getAminoAcid());
+                assertEquals('c', codonFacade.getNextCodon().getAminoAcid());
+                assertNull(codonFacade.getNextCodon());
+                assertEquals("aatgc", codonFacade.getPathString());
+            }
+        } finally {
+            binFile.delete();
+        }
+
+        try {
+            new BloomFilter(hashSizeLog2, hashCount, kmerSize, 8, numBits, BloomFilter.LAYOUT_BLOCKED);
+            fail("should throw IllegalArgumentException because bitsets are smaller than a block");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Test of addEncoded, it has to add the same kmers as addString
+     */
+    @Test
+    public void testAddEncoded() {
+        int kmerSize = 10;
+        String[] seqs = {"aaattgaagagtttgatcatggctcag", "aaattgaagaNNgatcatggctcagattgaacgc", "ttgaaNaagagtttgatcatggN", "acgt", "ggcatgcaaaacgtacgta-"};
+
+        BloomFilter stringFilter = new BloomFilter(20, 4, kmerSize, 16, 2);
+        BloomFilter encodedFilter = new BloomFilter(20, 4, kmerSize, 16, 2);
+        BloomFilter.GraphBuilder stringBuilder = stringFilter.new GraphBuilder();
+        BloomFilter.GraphBuilder encodedBuilder = encodedFilter.new GraphBuilder();
+        for (String seq : seqs) {
+            stringBuilder.addString(seq.toCharArray());
+
+            byte[] encoded = new byte[seq.length() + 2];
+            for (int i = 0; i < seq.length(); i++) {
+                encoded[i + 1] = NuclBinMapping.validateLookup[seq.charAt(i)];
+            }
+            encodedBuilder.addEncoded(encoded, 1, seq.length());
+        }
+
+        assertEquals(stringFilter.getTotalStrings(), encodedFilter.getTotalStrings());
+        assertEquals(stringFilter.getTotalKmers(), encodedFilter.getTotalKmers());
+        assertEquals(stringFilter.getUniqueKmers(), encodedFilter.getUniqueKmers());
+        assertEquals(stringBuilder.getKmerAdded(), encodedBuilder.getKmerAdded());
+
+        GraphState stringState = stringFilter.new GraphState();
+        GraphState encodedState = encodedFilter.new GraphState();
+        for (String seq : seqs) {
+            for (int i = 0; i + kmerSize <= seq.length(); i++) {
+                char[] kmer = seq.substring(i, i + kmerSize).toCharArray();
+                try {
+                    stringState.setState(kmer);
+                } catch (InvalidDNABaseException e) {
+                    continue;
+                }
+                encodedState.setState(kmer);
+                assertTrue(encodedState.hasCurrent());
+                assertEquals(stringState.getMinCurrentCount(), encodedState.getMinCurrentCount());
+            }
+        }
+    }
+
+    /**
+     * Test of hasNodes, it has to agree with hasCurrent in both layouts
+     */
+    @Test
+    public void testHasNodes() {
+        int kmerSize = 12;
+        Random rand = new Random(7);
+        for (int layout : new int[]{BloomFilter.LAYOUT_STANDARD, BloomFilter.LAYOUT_BLOCKED}) {
+            BloomFilter filter = new BloomFilter(14, 4, kmerSize, 12, numBits, layout);
+            BloomFilter.GraphBuilder graphBuilder = filter.new GraphBuilder();
+            char[][] kmers = new char[1000][kmerSize];
+            for (int i = 0; i < kmers.length; i++) {
+                for (int j = 0; j < kmerSize; j++) {
+                    kmers[i][j] = "acgt".charAt(rand.nextInt(4));
+                }
+                if (i % 2 == 0) {
+                    graphBuilder.addString(kmers[i]);
+                }
+            }
+
+            GraphState state = filter.new GraphState();
+            long[] fwdHashes = new long[kmers.length];
+            long[] rcHashes = new long[kmers.length];
+            for (int i = 0; i < kmers.length; i++) {
+                state.setState(kmers[i]);
+                fwdHashes[i] = state.getFwdHash();
+                rcHashes[i] = state.getRcHash();
+            }
+
+            BitSet found = new BitSet();
+            found.set(kmers.length + 5);
+            filter.hasNodes(fwdHashes, rcHashes, kmers.length, found);
+            int missing = 0;
+            for (int i = 0; i < kmers.length; i++) {
+                state.setState(kmers[i]);
+                assertEquals(state.hasCurrent(), found.get(i));
+                if (i % 2 == 0) {
+                    assertTrue(found.get(i));
+                } else if (!found.get(i)) {
+                    missing++;
+                }
+            }
+            assertTrue(missing > 0);
+            assertEquals(-1, found.nextSetBit(kmers.length));
+        }
+    }
+
+    /**
+     * Test of getNextCodons and getNextNucls, they have to find the same
+     * emissions in the same order as the walker protocol
+     */
+    @Test
+    public void testNextCodons() {
+        int kmerSize = 9;
+        BloomFilter filter = new BloomFilter(20, 4, kmerSize, 16, numBits);
+        BloomFilter.GraphBuilder graphBuilder = filter.new GraphBuilder();
+        String core = "aaattgaag";
+        Random rand = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            StringBuilder seq = new StringBuilder();
+            for (int j = 0; j < 6; j++) {
+                seq.append("acgt".charAt(rand.nextInt(4)));
+            }
+            seq.append(core);
+            for (int j = 0; j < 6; j++) {
+                seq.append("acgt".charAt(rand.nextInt(4)));
+            }
+            graphBuilder.addString(seq.toString().toCharArray());
+        }
+
+        NextEmissions emissions = new NextEmissions();
+        for (CodonWalker walker : new CodonWalker[]{filter.new RightCodonFacade(core), filter.new LeftCodonFacade(core)}) {
+            int count = walker.getNextCodons(emissions);
+            assertTrue(count > 1);
+
+            int index = 0;
+            for (NextCodon nc = walker.getNextCodon(); nc != null; nc = walker.getSibCodon(), index++) {
+                assertEquals(nc.getCodon(), emissions.getEmission(index));
+                assertEquals(nc.getAminoAcid(), emissions.getAminoAcid(index));
+                assertEquals(walker.getFwdHash(), emissions.getFwdHash(index));
+                assertEquals(walker.getRcHash(), emissions.getRcHash(index));
+            }
+            assertEquals(count, index);
+
+            count = walker.getNextNucls(emissions);
+            index = 0;
+            for (Byte b = walker.getNextNucl(); b != null; b = walker.getSibNucl(), index++) {
+                assertEquals((int) b, emissions.getEmission(index));
+                assertEquals(walker.getFwdHash(), emissions.getFwdHash(index));
+                assertEquals(walker.getRcHash(), emissions.getRcHash(index));
+            }
+            assertEquals(count, index);
+        }
+    }
+
+    private static byte[] readWords(File f) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(f, "r");
+        try {
+            byte[] words = new byte[(int) in.length() - 4096];
+            in.seek(4096);
+            in.readFully(words);
+            return words;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Test that builders adding from several threads produce the same filter
+     * as a single builder
+     */
+    @Test
+    public void testConcurrentBuild() throws Exception {
+        final int kmerSize = 10;
+        final char[][] reads = new char[2000][];
+        Random rand = new Random(1);
+        for (int i = 0; i < reads.length; i++) {
+            reads[i] = new char[50 + rand.nextInt(50)];
+            for (int j = 0; j < reads[i].length; j++) {
+                reads[i][j] = NuclBinMapping.intToChar[rand.nextInt(4)];
+            }
+            if (i % 7 == 0) {
+                reads[i][reads[i].length / 2] = 'n';
+            }
+        }
+
+        BloomFilter serial = new BloomFilter(18, 4, kmerSize, 14, 2);
+        BloomFilter.GraphBuilder serialBuilder = serial.new GraphBuilder();
+        for (char[] read : reads) {
+            serialBuilder.addString(read);
+        }
+
+        final BloomFilter concurrent = new BloomFilter(18, 4, kmerSize, 14, 2);
+        concurrent.setConcurrent(true);
+        final BloomFilter.GraphBuilder[] builders = new BloomFilter.GraphBuilder[4];
+        Thread[] threads = new Thread[builders.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t;
+            builders[t] = concurrent.new GraphBuilder(true);
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = first; i < reads.length; i += builders.length) {
+                        builders[first].addString(reads[i]);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            builders[t].mergeStats();
+        }
+        concurrent.setConcurrent(false);
+
+        assertEquals(serial.getTotalStrings(), concurrent.getTotalStrings());
+        assertEquals(serial.getTotalKmers(), concurrent.getTotalKmers());
+
+        File serialFile = new File("serial.bloom");
+        File concurrentFile = new File("concurrent.bloom");
+        try {
+            serial.writeTo(serialFile);
+            concurrent.writeTo(concurrentFile);
+            assertTrue(Arrays.equals(readWords(serialFile), readWords(concurrentFile)));
+
+            serial.collapse(1);
+            concurrent.collapse(1);
+            serial.writeTo(serialFile);
+            concurrent.writeTo(concurrentFile);
+            assertTrue(Arrays.equals(readWords(serialFile), readWords(concurrentFile)));
+        } finally {
+            serialFile.delete();
+            concurrentFile.delete();
+        }
+    }
+
+    /**
+     * Test that appending in place gives the same file as building from all
+     * the reads, that a file left partly appended to is refused until the
+     * append is run again, and that counting filters are refused
+     */
+    @Test
+    public void testAppendInPlace() throws Exception {
+        int kmerSize = 15;
+        Random rand = new Random(5);
+        char[][] reads = new char[300][60];
+        for (char[] read : reads) {
+            for (int j = 0; j < read.length; j++) {
+                read[j] = NuclBinMapping.intToChar[rand.nextInt(4)];
+            }
+        }
+
+        BloomFilter all = new BloomFilter(18, 4, kmerSize, 14, 1);
+        BloomFilter first = new BloomFilter(18, 4, kmerSize, 14, 1);
+        BloomFilter.GraphBuilder allBuilder = all.new GraphBuilder();
+        BloomFilter.GraphBuilder firstBuilder = first.new GraphBuilder();
+        for (int i = 0; i < reads.length; i++) {
+            allBuilder.addString(reads[i]);
+            if (i < reads.length / 2) {
+                firstBuilder.addString(reads[i]);
+            }
+        }
+
+        File allFile = new File("all.bloom");
+        File appendFile = new File("append.bloom");
+        try {
+            all.writeTo(allFile);
+            first.writeTo(appendFile);
+            assertTrue(first.getChecksum() != 0);
+            assertTrue(first.verifyChecksum());
+
+            BloomFilter appended = BloomFilter.openForAppend(appendFile);
+            BloomFilter.GraphBuilder appendBuilder = appended.new GraphBuilder();
+            for (int i = reads.length / 2; i < reads.length; i++) {
+                appendBuilder.addString(reads[i]);
+            }
+            appended.finishAppend();
+            assertEquals(all.getChecksum(), appended.getChecksum());
+
+            assertTrue(Arrays.equals(readWords(allFile), readWords(appendFile)));
+            BloomFilter loaded = BloomFilter.fromFile(appendFile);
+            assertEquals(all.getTotalStrings(), loaded.getTotalStrings());
+            assertEquals(all.getTotalKmers(), loaded.getTotalKmers());
+            assertEquals(all.getUniqueKmers(), loaded.getUniqueKmers());
+            assertEquals(all.getChecksum(), loaded.getChecksum());
+            assertTrue(loaded.verifyChecksum());
+
+            // an append that never finishes
+            first.writeTo(appendFile);
+            appended = BloomFilter.openForAppend(appendFile);
+            appendBuilder = appended.new GraphBuilder();
+            for (int i = reads.length / 2; i < reads.length - 10; i++) {
+                appendBuilder.addString(reads[i]);
+            }
+            try {
+                BloomFilter.fromFile(appendFile);
+                fail("should throw IOException because the append wasn't finished");
+            } catch (IOException e) {
+            }
+
+            appended = BloomFilter.openForAppend(appendFile);
+            appendBuilder = appended.new GraphBuilder();
+            for (int i = reads.length / 2; i < reads.length; i++) {
+                appendBuilder.addString(reads[i]);
+            }
+            appended.finishAppend();
+            assertTrue(Arrays.equals(readWords(allFile), readWords(appendFile)));
+            loaded = BloomFilter.fromFile(appendFile);
+            assertTrue(loaded.verifyChecksum());
+            assertEquals(all.getTotalStrings(), loaded.getTotalStrings());
+            assertEquals(all.getTotalKmers(), loaded.getTotalKmers());
+
+            // the kmers set before the crash aren't new to the second run, so
+            // the unique kmers come from the occupied buckets
+            long occupied = 0;
+            for (long setOccupied : all.countOccupied(1)) {
+                occupied += setOccupied;
+            }
+            assertEquals(all.estimateKmers(occupied), loaded.getUniqueKmers());
+            assertEquals(all.getUniqueKmers(), loaded.getUniqueKmers(), all.getUniqueKmers() * 0.05);
+        } finally {
+            allFile.delete();
+            appendFile.delete();
+        }
+
+        // counting filters are refused before anything is written
+        BloomFilter counting = new BloomFilter(18, 4, kmerSize, 14, 2);
+        counting.new GraphBuilder().addString(reads[0]);
+        File countingFile = new File("counting.bloom");
+        try {
+            counting.writeTo(countingFile);
+            assertEquals(2, BloomFilter.readNumBits(countingFile));
+            byte[] before = readWords(countingFile);
+            try {
+                BloomFilter.openForAppend(countingFile);
+                fail("should throw IOException because counting filters can't be appended to in place");
+            } catch (IOException e) {
+            }
+            assertTrue(Arrays.equals(before, readWords(countingFile)));
+            assertEquals(counting.getUniqueKmers(), BloomFilter.fromFile(countingFile).getUniqueKmers());
+        } finally {
+            countingFile.delete();
+        }
+    }
+
+    /**
+     * Test that filters built from shards of the reads merge in to the filter
+     * built from all of them, counts included
+     */
+    @Test
+    public void testMerge() throws Exception {
+        int kmerSize = 15;
+        Random rand = new Random(3);
+        char[][] reads = new char[400][60];
+        for (char[] read : reads) {
+            for (int j = 0; j < read.length; j++) {
+                read[j] = NuclBinMapping.intToChar[rand.nextInt(4)];
+            }
+        }
+
+        for (int layout : new int[]{BloomFilter.LAYOUT_STANDARD, BloomFilter.LAYOUT_BLOCKED}) {
+            BloomFilter all = new BloomFilter(18, 4, kmerSize, 14, 2, layout);
+            BloomFilter[] shards = new BloomFilter[3];
+            for (int s = 0; s < shards.length; s++) {
+                shards[s] = new BloomFilter(18, 4, kmerSize, 14, 2, layout, all.getNucleotideHash());
+            }
+            BloomFilter.GraphBuilder allBuilder = all.new GraphBuilder();
+            for (int i = 0; i < reads.length; i++) {
+                allBuilder.addString(reads[i]);
+                shards[i % shards.length].new GraphBuilder().addString(reads[i]);
+                // a few reads in every shard so some counts saturate
+                if (i % 50 == 0) {
+                    for (int s = 0; s < shards.length; s++) {
+                        allBuilder.addString(reads[i]);
+                        shards[s].new GraphBuilder().addString(reads[i]);
+                    }
+                }
+            }
+
+            shards[0].merge(Arrays.asList(shards[1], shards[2]), 3);
+            BloomFilter merged = shards[0];
+            assertEquals(all.getTotalStrings(), merged.getTotalStrings());
+            assertEquals(all.getTotalKmers(), merged.getTotalKmers());
+            assertEquals(all.getUniqueKmers(), merged.getUniqueKmers(), all.getUniqueKmers() * .05);
+
+            File allFile = new File("all.bloom");
+            File mergedFile = new File("merged.bloom");
+            try {
+                all.writeTo(allFile);
+                merged.writeTo(mergedFile);
+                assertTrue(Arrays.equals(readWords(allFile), readWords(mergedFile)));
+
+                all.collapse(2);
+                merged.collapse(2);
+                all.writeTo(allFile);
+                merged.writeTo(mergedFile);
+                assertTrue(Arrays.equals(readWords(allFile), readWords(mergedFile)));
+            } finally {
+                allFile.delete();
+                mergedFile.delete();
+            }
+        }
+
+        BloomFilter filter = new BloomFilter(18, 4, kmerSize, 14, 2);
+        BloomFilter[] incompatible = {
+            new BloomFilter(18, 4, kmerSize + 1, 14, 2),
+            new BloomFilter(18, 4, kmerSize, 14, 1),
+            new BloomFilter(18, 4, kmerSize, 14, 2, BloomFilter.LAYOUT_BLOCKED),
+            new BloomFilter(18, 4, kmerSize, 14, 2, BloomFilter.LAYOUT_STANDARD, new NucleotideHash())
+        };
+        for (BloomFilter other : incompatible) {
+            try {
+                filter.checkMergeable(other);
+                fail("should throw IllegalArgumentException because the filters don't match");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testFold() throws Exception {
+        int kmerSize = 15;
+        Random rand = new Random(5);
+        char[][] reads = new char[300][60];
+        for (char[] read : reads) {
+            for (int j = 0; j < read.length; j++) {
+                read[j] = NuclBinMapping.intToChar[rand.nextInt(4)];
+            }
+        }
+
+        for (int layout : new int[]{BloomFilter.LAYOUT_STANDARD, BloomFilter.LAYOUT_BLOCKED}) {
+            BloomFilter big = new BloomFilter(20, 4, kmerSize, 14, 2, layout);
+            BloomFilter mid = new BloomFilter(16, 4, kmerSize, 14, 2, layout, big.getNucleotideHash());
+            BloomFilter small = new BloomFilter(10, 4, kmerSize, 10, 2, layout, big.getNucleotideHash());
+            for (int i = 0; i < reads.length; i++) {
+                for (int repeat = 0; repeat < 1 + i % 4; repeat++) {
+                    big.new GraphBuilder().addString(reads[i]);
+                    mid.new GraphBuilder().addString(reads[i]);
+                    small.new GraphBuilder().addString(reads[i]);
+                }
+            }
+
+            File bigFile = new File("big.bloom");
+            File foldedFile = new File("folded.bloom");
+            File directFile = new File("direct.bloom");
+            try {
+                big.writeTo(bigFile);
+                BloomFilter mapped = BloomFilter.fromFile(bigFile);
+
+                for (BloomFilter direct : new BloomFilter[]{mid, small}) {
+                    BloomFilter folded = mapped.fold(direct.getHashSizeLog2(), 3);
+                    assertEquals(direct.getHashSizeLog2(), folded.getHashSizeLog2());
+                    assertEquals(direct.getHashMask(), folded.getHashMask());
+                    assertEquals(direct.getNumBitsets(), folded.getNumBitsets());
+                    assertEquals(big.getUniqueKmers(), folded.getUniqueKmers());
+                    assertEquals(big.getTotalKmers(), folded.getTotalKmers());
+
+                    folded.writeTo(foldedFile);
+                    direct.writeTo(directFile);
+                    assertTrue(Arrays.equals(readWords(directFile), readWords(foldedFile)));
+                    assertTrue(BloomFilter.fromFile(foldedFile).verifyChecksum());
+
+                    BloomFilter.GraphState state = folded.new GraphState();
+                    for (char[] read : reads) {
+                        state.setState(Arrays.copyOf(read, kmerSize));
+                        assertTrue(state.hasCurrent());
+                    }
+                }
+            } finally {
+                bigFile.delete();
+                foldedFile.delete();
+                directFile.delete();
+            }
+        }
+
+        try {
+            new BloomFilter(16, 4, kmerSize, 14, 1).fold(17, 1);
+            fail("should throw IllegalArgumentException because filters can't be folded to a larger size");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testOccupancyAndRandomHits() throws Exception {
+        int kmerSize = 21;
+        Random rand = new Random(7);
+        char[] genome = new char[30000];
+        for (int j = 0; j < genome.length; j++) {
+            genome[j] = NuclBinMapping.intToChar[rand.nextInt(4)];
+        }
+
+        for (int numBits : new int[]{1, 2}) {
+            BloomFilter filter = new BloomFilter(18, 3, kmerSize, 12, numBits);
+            assertEquals(0, filter.countRandomHits(10000, 1, 2));
+            filter.new GraphBuilder().addString(genome);
+
+            long[] occupied = filter.countOccupied(3);
+            assertEquals(filter.getNumBitsets(), occupied.length);
+            for (int set = 0; set < occupied.length; set++) {
+                long expected = 0;
+                for (long bit = 0; bit < filter.getBitsetSize(); bit++) {
+                    expected += filter.isSet(((long) set << filter.getBitsetSizeLog2()) + bit) ? 1 : 0;
+                }
+                assertEquals(expected, occupied[set]);
+            }
+
+            long total = 0;
+            for (long o : occupied) {
+                total += o;
+            }
+            assertEquals(filter.getUniqueKmers(), filter.estimateKmers(total), filter.getUniqueKmers() * .05);
+
+            // random kmers are found as often as the fill predicts
+            long samples = 200000;
+            double fillRate = Math.pow((double) total / (1L << 18), 3);
+            assertEquals(fillRate, (double) filter.countRandomHits(samples, 2, 4) / samples, fillRate * .15);
+            assertEquals(filter.countRandomHits(samples, 2, 4), filter.countRandomHits(samples, 2, 4));
+        }
+    }
+
     @Test
     public void testRightNucl() {
         int hashSizeLog2 = 20;
@@ -678,4 +1303,71 @@ public class BloomFilterTest {
         assertEquals(kmer1.toString(), testMer1);
         assertEquals(bloomState.getMinCurrentCount(), 1); 
     }
+
+    /**
+     * Only reads with a kmer new to the filter when they were added can have
+     * a singleton kmer, so checking just those promotes the same mercy kmers
+     * as checking every read
+     */
+    @Test
+    public void testMercyKmerNewReads() {
+        int kmerSize = 12;
+        Random rand = new Random(7);
+        char[] genome = new char[20000];
+        for (int i = 0; i < genome.length; i++) {
+            genome[i] = "acgt".charAt(rand.nextInt(4));
+        }
+        char[][] reads = new char[600][];
+        for (int r = 0; r < reads.length; r++) {
+            int start = rand.nextInt(genome.length - 60);
+            reads[r] = Arrays.copyOfRange(genome, start, start + 60);
+            if (rand.nextInt(3) == 0) {
+                reads[r][rand.nextInt(60)] = "acgtn".charAt(rand.nextInt(5));
+            }
+        }
+
+        BloomFilter allFilter = new BloomFilter(20, 4, kmerSize, 16, 2);
+        BloomFilter newFilter = new BloomFilter(20, 4, kmerSize, 16, 2);
+        BloomFilter.GraphBuilder allBuilder = allFilter.new GraphBuilder();
+        BloomFilter.GraphBuilder newBuilder = newFilter.new GraphBuilder();
+        boolean[] hadNew = new boolean[reads.length];
+        int numNew = 0;
+        for (int r = 0; r < reads.length; r++) {
+            allBuilder.addString(reads[r]);
+            byte[] encoded = new byte[reads[r].length];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = NuclBinMapping.validateLookup[reads[r][i]];
+            }
+            hadNew[r] = newBuilder.addEncoded(encoded, 0, encoded.length);
+            numNew += hadNew[r] ? 1 : 0;
+        }
+        assertTrue(numNew < reads.length);
+
+        BloomFilter.GraphMercyKmer allChecker = allFilter.new GraphMercyKmer();
+        BloomFilter.GraphMercyKmer newChecker = newFilter.new GraphMercyKmer();
+        for (int r = 0; r < reads.length; r++) {
+            allChecker.checkMercyKmer(reads[r]);
+            if (hadNew[r]) {
+                newChecker.checkMercyKmer(reads[r]);
+            }
+        }
+
+        assertTrue(allFilter.getMercyKmers() > 0);
+        assertEquals(allFilter.getMercyKmers(), newFilter.getMercyKmers());
+        assertEquals(allFilter.getSingltonKmers(), newFilter.getSingltonKmers());
+        GraphState allState = allFilter.new GraphState();
+        GraphState newState = newFilter.new GraphState();
+        for (char[] read : reads) {
+            for (int i = 0; i + kmerSize <= read.length; i++) {
+                char[] kmer = Arrays.copyOfRange(read, i, i + kmerSize);
+                try {
+                    allState.setState(kmer);
+                } catch (InvalidDNABaseException e) {
+                    continue;
+                }
+                newState.setState(kmer);
+                assertEquals(allState.getMinCurrentCount(), newState.getMinCurrentCount());
+            }
+        }
+    }
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MultiBitArrayTest {
+
+    private static final int HASH_SIZE_LOG2 = 12;
+    private static final int BITSET_SIZE_LOG2 = 8;
+
+    /**
+     * Increments random buckets and checks the counts saturate at 2^numBits - 1
+     */
+    private int[] fill(MultiBitArray array, int numBits) {
+        int[] expected = new int[1 << HASH_SIZE_LOG2];
+        int max = (1 << numBits) - 1;
+        Random rand = new Random(numBits);
+
+        for (int i = 0; i < expected.length * 3; i++) {
+            int bit = rand.nextInt(expected.length);
+            assertEquals(expected[bit] == 0, array.setBit(bit));
+            expected[bit] = Math.min(max, expected[bit] + 1);
+        }
+
+        return expected;
+    }
+
+    @Test
+    public void testCounts() {
+        for (int numBits = 1; numBits <= 5; numBits++) {
+            MultiBitArray array = new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, numBits);
+            int[] expected = fill(array, numBits);
+
+            for (int bit = 0; bit < expected.length; bit++) {
+                assertEquals("numBits=" + numBits + " bit=" + bit, expected[bit], array.getCount(bit));
+                assertEquals(expected[bit] != 0, array.isSet(bit));
+            }
+        }
+    }
+
+    /**
+     * setBit is only true for the first increment of a count. Before the
+     * counters were interleaved a 2 bit count going from 2 to 3 was reported
+     * as new too, since its low bit was clear.
+     */
+    @Test
+    public void testSetBitReturn() {
+        for (boolean concurrent : new boolean[]{false, true}) {
+            MultiBitArray array = new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, 2);
+            array.setConcurrent(concurrent);
+            assertTrue(array.setBit(5));
+            assertFalse(array.setBit(5));
+            assertFalse(array.setBit(5));
+            assertEquals(3, array.getCount(5));
+            assertFalse(array.setBit(5));
+            assertEquals(3, array.getCount(5));
+        }
+    }
+
+    @Test
+    public void testCollapse() {
+        for (int numBits = 2; numBits <= 3; numBits++) {
+            for (int cutoff = 1; cutoff <= 3; cutoff++) {
+                MultiBitArray array = new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, numBits);
+                int[] expected = fill(array, numBits);
+                array.collapse(cutoff);
+
+                assertEquals(1, array.getNumBits());
+                assertEquals((1 << HASH_SIZE_LOG2) / 8, array.getSizeInBytes());
+                for (int bit = 0; bit < expected.length; bit++) {
+                    assertEquals(expected[bit] >= cutoff, array.isSet(bit));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
+        MultiBitArray array = new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, 3);
+        int[] expected = fill(array, 3);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(array);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        MultiBitArray newArray = (MultiBitArray) ois.readObject();
+
+        assertEquals(array.getNumBitSets(), newArray.getNumBitSets());
+        for (int bit = 0; bit < expected.length; bit++) {
+            assertEquals(expected[bit], newArray.getCount(bit));
+        }
+    }
+
+    @Test
+    public void testConcurrentCounts() throws InterruptedException {
+        for (int numBits = 1; numBits <= 3; numBits++) {
+            final MultiBitArray array = new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, numBits);
+            final int[] expected = new int[1 << HASH_SIZE_LOG2];
+            final int max = (1 << numBits) - 1;
+            array.setConcurrent(true);
+
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < 4; t++) {
+                final Random rand = new Random(t);
+                final int[] bits = new int[expected.length * 2];
+                for (int i = 0; i < bits.length; i++) {
+                    bits[i] = rand.nextInt(expected.length);
+                    expected[bits[i]] = Math.min(max, expected[bits[i]] + 1);
+                }
+                threads.add(new Thread() {
+                    public void run() {
+                        for (int bit : bits) {
+                            array.setBit(bit);
+                        }
+                    }
+                });
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            array.setConcurrent(false);
+
+            for (int bit = 0; bit < expected.length; bit++) {
+                assertEquals("numBits=" + numBits + " bit=" + bit, expected[bit], array.getCount(bit));
+            }
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        for (int numBits = 1; numBits <= 3; numBits++) {
+            MultiBitArray array = new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, numBits);
+            MultiBitArray other = new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, numBits);
+            int[] counts = fill(array, numBits);
+            int[] otherCounts = fill(other, numBits + 1);
+            assertTrue(array.sameShape(other));
+
+            long occupied = 0;
+            for (int set = 0; set < array.getNumBitSets(); set++) {
+                int half = array.getWordsPerSet() / 2;
+                occupied += array.add(new MultiBitArray[]{other}, set, 0, half);
+                occupied += array.add(new MultiBitArray[]{other}, set, half, array.getWordsPerSet());
+            }
+
+            int max = (1 << numBits) - 1;
+            int expectedOccupied = 0;
+            for (int bit = 0; bit < counts.length; bit++) {
+                int otherCount = Math.min(max, otherCounts[bit]);
+                assertEquals("numBits=" + numBits + " bit=" + bit, Math.min(max, counts[bit] + otherCount), array.getCount(bit));
+                expectedOccupied += (array.getCount(bit) > 0) ? 1 : 0;
+            }
+            assertEquals(expectedOccupied, occupied);
+        }
+        assertFalse(new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, 2).sameShape(new MultiBitArray(HASH_SIZE_LOG2, BITSET_SIZE_LOG2, 1)));
+    }
+}
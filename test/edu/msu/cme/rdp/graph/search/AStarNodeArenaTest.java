@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.kmer.NuclKmer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AStarNodeArenaTest {
+
+    @Test
+    public void testToNode() {
+        AStarNode parent = new AStarNode(null, new NuclKmer("acgtacgtacgtacgtacgtacgtacgtacgtacg".toCharArray()), 1, 2, 3, 'm');
+        AStarNode root = new AStarNode(parent, new NuclKmer("cgtacgtacgtacgtacgtacgtacgtacgtacgt".toCharArray()), 3, 4, 4, 'm');
+        root.score = 1.5;
+        root.indels = 2;
+        AStarNodeArena arena = new AStarNodeArena(root, 1);
+        assertEquals(2, arena.words);
+
+        long[] kmer = AStarNodeTableTest.pack(new NuclKmer("gtacgtacgtacgtacgtacgtacgtacgtacgta".toCharArray()));
+        int child = arena.add(0, kmer, 5, 6, 4, 'i');
+        arena.scores[child] = 1.0;
+        arena.lengths[child] = 36;
+        int grandchild = arena.add(child, kmer, 5, 6, 5, 'd');
+        arena.scores[grandchild] = 0.5;
+        for (int index = 0; index < 40; index++) {
+            arena.add(grandchild, kmer, 5, 6, 6, 'm');
+        }
+
+        assertEquals(43, arena.size());
+        assertSame(root, arena.toNode(0));
+
+        AStarNode node = arena.toNode(grandchild);
+        assertEquals('d', node.state);
+        assertEquals(5, node.stateNo);
+        assertEquals(4, node.indels);
+        assertEquals(-.5, node.thisNodeScore, 1e-9);
+        assertEquals("gtacgtacgtacgtacgtacgtacgtacgtacgta", node.kmer.toString());
+        assertEquals(36, node.discoveredFrom.length);
+        assertSame(root, node.discoveredFrom.discoveredFrom);
+        assertSame(parent, node.discoveredFrom.discoveredFrom.discoveredFrom);
+
+        assertTrue(arena.sameNode(grandchild, node));
+        assertFalse(arena.sameNode(child, node));
+        assertEquals(node, arena.toKey(grandchild));
+        assertNull(arena.toKey(grandchild).discoveredFrom);
+    }
+}
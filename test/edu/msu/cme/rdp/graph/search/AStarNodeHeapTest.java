@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.kmer.NuclKmer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AStarNodeHeapTest {
+
+    private static NuclKmer kmer(long bits) {
+        char[] s = new char[8];
+        for (int index = s.length - 1; index >= 0; index--, bits >>>= 2) {
+            s[index] = "acgt".charAt((int) (bits & 3));
+        }
+        return new NuclKmer(s);
+    }
+
+    private static int node(AStarNodeArena arena, long kmer, int stateNo, int fval) {
+        int ret = arena.add(0, AStarNodeTableTest.pack(kmer(kmer)), kmer, ~kmer, stateNo, 'm');
+        arena.fvals[ret] = fval;
+        return ret;
+    }
+
+    private static AStarNodeArena arena() {
+        return new AStarNodeArena(new AStarNode(null, kmer(0), 0, -1, 0, 'm'));
+    }
+
+    @Test
+    public void testDecreaseKey() {
+        AStarNodeArena arena = arena();
+        AStarNodeHeap heap = new AStarNodeHeap(arena);
+        int a = node(arena, 1, 1, 10);
+        int b = node(arena, 2, 1, 20);
+
+        assertTrue(heap.offer(a));
+        assertTrue(heap.offer(b));
+        assertFalse(heap.offer(node(arena, 1, 1, 5)));     // worse copy of a
+        int better = node(arena, 1, 1, 30);
+        assertTrue(heap.offer(better));
+
+        assertEquals(2, heap.size());
+        assertEquals(1, heap.getReplaced());
+        assertEquals(better, heap.get(a));
+
+        assertEquals(better, heap.poll());
+        assertTrue(heap.isClosed(a));
+        assertFalse(heap.offer(node(arena, 1, 1, 100)));   // closed nodes aren't reopened
+        assertEquals(b, heap.poll());
+        assertEquals(-1, heap.poll());
+
+        assertEquals(2, heap.closedSize());
+        assertEquals(2, heap.getPeakSize());
+    }
+
+    @Test
+    public void testPollOrder() {
+        Random rand = new Random(1);
+        AStarNodeArena arena = arena();
+        AStarNodeHeap heap = new AStarNodeHeap(arena);
+        Set<AStarNode> distinct = new HashSet<AStarNode>();
+
+        for (int index = 0; index < 2000; index++) {
+            int n = node(arena, rand.nextInt(1 << 16), rand.nextInt(10), rand.nextInt(100));
+            heap.offer(n);
+            distinct.add(arena.toKey(n));
+        }
+
+        assertEquals(distinct.size(), heap.size());
+        int prev = -1;
+        while (!heap.isEmpty()) {
+            int n = heap.poll();
+            if (prev >= 0) {
+                assertTrue(arena.compare(prev, n) < 0);
+                assertTrue(arena.toNode(prev).compareTo(arena.toNode(n)) < 0);
+            }
+            prev = n;
+        }
+        assertEquals(distinct.size(), heap.closedSize());
+    }
+}
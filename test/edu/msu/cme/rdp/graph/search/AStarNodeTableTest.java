@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.kmer.Kmer;
+import edu.msu.cme.rdp.kmer.NuclKmer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AStarNodeTableTest {
+
+    static long[] pack(Kmer kmer) {
+        long[] ret = new long[kmer.packedLength()];
+        for (int index = 0; index < ret.length; index++) {
+            ret[index] = kmer.getPart(index);
+        }
+        return ret;
+    }
+
+    static int add(AStarNodeArena arena, String kmer, long hash, int stateNo, char state) {
+        return arena.add(0, pack(new NuclKmer(kmer.toCharArray())), hash, ~hash, stateNo, state);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        AStarNodeArena arena = new AStarNodeArena(new AStarNode(null, new NuclKmer("ggg".toCharArray()), 0, 0, 0, 'm'));
+        AStarNodeTable table = new AStarNodeTable(arena, 4);
+        int a = add(arena, "aaa", 1, 1, 'm');
+
+        assertEquals(-1, table.put(a));
+        assertEquals(a, table.get(add(arena, "aaa", 1, 1, 'm')));
+        assertEquals(-1, table.get(add(arena, "aaa", 1, 1, 'i')));
+        assertEquals(-1, table.get(add(arena, "aaa", 1, 2, 'm')));
+
+        int b = add(arena, "aaa", 1, 1, 'm');
+        assertEquals(a, table.put(b));
+        assertEquals(b, table.get(a));
+        assertEquals(1, table.size());
+
+        // same hashes, different kmer
+        assertEquals(-1, table.get(add(arena, "aac", 1, 1, 'm')));
+        assertTrue(table.add(add(arena, "aac", 1, 1, 'm')));
+        assertFalse(table.add(add(arena, "aac", 1, 1, 'm')));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void testGrow() {
+        AStarNodeArena arena = new AStarNodeArena(new AStarNode(null, new NuclKmer("gg".toCharArray()), 0, 0, 0, 'm'));
+        AStarNodeTable table = new AStarNodeTable(arena, 4);
+        char[] bases = {'a', 'c', 'g', 't'};
+        int count = 0;
+        for (char b1 : bases) {
+            for (char b2 : bases) {
+                for (int stateNo = 0; stateNo < 50; stateNo++) {
+                    assertTrue(table.add(add(arena, "" + b1 + b2, b1 * 7 + b2, stateNo, 'd')));
+                    count++;
+                }
+            }
+        }
+
+        assertEquals(count, table.size());
+        for (char b1 : bases) {
+            for (char b2 : bases) {
+                for (int stateNo = 0; stateNo < 50; stateNo++) {
+                    assertTrue(table.contains(add(arena, "" + b1 + b2, b1 * 7 + b2, stateNo, 'd')));
+                    assertFalse(table.contains(add(arena, "" + b1 + b2, b1 * 7 + b2, stateNo, 'm')));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testKmerTieBreak() {
+        AStarNode a = new AStarNode(null, new NuclKmer("acgt".toCharArray()), 0, 0, 3, 'm');
+        AStarNode t = new AStarNode(null, new NuclKmer("tcgt".toCharArray()), 0, 0, 3, 'm');
+
+        // same ordering as comparing the kmer strings
+        assertTrue(a.compareTo(t) > 0);
+        assertTrue(t.compareTo(a) < 0);
+        assertEquals(0, a.compareTo(new AStarNode(null, new NuclKmer("acgt".toCharArray()), 0, 0, 3, 'm')));
+
+        AStarNodeArena arena = new AStarNodeArena(a);
+        int n = arena.add(0, pack(t.kmer), 0, 0, 3, 'm');
+        assertTrue(arena.compare(0, n) > 0);
+        assertTrue(arena.compare(n, 0) < 0);
+    }
+}
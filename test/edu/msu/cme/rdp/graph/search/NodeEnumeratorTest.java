@@ -381,4 +381,23 @@ public class NodeEnumeratorTest {
         "GttTg",
         "gtTtg",
         "Gtttg"}));
+
+    @Test
+    public void testShiftCodon() {
+        Random rand = new Random(1);
+        char[] bases = {'a', 'c', 'g', 't'};
+
+        for (int k : new int[]{3, 20, 32, 33, 34, 35, 45, 64, 65}) {
+            char[] s = new char[k];
+            for (int index = 0; index < k; index++) {
+                s[index] = bases[rand.nextInt(4)];
+            }
+            Kmer kmer = new NuclKmer(s);
+
+            for (int codon = 0; codon < 64; codon++) {
+                Kmer expected = kmer.shiftLeft((byte) (codon >> 4 & 3)).shiftLeft((byte) (codon >> 2 & 3)).shiftLeft((byte) (codon & 3));
+                assertEquals("k=" + k + " codon=" + codon, expected, NodeEnumerator.shiftCodon(kmer, codon));
+            }
+        }
+    }
 }
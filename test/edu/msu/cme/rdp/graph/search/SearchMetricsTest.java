@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.graph.search.SearchMetrics.Termination;
+import edu.msu.cme.rdp.graph.search.SearchResult.SearchDirection;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SearchMetricsTest {
+
+    private static SearchMetrics metrics(String kmer, long opened, long wallMs, Termination termination) {
+        SearchMetrics ret = new SearchMetrics("gene", "q_" + kmer, kmer, 10, SearchDirection.right);
+        ret.addSearch(opened, opened / 2, 3, 2, 1, 7, termination);
+        ret.finish(1, opened * 4, wallMs * 1000000, -1);
+        return ret;
+    }
+
+    @Test
+    public void testAddSearch() {
+        SearchMetrics m = new SearchMetrics("gene", "q", "acg", 10, SearchDirection.left);
+        m.addSearch(100, 50, 3, 2, 1, 20, Termination.goal);
+        m.addSearch(10, 5, 0, 0, 0, 40, Termination.exhausted);
+        assertEquals(Termination.goal, m.getTermination());
+        m.addSearch(10, 5, 0, 0, 0, 5, Termination.time_limit);
+        assertEquals(Termination.time_limit, m.getTermination());
+
+        assertEquals(3, m.getSearches());
+        assertEquals(120, m.getOpenedNodes());
+        assertEquals(60, m.getClosedNodes());
+        assertEquals(40, m.getPeakOpen());
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        StringWriter out = new StringWriter();
+        JsonLinesSearchMetricsSink sink = new JsonLinesSearchMetricsSink(out);
+        sink.record(metrics("acg", 10, 2, Termination.goal));
+        sink.record(metrics("a\"c", 20, 3, null));
+        sink.close();
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("{\"gene\": \"gene\", \"query\": \"q_acg\", \"kmer\": \"acg\", \"start_state\": 10, \"direction\": \"right\", \"searches\": 1, \"paths\": 1, "
+                + "\"nodes_opened\": 10, \"nodes_closed\": 5, \"nodes_pruned\": 3, \"nodes_repeated\": 2, \"nodes_replaced\": 1, \"peak_open\": 7, "
+                + "\"bloom_lookups\": 40, \"wall_ms\": 2.0, \"cpu_ms\": null, \"termination\": \"goal\"}", lines[0]);
+        assertTrue(lines[1].contains("\"kmer\": \"a\\\"c\""));
+        assertTrue(lines[1].endsWith("\"termination\": null}"));
+    }
+
+    @Test
+    public void testSummary() throws Exception {
+        StringWriter out = new StringWriter();
+        SearchMetricsSummary summary = new SearchMetricsSummary(new JsonLinesSearchMetricsSink(out));
+        for (int index = 0; index < 25; index++) {
+            summary.record(metrics("k" + index, index, index, (index % 5 == 0) ? Termination.time_limit : Termination.goal));
+        }
+        summary.close();
+
+        assertEquals(25, out.toString().split("\n").length);
+        assertEquals(25, summary.getCount());
+        assertEquals(300, summary.getOpenedNodes());
+        assertEquals(5, summary.getTerminations(Termination.time_limit));
+        assertEquals(20, summary.getTerminations(Termination.goal));
+
+        List<SearchMetrics> slowest = summary.getSlowest();
+        assertEquals(SearchMetricsSummary.SLOWEST, slowest.size());
+        assertEquals("k24", slowest.get(0).getKmer());
+        assertEquals("k15", slowest.get(slowest.size() - 1).getKmer());
+
+        assertEquals(0, SearchMetricsSummary.bucket(0));
+        assertEquals(1, SearchMetricsSummary.bucket(1));
+        assertEquals(2, SearchMetricsSummary.bucket(3));
+        assertEquals(3, SearchMetricsSummary.bucket(4));
+    }
+}
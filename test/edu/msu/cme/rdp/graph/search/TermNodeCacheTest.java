@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.kmer.NuclKmer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TermNodeCacheTest {
+
+    private static AStarNode node(AStarNode from, String kmer, int stateNo) {
+        return new AStarNode(from, new NuclKmer(kmer.toCharArray()), 0, 0, stateNo, 'm');
+    }
+
+    @Test
+    public void testUnbounded() {
+        TermNodeCache cache = new TermNodeCache();
+        AStarNode start = node(null, "aaa", 1);
+        AStarNode next = node(start, "aac", 2);
+
+        assertNull(cache.get(start));
+        cache.put(start, next);
+        assertSame(next, cache.get(node(null, "aaa", 1)));
+        assertNull(cache.get(node(null, "aaa", 2)));
+
+        assertFalse(cache.isBounded());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1 / 3.0, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        TermNodeCache cache = new TermNodeCache(2);
+        AStarNode a = node(null, "aaa", 1);
+        AStarNode b = node(a, "aac", 2);
+        AStarNode c = node(b, "acg", 3);
+        AStarNode d = node(c, "cgt", 4);
+
+        cache.put(a, b);
+        cache.put(b, c);
+        assertEquals(b, cache.get(a));  // a is now more recently used than b
+        cache.put(c, d);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(b));
+        assertEquals(d, cache.get(c));
+
+        // bounded caches don't keep the paths leading to the nodes
+        assertNull(cache.get(c).discoveredFrom);
+        assertNull(cache.get(a).discoveredFrom);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EncodedSeqReaderTest {
+
+    private static EncodedSeqReader reader(String s, int bufferSize) {
+        return new EncodedSeqReader(Channels.newChannel(new ByteArrayInputStream(s.getBytes())), bufferSize);
+    }
+
+    private static String next(EncodedSeqReader reader) throws IOException {
+        assertTrue(reader.next());
+        return new String(reader.toCharArray());
+    }
+
+    @Test
+    public void testFasta() throws IOException {
+        String fasta = ">seq1 desc\nACGT\nacgu\n\n>seq2\r\nAANN-T\r\n>empty\n>seq4\ntt";
+        // a tiny buffer makes records straddle refills
+        for (int bufferSize : new int[]{3, 1 << 10}) {
+            EncodedSeqReader reader = reader(fasta, bufferSize);
+            assertEquals("acgtacgt", next(reader));
+            assertEquals("aannnt", next(reader));
+            assertEquals(-1, reader.getBases()[2]);
+            assertEquals(-1, reader.getBases()[4]);
+            assertEquals("", next(reader));
+            assertEquals("tt", next(reader));
+            assertFalse(reader.next());
+            assertEquals(fasta.length(), reader.getPosition());
+        }
+    }
+
+    @Test
+    public void testFastq() throws IOException {
+        String fastq = "@read1\nACGT\n+\n@@II\n@read2\nGG\nTT\n+read2\nII\nII\n@read3\nCAT\n+\n!!!\n";
+        for (int bufferSize : new int[]{5, 1 << 10}) {
+            EncodedSeqReader reader = reader(fastq, bufferSize);
+            assertEquals("acgt", next(reader));
+            assertEquals("ggtt", next(reader));
+            assertEquals(4, reader.getLength());
+            assertEquals("cat", next(reader));
+            assertFalse(reader.next());
+        }
+
+        try {
+            EncodedSeqReader reader = reader("@read1\nACGT\n+\nII\n", 1 << 10);
+            reader.next();
+            fail("should throw IOException because the quality is too short");
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LogHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            int bucket = LogHistogram.bucket(value);
+            assertTrue(LogHistogram.lowestValue(bucket) <= value);
+            assertTrue(LogHistogram.highestValue(bucket) >= value);
+        }
+        for (int bucket = 0; bucket < 400; bucket++) {
+            assertEquals(bucket, LogHistogram.bucket(LogHistogram.lowestValue(bucket)));
+            assertEquals(bucket + 1, LogHistogram.bucket(LogHistogram.highestValue(bucket) + 1));
+        }
+        assertEquals(0, LogHistogram.bucket(-5));
+        assertEquals(Long.MAX_VALUE, LogHistogram.highestValue(LogHistogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMax());
+
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(7, histogram.getPercentile(0.7));
+
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 500 && median <= 500 + 500 / LogHistogram.SUB_BUCKETS);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 990 + 990 / LogHistogram.SUB_BUCKETS);
+        assertTrue(histogram.getMax() >= 1000 && histogram.getMax() <= 1000 + 1000 / LogHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        final LogHistogram histogram = new LogHistogram();
+        Thread[] threads = new Thread[4];
+        for (int index = 0; index < threads.length; index++) {
+            threads[index] = new Thread() {
+                @Override
+                public void run() {
+                    for (int value = 0; value < 100000; value++) {
+                        histogram.record(value % 16);
+                    }
+                }
+            };
+            threads[index].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(15, histogram.getMax());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PackedReadCacheTest {
+
+    private static byte[] encode(String s) {
+        byte[] ret = new byte[s.length()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = NuclBinMapping.validateLookup[s.charAt(i)];
+        }
+        return ret;
+    }
+
+    @Test
+    public void testReadBack() throws IOException {
+        String[] reads = {"acgtacgtt", "", "aannnt", "g", "ttgaaacagattgcattttacggaaatggagggattggaaagtcaactac", "acg-"};
+        PackedReadCache cache = new PackedReadCache(null);
+        PackedReadCache.Writer writer = cache.newWriter();
+        for (String read : reads) {
+            byte[] encoded = encode("x" + read + "x");
+            writer.add(encoded, 1, read.length());
+        }
+        writer.flush();
+        assertEquals(reads.length, cache.getNumReads());
+
+        // read twice
+        for (int pass = 0; pass < 2; pass++) {
+            PackedReadCache.Reader reader = cache.open();
+            for (String read : reads) {
+                assertTrue(reader.next());
+                assertEquals(read.replace('-', 'n'), new String(reader.toCharArray()));
+                assertTrue(Arrays.equals(encode(read), Arrays.copyOf(reader.getBases(), reader.getLength())));
+            }
+            assertFalse(reader.next());
+            reader.close();
+        }
+        cache.delete();
+    }
+
+    @Test
+    public void testWriters() throws IOException {
+        // reads bigger than a writer's buffer, from two writers
+        char[] big = new char[3 << 20];
+        Arrays.fill(big, 'c');
+        big[12345] = 'n';
+        String[] reads = {"acgt", new String(big), "ttt"};
+
+        PackedReadCache cache = new PackedReadCache(null);
+        PackedReadCache.Writer w1 = cache.newWriter();
+        PackedReadCache.Writer w2 = cache.newWriter();
+        w1.add(encode(reads[0]), 0, reads[0].length());
+        w2.add(encode(reads[1]), 0, reads[1].length());
+        w2.add(encode(reads[2]), 0, reads[2].length());
+        w1.flush();
+        w2.flush();
+        assertEquals(3, cache.getNumReads());
+        assertEquals(reads[0].length() + reads[1].length() + reads[2].length(), cache.getNumBases());
+
+        PackedReadCache.Reader reader = cache.open();
+        for (String read : reads) {
+            assertTrue(reader.next());
+            assertEquals(read, new String(reader.toCharArray()));
+        }
+        assertFalse(reader.next());
+        reader.close();
+        cache.delete();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ReadSimulatorTest {
+
+    @Test
+    public void testModelPositions() {
+        String aligned = "ACG---aT.TA";
+
+        assertEquals(9, ReadSimulator.countModelColumns(aligned));
+        assertEquals("acgatta", ReadSimulator.unalign(aligned));
+        assertTrue(Arrays.equals(new int[]{1, 2, 3, 0, 7, 8, 9}, ReadSimulator.getModelPositions(aligned)));
+    }
+
+    @Test
+    public void testFindStartKmer() {
+        // columns 1-6, an insert, then 7-15
+        int[] modelPos = ReadSimulator.getModelPositions("ACGACGaACGACGACG");
+
+        // only kmers starting at a codon with no insert inside
+        assertEquals(7, ReadSimulator.findStartKmer(modelPos, 6, 3));
+        assertEquals(-1, ReadSimulator.findStartKmer(modelPos, 12, 3));
+        assertEquals(8, ReadSimulator.findStartKmer(modelPos, 3, 1));
+    }
+
+    @Test
+    public void testDivergeAndSample() {
+        ReadSimulator sim = new ReadSimulator(1, 50, 0);
+        String gene = sim.randomSeq(3000).replace("taa", "caa").replace("tag", "cag").replace("tga", "cga");
+        String strain = sim.diverge(gene, 0.1, true);
+
+        int diffs = 0;
+        for (int index = 0; index < gene.length(); index++) {
+            if (gene.charAt(index) != strain.charAt(index)) {
+                diffs++;
+            }
+        }
+        assertTrue(diffs > 150 && diffs < 300);
+        for (int codon = 0; codon < strain.length(); codon += 3) {
+            String c = strain.substring(codon, codon + 3);
+            assertFalse(c.equals("taa") || c.equals("tag") || c.equals("tga"));
+        }
+
+        for (int read = 0; read < 100; read++) {
+            String seq = sim.sampleRead(strain);
+            assertEquals(50, seq.length());
+            assertTrue(strain.contains(seq) || strain.contains(ReadSimulator.reverseComplement(seq)));
+        }
+        assertEquals("acgtn", ReadSimulator.reverseComplement("nacgt"));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 Michigan State University <rdpstaff at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SeqInputTest {
+
+    private static byte[] reads(int n) {
+        Random rand = new Random(1);
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            ret.append(">read").append(i).append('\n');
+            for (int j = 0; j < 100; j++) {
+                ret.append("acgt".charAt(rand.nextInt(4)));
+            }
+            ret.append('\n');
+        }
+        return ret.toString().getBytes();
+    }
+
+    /**
+     * Writes data as BGZF blocks of at most blockSize bytes, followed by the
+     * empty end of file block
+     */
+    private static void writeBgzf(byte[] data, int blockSize, OutputStream out) throws IOException {
+        for (int off = 0; off <= data.length; off += blockSize) {
+            int len = Math.min(blockSize, data.length - off);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(data, off, len);
+            deflater.finish();
+            byte[] cdata = new byte[len + 1024];
+            int clen = deflater.deflate(cdata);
+            deflater.end();
+
+            CRC32 crc = new CRC32();
+            crc.update(data, off, len);
+            int bsize = 18 + clen + 8 - 1;
+            out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, (byte) bsize, (byte) (bsize >> 8)});
+            out.write(cdata, 0, clen);
+            writeInt(out, (int) crc.getValue());
+            writeInt(out, len);
+            if (len == 0) {
+                break;
+            }
+        }
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException {
+        out.write(new byte[]{(byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24)});
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        byte[] buf = new byte[777];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            ret.write(buf, 0, n);
+        }
+        in.close();
+        return ret.toByteArray();
+    }
+
+    private static File write(byte[] data, String suffix) throws IOException {
+        File f = File.createTempFile("seqinput", suffix);
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(data);
+        out.close();
+        return f;
+    }
+
+    @Test
+    public void testOpen() throws IOException {
+        byte[] data = reads(2000);
+
+        ByteArrayOutputStream bgzf = new ByteArrayOutputStream();
+        writeBgzf(data, 10000, bgzf);
+
+        // two concatenated gzip members
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        int half = data.length / 2;
+        GZIPOutputStream member = new GZIPOutputStream(gzip);
+        member.write(data, 0, half);
+        member.finish();
+        member = new GZIPOutputStream(gzip);
+        member.write(data, half, data.length - half);
+        member.finish();
+
+        for (byte[] file : new byte[][]{data, bgzf.toByteArray(), gzip.toByteArray()}) {
+            File f = write(file, ".fa");
+            for (int threads : new int[]{1, 3}) {
+                assertTrue(Arrays.equals(data, readAll(SeqInput.open(f, threads))));
+            }
+
+            EncodedSeqReader reader = new EncodedSeqReader(f, 2);
+            int count = 0;
+            while (reader.next()) {
+                assertEquals(100, reader.getLength());
+                count++;
+            }
+            assertEquals(2000, count);
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testCorruptBgzf() throws IOException {
+        ByteArrayOutputStream bgzf = new ByteArrayOutputStream();
+        writeBgzf(reads(100), 1000, bgzf);
+        byte[] corrupt = bgzf.toByteArray();
+        corrupt[corrupt.length - 40] ^= 1;  // crc of the last data block
+
+        try {
+            readAll(SeqInput.open(write(corrupt, ".gz"), 2));
+            fail("should throw IOException because a block fails its crc check");
+        } catch (IOException e) {
+        }
+    }
+}